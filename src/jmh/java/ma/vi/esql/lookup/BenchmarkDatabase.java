@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+import ma.vi.esql.database.HSqlDb;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static ma.vi.esql.database.Database.*;
+
+/**
+ * <p>
+ * An in-process, in-memory HSQLDB database with the lookup extension, used as
+ * a stand-in for the production databases so that benchmarks run offline.
+ * It is populated once with the following lookups:
+ * <ul>
+ *   <li><b>BenchGroup:</b> {@link #GROUPS} groups, coded G0, G1, ...</li>
+ *   <li><b>Bench:</b> {@link #VALUES} values coded C0, C1, ..., with alternative
+ *                     codes A0, A1, ... and B0, B1, ..., each linked to a
+ *                     group through a link named BenchGroup.</li>
+ * </ul>
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class BenchmarkDatabase {
+  private BenchmarkDatabase() {}
+
+  static synchronized Database get() {
+    if (db == null) {
+      db = new HSqlDb(Configuration.of(
+          CONFIG_DB_NAME, "mem:lookup-benchmark",
+          CONFIG_DB_USER, "SA",
+          CONFIG_DB_PASSWORD, "",
+          CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class, Configuration.EMPTY)));
+      populate(db);
+    }
+    return db;
+  }
+
+  private static void populate(Database db) {
+    try (EsqlConnection con = db.esql()) {
+      con.exec("delete l from l:_lookup.LookupValueLink");
+      con.exec("delete l from l:_lookup.LookupValue");
+      con.exec("delete l from l:_lookup.LookupLink");
+      con.exec("delete l from l:_lookup.Lookup");
+
+      UUID groupId = UUID.randomUUID();
+      UUID benchId = UUID.randomUUID();
+      con.exec("insert into _lookup.Lookup(_id, name, display_name) values "
+             + "('" + groupId + "', 'BenchGroup', 'Benchmark group'), "
+             + "('" + benchId + "', 'Bench', 'Benchmark')");
+      con.exec("insert into _lookup.LookupLink(_id, source_lookup_id, target_lookup_id) "
+             + "values(newid(), '" + benchId + "', '" + groupId + "')");
+
+      StringBuilder values = new StringBuilder();
+      for (int i = 0; i < GROUPS; i++) {
+        values.append(values.isEmpty() ? "" : ", ")
+              .append("(newid(), '").append(groupId).append("', 'G").append(i)
+              .append("', 'en', 'Group ").append(i).append("')");
+      }
+      con.exec("insert into _lookup.LookupValue(_id, lookup_id, code, lang, label) values " + values);
+
+      for (int batch = 0; batch < VALUES; batch += 1000) {
+        values.setLength(0);
+        for (int i = batch; i < Math.min(batch + 1000, VALUES); i++) {
+          values.append(values.isEmpty() ? "" : ", ")
+                .append("(newid(), '").append(benchId)
+                .append("', 'C").append(i)
+                .append("', 'A").append(i)
+                .append("', 'B").append(i)
+                .append("', '").append(i % GROUPS)
+                .append("', 'en', 'Value ").append(i).append("')");
+        }
+        con.exec("insert into _lookup.LookupValue(_id, lookup_id, code, alt_code1, alt_code2, description, lang, label) "
+               + "values " + values);
+      }
+
+      /*
+       * Link each value to its group, whose number is held in the value description.
+       */
+      con.exec("insert into _lookup.LookupValueLink(_id, name, source_value_id, target_value_id) "
+             + "select newid(), 'BenchGroup', lv._id, "
+             + "       (select _id "
+             + "          from target:_lookup.LookupValue "
+             + "         where target.code='G' || lv.description "
+             + "           and target.lookup_id='" + groupId + "') "
+             + "  from lv:_lookup.LookupValue "
+             + " where lv.lookup_id='" + benchId + "'");
+    }
+  }
+
+  static final int GROUPS = 100;
+  static final int VALUES = 100_000;
+
+  private static Database db;
+}
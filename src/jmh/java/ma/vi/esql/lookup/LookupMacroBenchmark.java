@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.esql.syntax.Parser;
+import ma.vi.esql.syntax.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing, with the expansion of the lookuplabel and joinlabel macros, of a
+ * query with 0 to 5 links. The time taken by the expansion itself is the
+ * difference with the baseline, which parses the same query without the
+ * macro. As the same query is parsed again and again, its expansion comes
+ * from the expansion cache of the macro after the first parse; the uncached
+ * benchmarks parse variants of the query differing by a separator, more than
+ * the cache can hold, so that every call is expanded.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LookupMacroBenchmark {
+  @Param({"0", "1", "2", "3", "4", "5"})
+  public int links;
+
+  @Setup
+  public void setup() {
+    parser = new Parser(BenchmarkDatabase.get().structure());
+
+    StringBuilder lookupLinks = new StringBuilder();
+    StringBuilder joinLinks   = new StringBuilder();
+    for (int i = 0; i < links; i++) {
+      lookupLinks.append(", 'BenchGroup'");
+      joinLinks.append(", '_id', '_id', 'name', '_lookup.Lookup'");
+    }
+    baseline    = "select label:v.label from v:_lookup.LookupValue";
+    lookupLabel = "select label:lookuplabel(v.code, 'Bench'" + lookupLinks + ") from v:_lookup.LookupValue";
+    joinLabel   = "select label:joinlabel(v.lookup_id, '_id', 'name', '_lookup.Lookup'" + joinLinks + ") "
+                + "from v:_lookup.LookupValue";
+
+    lookupLabelVariants = new String[VARIANTS];
+    joinLabelVariants   = new String[VARIANTS];
+    for (int i = 0; i < VARIANTS; i++) {
+      lookupLabelVariants[i] = lookupLabel.replace("'Bench'", "'Bench', code_separator='" + i + "'");
+      joinLabelVariants[i]   = joinLabel.replace("'_lookup.Lookup'", "'_lookup.Lookup', label_separator='" + i + "'");
+    }
+  }
+
+  @Benchmark
+  public Program baseline() {
+    return parser.parse(baseline);
+  }
+
+  @Benchmark
+  public Program lookupLabel() {
+    return parser.parse(lookupLabel);
+  }
+
+  @Benchmark
+  public Program joinLabel() {
+    return parser.parse(joinLabel);
+  }
+
+  @Benchmark
+  public Program lookupLabelUncached() {
+    return parser.parse(lookupLabelVariants[variant = (variant + 1) % VARIANTS]);
+  }
+
+  @Benchmark
+  public Program joinLabelUncached() {
+    return parser.parse(joinLabelVariants[variant = (variant + 1) % VARIANTS]);
+  }
+
+  /**
+   * Number of variants of the queries parsed by the uncached benchmarks, more
+   * than the expansions cached.
+   */
+  private static final int VARIANTS = 4 * ExpansionCache.MAX_ENTRIES;
+
+  private Parser parser;
+  private String baseline;
+  private String lookupLabel;
+  private String joinLabel;
+  private String[] lookupLabelVariants;
+  private String[] joinLabelVariants;
+  private int variant;
+}
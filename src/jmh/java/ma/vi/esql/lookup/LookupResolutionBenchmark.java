@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static ma.vi.esql.lookup.BenchmarkDatabase.VALUES;
+
+/**
+ * Resolution of lookup values through {@link LookupExtension} on cached
+ * lookups, and cold loading of all lookups.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LookupResolutionBenchmark {
+  @Setup
+  public void setup() {
+    ext = BenchmarkDatabase.get().extension(LookupExtension.class);
+    lookup = ext.loadLookup("Bench");
+    codes     = new String[VALUES];
+    altCodes1 = new String[VALUES];
+    altCodes2 = new String[VALUES];
+    for (int i = 0; i < VALUES; i++) {
+      int n = (int)((i * 7919L) % VALUES);
+      codes[i]     = "C" + n;
+      altCodes1[i] = "A" + n;
+      altCodes2[i] = "B" + n;
+    }
+  }
+
+  @Benchmark
+  public Optional<LookupValue> findByCode() {
+    return ext.findLookupValue("Bench", codes[next()], Lookup.MatchBy.code);
+  }
+
+  @Benchmark
+  public Optional<LookupValue> findByAltCode1() {
+    return ext.findLookupValue("Bench", altCodes1[next()], Lookup.MatchBy.altCode1);
+  }
+
+  @Benchmark
+  public Optional<LookupValue> findByAltCode2() {
+    return ext.findLookupValue("Bench", altCodes2[next()], Lookup.MatchBy.altCode2);
+  }
+
+  @Benchmark
+  public LookupValue mapByAltCode1() {
+    Map<String, LookupValue> values = lookup.mapBy(Lookup.MatchBy.altCode1);
+    return values.get(altCodes1[next()]);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public List<Lookup> coldLoad() {
+    ext.invalidateLookups();
+    return ext.loadLookups();
+  }
+
+  private int next() {
+    int i = index++;
+    if (index == VALUES) index = 0;
+    return i;
+  }
+
+  private LookupExtension ext;
+  private Lookup lookup;
+  private String[] codes;
+  private String[] altCodes1;
+  private String[] altCodes2;
+  private int index;
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.Postgresql;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static ma.vi.esql.database.Database.*;
+
+/**
+ * <p>
+ * Per-call cost of the PostgreSQL lookup label functions, by lookup name
+ * (<code>_lookup.lookup_label</code>) and by lookup id
+ * (<code>_lookup.lookup_label_by_id</code>), with 0 to 2 links, measured by
+ * finding the labels of {@link #ROWS} codes in a single query.
+ * </p>
+ *
+ * <p>
+ * Unlike the other benchmarks, this one needs a PostgreSQL database, by
+ * default the test database; another one can be set with the
+ * <code>bench.pg.name</code>, <code>bench.pg.user</code> and
+ * <code>bench.pg.password</code> system properties. Run it with:
+ * <pre>
+ *   gradle jmh -PjmhInclude=PostgresqlLookupLabel
+ * </pre>
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PostgresqlLookupLabelBenchmark {
+  @Param({"0", "1", "2"})
+  public int links;
+
+  @Setup
+  public void setup() throws SQLException {
+    db = new Postgresql(Configuration.of(
+        CONFIG_DB_NAME,     System.getProperty("bench.pg.name",     "test"),
+        CONFIG_DB_USER,     System.getProperty("bench.pg.user",     "test"),
+        CONFIG_DB_PASSWORD, System.getProperty("bench.pg.password", "test"),
+        CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class, Configuration.of("schema", "_lookup"))));
+    LookupExtension ext = db.extension(LookupExtension.class);
+
+    /*
+     * BenchPgValue values are linked to BenchPgGroup values, themselves linked
+     * to BenchPgSection values.
+     */
+    Lookup section = lookup(ext, "BenchPgSection", "S", 10,    null,    null, 0);
+    Lookup group   = lookup(ext, "BenchPgGroup",   "G", 100,   section, "S",  10);
+    lookup(ext, "BenchPgValue", "C", CODES, group, "G", 100);
+
+    StringBuilder path = new StringBuilder();
+    if (links > 0) path.append(", 'BenchPgGroup'");
+    if (links > 1) path.append(", 'BenchPgSection'");
+    UUID lookupId = ext.lookupId("BenchPgValue");
+    byName = "select count(_lookup.lookup_label(code, 'BenchPgValue', false, true" + path + ")) "
+           + "from bench_pg_codes";
+    byId   = "select count(_lookup.lookup_label_by_id(code, '" + lookupId + "'::uuid, false, true" + path + ")) "
+           + "from bench_pg_codes";
+
+    con = db.pooledConnection();
+    try (Statement st = con.createStatement()) {
+      st.executeUpdate("create temporary table bench_pg_codes as "
+                     + "select 'C' || (i % " + CODES + ") as code from generate_series(1, " + ROWS + ") i");
+      st.executeUpdate("analyze bench_pg_codes");
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException {
+    con.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public long byName() throws SQLException {
+    return count(byName);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public long byId() throws SQLException {
+    return count(byId);
+  }
+
+  private long count(String query) throws SQLException {
+    try (Statement st = con.createStatement();
+         ResultSet rs = st.executeQuery(query)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  /**
+   * Saves a lookup of values coded with the prefix followed by their number,
+   * value i being linked to value (i mod linkedCount) of the linked lookup,
+   * coded in the same way with the linked prefix.
+   */
+  private static Lookup lookup(LookupExtension ext,
+                               String          name,
+                               String          prefix,
+                               int             count,
+                               Lookup          linked,
+                               String          linkedPrefix,
+                               int             linkedCount) {
+    Map<String, LookupValue> values = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      List<LookupValueLink> valueLinks = linked == null
+          ? List.of()
+          : List.of(new LookupValueLink(linked.name(),
+                                        new LookupValue(null, linked.name(), linkedPrefix + (i % linkedCount),
+                                                        null, null, null, null, null, List.of())));
+      values.put(prefix + i, new LookupValue(UUID.randomUUID(), name, prefix + i, null, null,
+                                             "Label " + prefix + i, null, "en", valueLinks));
+    }
+    UUID id = ext.lookupId(name);
+    Lookup lookup = new Lookup(id == null ? UUID.randomUUID() : id, name, null, name, null,
+                               linked == null ? List.of() : List.of(linked), values, Map.of());
+    ext.saveLookup(lookup);
+    return lookup;
+  }
+
+  /**
+   * Number of distinct codes in the looked up lookup.
+   */
+  static final int CODES = 1000;
+
+  /**
+   * Number of rows, and of function calls, of each query.
+   */
+  static final int ROWS = 1_000_000;
+
+  private Database db;
+  private Connection con;
+  private String byName;
+  private String byId;
+}
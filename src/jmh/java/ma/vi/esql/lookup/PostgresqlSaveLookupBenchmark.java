@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+import ma.vi.esql.database.Postgresql;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static ma.vi.esql.database.Database.*;
+
+/**
+ * <p>
+ * Time to save a lookup of {@link #VALUES} values, each linked to a value of
+ * another lookup, value by value with
+ * {@link LookupExtension#saveLookupValue(EsqlConnection, UUID, LookupValue)}
+ * in a single transaction, as lookups were saved before {@link LookupWriter},
+ * and in bulk with {@link LookupExtension#saveLookup(Lookup)}. Both replace
+ * the values of the lookup saved on setup, updating all of them.
+ * </p>
+ *
+ * <p>
+ * The bulk writer only stages values on PostgreSQL and SQL Server, so this
+ * benchmark needs a PostgreSQL database, by default the test database;
+ * another one can be set with the <code>bench.pg.name</code>,
+ * <code>bench.pg.user</code> and <code>bench.pg.password</code> system
+ * properties. Run it with:
+ * <pre>
+ *   gradle jmh -PjmhInclude=PostgresqlSaveLookup
+ * </pre>
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PostgresqlSaveLookupBenchmark {
+  @Setup
+  public void setup() {
+    db = new Postgresql(Configuration.of(
+        CONFIG_DB_NAME,     System.getProperty("bench.pg.name",     "test"),
+        CONFIG_DB_USER,     System.getProperty("bench.pg.user",     "test"),
+        CONFIG_DB_PASSWORD, System.getProperty("bench.pg.password", "test"),
+        CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class, Configuration.of("schema", "_lookup"))));
+    ext = db.extension(LookupExtension.class);
+
+    Map<String, LookupValue> groups = new LinkedHashMap<>();
+    for (int i = 0; i < GROUPS; i++) {
+      groups.put("G" + i, new LookupValue(UUID.randomUUID(), "BenchSaveGroup", "G" + i, null, null,
+                                          "Group " + i, null, "en", List.of()));
+    }
+    UUID groupId = ext.lookupId("BenchSaveGroup");
+    Lookup group = new Lookup(groupId == null ? UUID.randomUUID() : groupId, "BenchSaveGroup",
+                              null, "BenchSaveGroup", null, List.of(), groups, Map.of());
+    ext.saveLookup(group);
+
+    Map<String, LookupValue> values = new LinkedHashMap<>();
+    for (int i = 0; i < VALUES; i++) {
+      values.put("C" + i, new LookupValue(UUID.randomUUID(), "BenchSaveValue", "C" + i, null, null,
+                                          "Label " + i, null, "en",
+                                          List.of(new LookupValueLink(group.name(),
+                                                  new LookupValue(null, group.name(), "G" + (i % GROUPS),
+                                                                  null, null, null, null, null, List.of())))));
+    }
+    UUID id = ext.lookupId("BenchSaveValue");
+    lookup = new Lookup(id == null ? UUID.randomUUID() : id, "BenchSaveValue", null, "BenchSaveValue",
+                        null, List.of(group), values, Map.of());
+    lookupId = ext.saveLookup(lookup);
+  }
+
+  @Benchmark
+  public void perValue() throws SQLException {
+    try (EsqlConnection con = db.esql()) {
+      Connection c = con.con();
+      c.setAutoCommit(false);
+      for (LookupValue value: lookup.values().values()) {
+        ext.saveLookupValue(con, lookupId, value);
+      }
+      ext.commit(con);
+      c.setAutoCommit(true);
+    }
+  }
+
+  @Benchmark
+  public UUID bulk() {
+    return ext.saveLookup(lookup);
+  }
+
+  /**
+   * Number of values of the saved lookup.
+   */
+  static final int VALUES = 100_000;
+
+  /**
+   * Number of values of the linked lookup.
+   */
+  static final int GROUPS = 100;
+
+  private Database db;
+  private LookupExtension ext;
+  private Lookup lookup;
+  private UUID lookupId;
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup.init;
+
+import ma.vi.base.collections.ArrayIterator;
+import ma.vi.esql.lookup.LookupValue;
+import ma.vi.esql.lookup.LookupValueLink;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link LookupValueParser} compared to the split-based parsing
+ * it replaced in {@link LookupInitializer}, on lines with and without
+ * alternative codes, escaped commas and link codes.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LookupValueParserBenchmark {
+  @Param("1000000")
+  public int lines;
+
+  @Setup
+  public void setup() {
+    values = new String[lines];
+    for (int i = 0; i < lines; i++) {
+      values[i] = switch (i % 4) {
+        case 0  -> "C" + i + ",Value " + i + "|MUR|SADC";
+        case 1  -> "C" + i + ",A" + i + ",Value\\, number " + i + "|USD|COMESA";
+        case 2  -> "C" + i + ",A" + i + "," + i + ",Value " + i + ",Description of value " + i + ",en|EUR|SADC";
+        default -> " C" + i + " , A" + i + " , " + i + " , Value " + i + " | ZAR | SADC ";
+      };
+    }
+  }
+
+  @Benchmark
+  public void tokenizer(Blackhole bh) {
+    LookupValueParser parser = new LookupValueParser("Benchmark", LINKS);
+    for (String value: values) {
+      bh.consume(parser.parse(value));
+    }
+  }
+
+  @Benchmark
+  public void split(Blackhole bh) {
+    for (String value: values) {
+      bh.consume(split("Benchmark", LINKS, value));
+    }
+  }
+
+  /**
+   * The parsing of lookup values previously done by {@link LookupInitializer}.
+   */
+  static LookupValue split(String name, List<String> lookupLinks, String value) {
+    String code;
+    String label;
+    String altCode1 = null;
+    String altCode2 = null;
+    String description = null;
+    String lang = null;
+
+    String suffix = null;
+    int pos = value.indexOf('|');
+    if (pos != -1) {
+      suffix = value.substring(pos + 1);
+      value = value.substring(0, pos);
+    }
+
+    value = value.replace("\\,", "\ue000");
+    Iterator<String> i = new ArrayIterator<>(value.split(","));
+    code = clean(i.next());
+
+    if (!i.hasNext()) {
+      throw new IllegalArgumentException("Missing label from value: " + value);
+    }
+    String part = clean(i.next());
+    if (i.hasNext()) {
+      altCode1 = part;
+      part = clean(i.next());
+      if (i.hasNext()) {
+        altCode2 = part;
+        label = clean(i.next());
+      } else {
+        label = part;
+      }
+    } else {
+      label = part;
+    }
+    if (i.hasNext()) description = clean(i.next());
+    if (i.hasNext()) lang = clean(i.next());
+
+    LookupValue lv = new LookupValue(UUID.randomUUID(),
+                                     name,
+                                     code,
+                                     altCode1,
+                                     altCode2,
+                                     label,
+                                     description,
+                                     lang,
+                                     new ArrayList<>());
+    if (suffix != null) {
+      String[] linkValues = suffix.split("\\|");
+      if (linkValues.length != lookupLinks.size()) {
+        throw new IllegalArgumentException(linkValues.length + " linked codes "
+                                         + "were provided but " + lookupLinks.size()
+                                         + " links have been defined on the lookup "
+                                         + name);
+      }
+      for (int j = 0; j < linkValues.length; j++) {
+        String linkName = lookupLinks.get(j);
+        lv.links().add(new LookupValueLink(linkName,
+                                           new LookupValue(null, linkName, linkValues[j].trim(),
+                                                           null, null, null, null, null, List.of())));
+      }
+    }
+    return lv;
+  }
+
+  private static String clean(String s) {
+    return s.replace("\ue000", ",").trim();
+  }
+
+  private static final List<String> LINKS = List.of("Currency", "RegionalGrouping");
+
+  private String[] values;
+}
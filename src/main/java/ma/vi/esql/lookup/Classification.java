@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+/**
+ * A value of a lookup whose label is similar to a text classified with
+ * {@link LookupExtension#classify(java.util.Collection, String, double, int)}.
+ *
+ * @param code       The code of the value.
+ * @param label      The label of the value.
+ * @param similarity The trigram similarity of the label to the text, from 0
+ *                   (no trigram in common) to 1 (same trigrams).
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public record Classification(String code, String label, double similarity) {}
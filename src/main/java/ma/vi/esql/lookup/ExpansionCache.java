@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.esql.syntax.Esql;
+import ma.vi.esql.syntax.expression.Expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static ma.vi.esql.translation.Translatable.Target.ESQL;
+
+/**
+ * <p>
+ * The expansions of the calls to a lookup macro (<code>lookuplabel</code> or
+ * <code>joinlabel</code>), so that the same call in statements parsed again
+ * and again is only expanded once. Expansions are keyed on the ESQL text of
+ * the call, with its arguments and named arguments, the aliases of the tables
+ * of the enclosing query, from which the expansion chooses its own aliases,
+ * and any other property of the place of the call on which the expansion
+ * depends.
+ * </p>
+ *
+ * <p>
+ * Expansions are copied in and out of the cache as statements are modified
+ * as they are translated. The least recently used expansion is dropped when
+ * the cache is full.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class ExpansionCache {
+  ExpansionCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * The key of the call made in a query with the tables aliases, and the
+   * other properties of its place listed.
+   */
+  static String key(Expression<?, ?> call,
+                    Set<String>      aliases,
+                    Object...        place) {
+    StringBuilder key = new StringBuilder(String.valueOf(call.translate(ESQL)));
+    for (String alias: new TreeSet<>(aliases)) {
+      key.append('\u0000').append(alias);
+    }
+    key.append('\u0000');
+    for (Object p: place) {
+      key.append('\u0000').append(p);
+    }
+    return key.toString();
+  }
+
+  /**
+   * A copy of the expansion cached for the key, or null.
+   */
+  Esql<?, ?> get(String key) {
+    Esql<?, ?> expansion;
+    synchronized (expansions) {
+      expansion = expansions.get(key);
+    }
+    return expansion == null ? null : expansion.copy();
+  }
+
+  /**
+   * The number of times the cache has been cleared, to be read before
+   * expanding a call missing from the cache and passed to
+   * {@link #put(String, Esql, long)} with the expansion.
+   */
+  long generation() {
+    synchronized (expansions) {
+      return generation;
+    }
+  }
+
+  /**
+   * Caches a copy of the expansion, unless the cache has been cleared since
+   * the generation was read, and so the expansion could be stale.
+   */
+  void put(String key, Esql<?, ?> expansion, long generation) {
+    Esql<?, ?> copy = expansion.copy();
+    synchronized (expansions) {
+      if (generation == this.generation) {
+        expansions.put(key, copy);
+      }
+    }
+  }
+
+  /**
+   * Drops all cached expansions.
+   */
+  void clear() {
+    synchronized (expansions) {
+      expansions.clear();
+      generation++;
+    }
+  }
+
+  int size() {
+    synchronized (expansions) {
+      return expansions.size();
+    }
+  }
+
+  private final int maxEntries;
+
+  private long generation;
+
+  private final Map<String, Esql<?, ?>> expansions = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Esql<?, ?>> eldest) {
+      return size() > maxEntries;
+    }
+  };
+
+  /**
+   * Default maximum number of expansions cached by each macro.
+   */
+  static final int MAX_ENTRIES = 1000;
+}
@@ -17,6 +17,7 @@ import ma.vi.esql.syntax.Parser;
 import ma.vi.esql.syntax.define.Define;
 import ma.vi.esql.syntax.expression.*;
 import ma.vi.esql.syntax.expression.comparison.Equality;
+import ma.vi.esql.syntax.expression.comparison.GreaterThan;
 import ma.vi.esql.syntax.expression.comparison.ILike;
 import ma.vi.esql.syntax.expression.comparison.IsNull;
 import ma.vi.esql.syntax.expression.literal.NullLiteral;
@@ -80,6 +81,17 @@ import static ma.vi.esql.translation.Translatable.Target.ESQL;
  * <li><b>labels_limit:</b> The number labels to return. Applies only when the
  *                          code searched is null; can be used to lazily load
  *                          labels in pages.</li>
+ * <li><b>labels_after:</b> The code (target id of the first table) after which
+ *                          to start returning labels. Applies only when the code
+ *                          searched is null. The labels are then returned in
+ *                          code order instead of label order, and without
+ *                          eliminating duplicates, so that the database can
+ *                          seek to the page on an index on the code and read
+ *                          only the rows of the page: passing the last code of
+ *                          a page loads the next one in the same time however
+ *                          deep it is; <code>labels_after=null</code> loads the
+ *                          first page in that order. The code must be unique in
+ *                          the first table.</li>
  * <li><b>notfiltered:</b> Disable automatic security filtering. Default is false.</li>
  * </ul>
  * @author Vikash Madhow (vikash.madhow@gmail.com)
@@ -101,6 +113,28 @@ public class JoinLabel extends Function implements TypedMacro {
       return esql;
     }
     FunctionCall call = (FunctionCall)esql;
+    QueryUpdate qu = path.ancestor(QueryUpdate.class);
+    Set<String> aliases = qu != null && qu.tables().exists(path)
+                        ? new HashSet<>(qu.tables().computeType(path.add(qu)).aliases())
+                        : new HashSet<>();
+
+    /*
+     * The expansion only depends on the call and on the aliases already used
+     * in the query.
+     */
+    String key = ExpansionCache.key(call, aliases);
+    Esql<?, ?> expanded = expansions.get(key);
+    if (expanded == null) {
+      long generation = expansions.generation();
+      expanded = expand(call, path, aliases);
+      expansions.put(key, expanded, generation);
+    }
+    return expanded;
+  }
+
+  private Esql<?, ?> expand(FunctionCall call,
+                            EsqlPath     path,
+                            Set<String>  aliases) {
     Context ctx = call.context;
     List<Expression<?, ?>> arguments = call.arguments();
 
@@ -125,6 +159,7 @@ public class JoinLabel extends Function implements TypedMacro {
     String           keywords       = null;                             // Keywords that will be used to limit the loaded labels.
     Expression<?, ?> offset         = null;                             // Offset labels loading by this number.
     Expression<?, ?> limit          = null;                             // Limit labels to load to this number.
+    Expression<?, ?> after          = null;                             // Load labels of codes after this one (keyset pagination).
     boolean          unfiltered     = false;                            // Enable or disable automatic security filtering. default is false.
 
     Iterator<Expression<?, ?>> i = arguments.iterator();
@@ -140,6 +175,7 @@ public class JoinLabel extends Function implements TypedMacro {
           case "keywords"        -> keywords       = getStringParam(namedArg, "keywords", path);
           case "labels_offset"   -> offset         = namedArg.arg();
           case "labels_limit"    -> limit          = namedArg.arg();
+          case "labels_after"    -> after          = namedArg.arg();
           case "notfiltered"     -> unfiltered     = getBooleanParam(namedArg, "notfiltered", path);
           default                -> throw new TranslationException("Invalid named argument in joinlabel: " + namedArg.name());
         }
@@ -152,19 +188,19 @@ public class JoinLabel extends Function implements TypedMacro {
           throw new TranslationException("joinlabel needs a source id, a target id, a label and a target table for each "
                                        + "link. Only the source id was provided for one link.");
         }
-        String targetId = (String)i.next().exec(ESQL, null, path, esql.context.structure);
+        String targetId = (String)i.next().exec(ESQL, null, path, ctx.structure);
 
         if (!i.hasNext()) {
           throw new TranslationException("joinlabel needs a source id, a target id, a label and a target table for each "
                                        + "link. Only the source id and target id were provided for one link.");
         }
-        String label = (String)i.next().exec(ESQL, null, path, esql.context.structure);
+        String label = (String)i.next().exec(ESQL, null, path, ctx.structure);
 
         if (!i.hasNext()) {
           throw new TranslationException("joinlabel needs a source id, a target id, a label and a target table for each "
                                        + "link. Only the source id, target id and label were provided for one link.");
         }
-        String table = (String)i.next().exec(ESQL, null, path, esql.context.structure);
+        String table = (String)i.next().exec(ESQL, null, path, ctx.structure);
         links.add(new Link(arg, targetId, label, table));
       }
     }
@@ -196,10 +232,6 @@ public class JoinLabel extends Function implements TypedMacro {
     Parser parser = new Parser(ctx.structure);
     Expression<?, ?> firstSourceId = link.sourceId;
 
-    QueryUpdate qu = path.ancestor(QueryUpdate.class);
-    Set<String> aliases = qu != null && qu.tables().exists(path)
-                        ? new HashSet<>(qu.tables().computeType(path.add(qu)).aliases())
-                        : new HashSet<>();
     int aliasIndex = 1;
     T2<String, Integer> uniqueName = makeUnique(unqualifiedName(link.targetTable),
                                                 aliases, aliasIndex, false);
@@ -249,14 +281,24 @@ public class JoinLabel extends Function implements TypedMacro {
       if (limit != null) {
         builder.limit((Expression<?, String>)limit);
       }
-      return builder.distinct(true)
+      if (after != null) {
+        /*
+         * Keyset pagination: seek past the last code of the previous page and
+         * order on the code column itself, instead of on the computed label,
+         * so that both can be served by an index on the code.
+         */
+        if (!(after instanceof NullLiteral)) {
+          builder.and(new GreaterThan(ctx, firstTargetId, after));
+        }
+      }
+      return builder.distinct(after == null)
                     .unfiltered(unfiltered)
                     .column  (firstTargetId, "code")
                     .column  (value,         "label")
                     .from    (from)
                     .and     (new IsNull(ctx, true, firstTargetId))
                     .and     (new IsNull(ctx, true, value))
-                    .orderBy ("2")
+                    .orderBy (after == null ? "2" : "1")
                     .build   ();
     } else {
       return new SelectExpression(ctx,
@@ -268,6 +310,11 @@ public class JoinLabel extends Function implements TypedMacro {
     }
   }
 
+  /**
+   * Expansions of the calls to joinlabel.
+   */
+  private final ExpansionCache expansions = new ExpansionCache(ExpansionCache.MAX_ENTRIES);
+
   private record Link(Expression<?, ?> sourceId,
                       String           targetId,
                       String           labelColumn,
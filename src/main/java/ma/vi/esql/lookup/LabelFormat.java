@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import java.util.StringJoiner;
+
+/**
+ * <p>
+ * The format of the labels produced by
+ * {@link LookupExtension#resolveLabels(String, java.util.Collection, Lookup.MatchBy, LabelFormat, String...)},
+ * with the same options and defaults as the named arguments of the
+ * <code>lookuplabel</code> macro function ({@link LookupLabel}).
+ * </p>
+ *
+ * <p>
+ * The label of each value in the chain of linked values is made of its code
+ * (in the column matched on), its label and its description, as shown, joined
+ * by the code separator; the labels of the values in the chain are then joined
+ * by the label separator. Missing codes, labels and descriptions are shown as
+ * empty strings.
+ * </p>
+ *
+ * @param showCode        Whether to show the code in the label.
+ * @param showLabel       Whether to show the label.
+ * @param showDescription Whether to show the description.
+ * @param codeSeparator   The separator between the code, label and description
+ *                        of a value.
+ * @param showLastOnly    Whether to show the label of the last value in the
+ *                        chain of linked values only.
+ * @param labelSeparator  The separator between the labels of the values in the
+ *                        chain of linked values.
+ * @param lastToFirst     Whether to show the labels of the values in the chain
+ *                        from the last linked value to the first, or from the
+ *                        first to the last.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public record LabelFormat(boolean showCode,
+                          boolean showLabel,
+                          boolean showDescription,
+                          String  codeSeparator,
+                          boolean showLastOnly,
+                          String  labelSeparator,
+                          boolean lastToFirst) {
+  /**
+   * The default format of <code>lookuplabel</code>: the label of the last
+   * value in the chain only.
+   */
+  public static final LabelFormat DEFAULT = new LabelFormat(false, true, false, " - ", true, " / ", true);
+
+  /**
+   * The label of a single value.
+   */
+  String label(String code, String label, String description) {
+    StringJoiner value = new StringJoiner(codeSeparator);
+    if (showCode)        value.add(code        == null ? "" : code);
+    if (showLabel)       value.add(label       == null ? "" : label);
+    if (showDescription) value.add(description == null ? "" : description);
+    return value.toString();
+  }
+
+  /**
+   * Combines the label of the chain of values so far with the label of the
+   * next value in the chain.
+   */
+  String combine(String value, String next) {
+    return showLastOnly ? next
+         : lastToFirst  ? next  + labelSeparator + value
+         :                value + labelSeparator + next;
+  }
+}
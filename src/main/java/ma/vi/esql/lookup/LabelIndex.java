@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * An inverted index of the trigrams of the labels of a lookup snapshot, for
+ * finding the values whose labels are the most similar to some text without
+ * comparing the text to every label.
+ * </p>
+ *
+ * <p>
+ * Trigrams are extracted and compared as by the PostgreSQL
+ * <code>pg_trgm</code> extension used by <code>classify</code> on that
+ * database: the text is lowercased and split into words of letters and
+ * digits, each word is padded with two spaces in front and one behind, and
+ * the similarity of two texts is the number of distinct trigrams they share
+ * over the number of distinct trigrams in either. Each trigram is packed in
+ * a long and the index is kept in CSR-style arrays, as the value links of the
+ * snapshot: the positions of the values whose labels contain the trigram
+ * <code>keys[k]</code> are <code>postings[start[k]]</code> (inclusive) to
+ * <code>postings[start[k+1]]</code> (exclusive), in ascending order.
+ * </p>
+ *
+ * <p>
+ * The trigrams of the codes are indexed with the labels, flagged with
+ * {@link #CODE} so that they are never confused with label trigrams, for
+ * keyword searches which match codes as well as labels: as any string of
+ * three or more letters and digits in a text is in the trigrams of the text,
+ * the values containing a keyword are among those whose label, or code,
+ * contains all the trigrams of the keyword.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class LabelIndex {
+  private LabelIndex(LookupSnapshot snapshot,
+                     long[]         keys,
+                     int[]          start,
+                     int[]          postings,
+                     int[]          counts) {
+    this.snapshot = snapshot;
+    this.keys = keys;
+    this.start = start;
+    this.postings = postings;
+    this.counts = counts;
+  }
+
+  /**
+   * Indexes the labels of the snapshot.
+   */
+  static LabelIndex of(LookupSnapshot snapshot) {
+    /*
+     * Distinct trigrams of every label, one after the other.
+     */
+    int size = snapshot.size();
+    int[] counts = new int[size];
+    int[] indexed = new int[size];
+    long[] all = new long[Math.max(16, size * 12)];
+    long[] buffer = new long[64];
+    long[] codes = new long[16];
+    int total = 0;
+    for (int i = 0; i < size; i++) {
+      buffer = trigrams(snapshot.label(i), buffer);
+      int n = (int)buffer[0];
+      counts[i] = n;
+      codes = trigrams(snapshot.code(i), codes);
+      int c = (int)codes[0];
+      indexed[i] = n + c;
+      if (total + n + c > all.length) {
+        all = Arrays.copyOf(all, Math.max(all.length * 2, total + n + c));
+      }
+      System.arraycopy(buffer, 1, all, total, n);
+      total += n;
+      for (int t = 1; t <= c; t++) {
+        all[total++] = codes[t] | CODE;
+      }
+    }
+
+    /*
+     * Sorted distinct trigrams across all labels.
+     */
+    long[] keys = Arrays.copyOf(all, total);
+    Arrays.sort(keys);
+    int distinct = 0;
+    for (int i = 0; i < total; i++) {
+      if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+        keys[distinct++] = keys[i];
+      }
+    }
+    keys = Arrays.copyOf(keys, distinct);
+
+    /*
+     * Postings of each trigram, filled in value order.
+     */
+    int[] start = new int[distinct + 1];
+    for (int i = 0; i < total; i++) {
+      start[Arrays.binarySearch(keys, all[i]) + 1]++;
+    }
+    for (int k = 0; k < distinct; k++) {
+      start[k + 1] += start[k];
+    }
+    int[] next = Arrays.copyOf(start, distinct);
+    int[] postings = new int[total];
+    for (int i = 0, pos = 0; i < size; i++) {
+      for (int end = pos + indexed[i]; pos < end; pos++) {
+        postings[next[Arrays.binarySearch(keys, all[pos])]++] = i;
+      }
+    }
+    return new LabelIndex(snapshot, keys, start, postings, counts);
+  }
+
+  /**
+   * Returns a searcher of this index. A searcher reuses its buffers from one
+   * search to the next and is not thread-safe.
+   */
+  Searcher searcher() {
+    return new Searcher();
+  }
+
+  /**
+   * Searches the labels most similar to texts.
+   */
+  final class Searcher {
+    /**
+     * Returns the values whose labels have a similarity to the text of at
+     * least the threshold, the most similar first, up to limit values.
+     */
+    List<Classification> search(CharSequence text, double threshold, int limit) {
+      if (shared == null) {
+        shared  = new int[counts.length];
+        touched = new int[counts.length];
+      }
+      query = trigrams(text, query);
+      int n = (int)query[0];
+      int matched = 0;
+      for (int q = 1; q <= n; q++) {
+        int k = Arrays.binarySearch(keys, query[q]);
+        if (k >= 0) {
+          for (int p = start[k]; p < start[k + 1]; p++) {
+            int i = postings[p];
+            if (shared[i]++ == 0) {
+              touched[matched++] = i;
+            }
+          }
+        }
+      }
+
+      List<Classification> result = new ArrayList<>();
+      for (int t = 0; t < matched; t++) {
+        int i = touched[t];
+        double similarity = (double)shared[i] / (n + counts[i] - shared[i]);
+        shared[i] = 0;
+        if (similarity >= threshold) {
+          result.add(new Classification(snapshot.code(i), snapshot.label(i), similarity));
+        }
+      }
+      result.sort(Comparator.comparingDouble(Classification::similarity).reversed()
+                            .thenComparing(Classification::label));
+      return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * <p>
+     * Returns the values whose code or label contains every keyword of the
+     * text, ignoring case, ranked by the similarity of their label to the
+     * text, up to limit values. Keywords are the sequences of letters and
+     * digits of the text, and can be in any order.
+     * </p>
+     *
+     * <p>
+     * The values are found by intersecting the postings of the trigrams of
+     * each keyword, and only those are then compared to the keywords. When
+     * all keywords are shorter than three characters, and thus have no
+     * trigram, all values are compared.
+     * </p>
+     */
+    List<Classification> find(CharSequence text, int limit) {
+      List<String> words = new ArrayList<>();
+      int[] candidates = null;
+      if (text != null) {
+        int length = text.length();
+        int pos = 0;
+        while (pos < length) {
+          while (pos < length && !Character.isLetterOrDigit(text.charAt(pos))) pos++;
+          int wordStart = pos;
+          while (pos < length && Character.isLetterOrDigit(text.charAt(pos))) pos++;
+          if (pos > wordStart) {
+            String word = text.subSequence(wordStart, pos).toString();
+            words.add(word);
+            if (word.length() >= 3) {
+              int[] matches = union(containing(word, 0), containing(word, CODE));
+              candidates = candidates == null ? matches : intersection(candidates, matches);
+            }
+          }
+        }
+      }
+      List<Classification> result = new ArrayList<>();
+      if (words.isEmpty()) {
+        return result;
+      }
+
+      query = trigrams(text, query);
+      int n = (int)query[0];
+      int size = candidates == null ? counts.length : candidates.length;
+      for (int c = 0; c < size; c++) {
+        int i = candidates == null ? c : candidates[c];
+        String code = snapshot.code(i);
+        String label = snapshot.label(i);
+        boolean all = true;
+        for (String word: words) {
+          if (!contains(label, word) && !contains(code, word)) {
+            all = false;
+            break;
+          }
+        }
+        if (all) {
+          labelTrigrams = trigrams(label, labelTrigrams);
+          int shared = 0;
+          for (int q = 1, l = 1, m = (int)labelTrigrams[0]; q <= n && l <= m; ) {
+            if      (query[q] < labelTrigrams[l]) q++;
+            else if (query[q] > labelTrigrams[l]) l++;
+            else  { shared++; q++; l++; }
+          }
+          int union = n + counts[i] - shared;
+          result.add(new Classification(code, label, union == 0 ? 0 : (double)shared / union));
+        }
+      }
+      result.sort(Comparator.comparingDouble(Classification::similarity).reversed()
+                            .thenComparing(Classification::label, Comparator.nullsLast(Comparator.naturalOrder())));
+      return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Positions of the values having all the trigrams of the word, as found
+     * in labels (flag 0) or in codes (flag {@link #CODE}), in ascending order.
+     */
+    private int[] containing(String word, long flag) {
+      int[] positions = null;
+      for (int i = 0; i + 3 <= word.length(); i++) {
+        long trigram = (long)Character.toLowerCase(word.charAt(i))     << 32
+                     | (long)Character.toLowerCase(word.charAt(i + 1)) << 16
+                     |       Character.toLowerCase(word.charAt(i + 2))
+                     | flag;
+        int k = Arrays.binarySearch(keys, trigram);
+        if (k < 0) {
+          return new int[0];
+        }
+        int[] posting = Arrays.copyOfRange(postings, start[k], start[k + 1]);
+        positions = positions == null ? posting : intersection(positions, posting);
+      }
+      return positions;
+    }
+
+    /**
+     * Number of trigrams shared with the text, by value position, and the
+     * positions of the values sharing some trigram, allocated on the first
+     * {@link #search(CharSequence, double, int)} as they are as large as the
+     * lookup and not used by {@link #find(CharSequence, int)}.
+     */
+    private int[] shared;
+    private int[] touched;
+
+    private long[] query = new long[64];
+    private long[] labelTrigrams = new long[64];
+  }
+
+  /**
+   * Positions in both sorted arrays.
+   */
+  private static int[] intersection(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if      (a[i] < b[j]) i++;
+      else if (a[i] > b[j]) j++;
+      else  { result[n++] = a[i]; i++; j++; }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Positions in either sorted array.
+   */
+  private static int[] union(int[] a, int[] b) {
+    int[] result = new int[a.length + b.length];
+    int n = 0;
+    int i = 0, j = 0;
+    while (i < a.length && j < b.length) {
+      if      (a[i] < b[j]) result[n++] = a[i++];
+      else if (a[i] > b[j]) result[n++] = b[j++];
+      else  { result[n++] = a[i++]; j++; }
+    }
+    while (i < a.length) result[n++] = a[i++];
+    while (j < b.length) result[n++] = b[j++];
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Whether the text contains the word, ignoring case.
+   */
+  private static boolean contains(String text, String word) {
+    if (text != null) {
+      for (int i = 0, last = text.length() - word.length(); i <= last; i++) {
+        if (text.regionMatches(true, i, word, 0, word.length())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Extracts the distinct trigrams of the text into the buffer, sorted, after
+   * their number at position 0; returns the buffer, or a larger one if the
+   * buffer was too small.
+   */
+  static long[] trigrams(CharSequence text, long[] buffer) {
+    int n = 0;
+    if (text != null) {
+      int length = text.length();
+      int pos = 0;
+      while (pos < length) {
+        while (pos < length && !Character.isLetterOrDigit(text.charAt(pos))) pos++;
+        int wordStart = pos;
+        while (pos < length && Character.isLetterOrDigit(text.charAt(pos))) pos++;
+        if (pos > wordStart) {
+          /*
+           * Trigrams of the word padded as "  word ".
+           */
+          char a = ' ';
+          char b = ' ';
+          for (int i = wordStart; i <= pos; i++) {
+            char c = i < pos ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (n + 2 > buffer.length) {
+              buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[++n] = (long)a << 32 | (long)b << 16 | c;
+            a = b;
+            b = c;
+          }
+        }
+      }
+    }
+    Arrays.sort(buffer, 1, n + 1);
+    int distinct = 0;
+    for (int i = 1; i <= n; i++) {
+      if (distinct == 0 || buffer[i] != buffer[distinct]) {
+        buffer[++distinct] = buffer[i];
+      }
+    }
+    buffer[0] = distinct;
+    return buffer;
+  }
+
+  /**
+   * Approximate number of bytes used by the index.
+   */
+  long estimatedBytes() {
+    return 64L + 8L * keys.length + 4L * (start.length + postings.length + counts.length);
+  }
+
+  /**
+   * Flag of the trigrams of codes, above the three 16-bit characters of a
+   * trigram.
+   */
+  static final long CODE = 1L << 48;
+
+  private final LookupSnapshot snapshot;
+
+  /**
+   * The distinct trigrams of all labels, sorted, with the postings of each.
+   */
+  private final long[] keys;
+  private final int[]  start;
+  private final int[]  postings;
+
+  /**
+   * The number of distinct trigrams of each label, by value position.
+   */
+  private final int[]  counts;
+}
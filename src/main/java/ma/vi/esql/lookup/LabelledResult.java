@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.esql.exec.ColumnMapping;
+import ma.vi.esql.exec.Result;
+
+import java.util.List;
+
+/**
+ * The result of a query read with the labels of the codes selected by
+ * <code>lookuplabel</code> with client-side expansion filled in from the
+ * lookups cache, as returned by {@link LookupExtension#withLabels(Result)}.
+ * Other values are read unchanged from the underlying result.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class LabelledResult implements AutoCloseable {
+  LabelledResult(LookupExtension extension, Result result) {
+    this.extension = extension;
+    this.result = result;
+  }
+
+  public boolean toNext() {
+    return result.toNext();
+  }
+
+  /**
+   * The value of the column, by position starting from 1.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T value(int column) {
+    return (T)extension.clientLabel(result.value(column));
+  }
+
+  /**
+   * The value of the named column.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T value(String column) {
+    return (T)extension.clientLabel(result.value(column));
+  }
+
+  public int columnsCount() {
+    return result.columnsCount();
+  }
+
+  public List<ColumnMapping> columns() {
+    return result.columns();
+  }
+
+  /**
+   * The underlying result, returning the marked codes instead of the labels.
+   */
+  public Result result() {
+    return result;
+  }
+
+  @Override
+  public void close() {
+    result.close();
+  }
+
+  private final LookupExtension extension;
+  private final Result result;
+}
@@ -1,11 +1,10 @@
 package ma.vi.esql.lookup;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
-import static java.util.stream.Collectors.toMap;
-
 /**
  * @author Vikash Madhow (vikash.madhow@gmail.com)
  */
@@ -35,10 +34,6 @@ public record Lookup(UUID      id,
          valuesById);
   }
 
-  Lookup() {
-    this(null, null, null, null, null, null, null);
-  }
-
   /**
    * Lookup code to match by
    */
@@ -48,10 +43,29 @@ public record Lookup(UUID      id,
     return mapBy(MatchBy.code);
   }
 
+  /**
+   * The values of the lookup keyed by code or by one of the alternative codes.
+   * Values without the alternative code are left out and, when several values
+   * have the same alternative code, only the first is kept. Values of lookups
+   * loaded from the database are in the order of their codes, then languages,
+   * so that the value with the smallest code is kept. The maps of cached
+   * lookups are indexed when the lookup is loaded and are not rebuilt on each
+   * call.
+   */
   public Map<String, LookupValue> mapBy(MatchBy matchBy) {
-    return matchBy == MatchBy.code ? values
-         : values.values().stream()
-                 .collect(toMap(v -> matchBy == MatchBy.altCode1 ? v.altCode1() : v.altCode2(),
-                                v -> v));
+    if (matchBy == MatchBy.code) {
+      return values;
+    } else if (values instanceof LookupSnapshot.ValuesBy snapshotValues) {
+      return snapshotValues.by(matchBy);
+    } else {
+      Map<String, LookupValue> map = new LinkedHashMap<>();
+      for (LookupValue v: values.values()) {
+        String code = matchBy == MatchBy.altCode1 ? v.altCode1() : v.altCode2();
+        if (code != null) {
+          map.putIfAbsent(code, v);
+        }
+      }
+      return map;
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.base.config.Configuration;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Cache of lookup snapshots by name with single-flight loading: the first
+ * caller for a lookup loads it while concurrent callers for the same lookup
+ * wait for and share its result. The cache only ever contains the future of a
+ * fully loaded snapshot or of one being loaded.
+ * </p>
+ *
+ * <p>
+ * The cache can be bounded by the total number of lookup values it holds
+ * and/or by the estimated memory used by its snapshots. When a limit is
+ * exceeded, whole lookups are evicted according to the configured policy:
+ * <ul>
+ * <li><b>lru:</b> the least recently used lookup is evicted.</li>
+ * <li><b>tinylfu:</b> a W-TinyLFU policy where newly loaded lookups enter a
+ *                     small LRU window, from which they are admitted into a
+ *                     segmented LRU main area only if they have been used more
+ *                     frequently than the lookup that they would displace.
+ *                     Frequencies are estimated with an aging count-min sketch.
+ *                     This keeps rarely used large lookups from flushing
+ *                     frequently used ones out of the cache.</li>
+ * </ul>
+ * Pinned lookups are never evicted. Accesses are recorded for the eviction
+ * policy on a best-effort basis: an access is not recorded if another thread
+ * is updating the policy at the time, so that reads never wait on each other.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class LookupCache {
+  LookupCache(Policy policy) {
+    this.policy = policy;
+    this.sketch = policy.eviction == Eviction.tinylfu ? new FrequencySketch() : null;
+  }
+
+  /**
+   * Eviction policies.
+   */
+  enum Eviction { lru, tinylfu }
+
+  /**
+   * The limits and eviction policy of the cache. A limit of 0 or less means no
+   * limit on that dimension.
+   */
+  record Policy(long          maxEntries,
+                long          maxBytes,
+                Eviction      eviction,
+                Set<String>   pinned) {
+
+    static final Policy UNBOUNDED = new Policy(0, 0, Eviction.lru, Set.of());
+
+    boolean bounded() {
+      return maxEntries > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Reads the policy from the extension configuration.
+     */
+    static Policy of(Configuration config) {
+      Object eviction = LookupExtension.config(config, LookupExtension.CONFIG_CACHE_EVICTION, Eviction.lru.name());
+      Object pinned   = LookupExtension.config(config, LookupExtension.CONFIG_CACHE_PINNED, List.of());
+      Set<String> pinnedLookups = new HashSet<>();
+      if (pinned instanceof Collection<?> names) {
+        names.forEach(name -> pinnedLookups.add(name.toString().trim()));
+      } else {
+        for (String name: pinned.toString().split(",")) {
+          if (!name.isBlank()) pinnedLookups.add(name.trim());
+        }
+      }
+      return new Policy(number(LookupExtension.config(config, LookupExtension.CONFIG_CACHE_MAX_ENTRIES, 0L)),
+                        number(LookupExtension.config(config, LookupExtension.CONFIG_CACHE_MAX_BYTES, 0L)),
+                        Eviction.valueOf(eviction.toString().trim().toLowerCase()),
+                        Set.copyOf(pinnedLookups));
+    }
+
+    private static long number(Object value) {
+      return value instanceof Number n ? n.longValue() : Long.parseLong(value.toString().trim());
+    }
+  }
+
+  /**
+   * Returns the snapshot of the named lookup, loading it with the loader if it
+   * is not in the cache. The loader returns null if there is no such lookup, in
+   * which case nothing is cached and null is returned.
+   */
+  LookupSnapshot get(String name, Function<String, LookupSnapshot> loader) {
+    CompletableFuture<LookupSnapshot> loading = lookups.get(name);
+    if (loading != null) {
+      hits.increment();
+      accessed(name);
+    } else {
+      CompletableFuture<LookupSnapshot> load = new CompletableFuture<>();
+      loading = lookups.putIfAbsent(name, load);
+      if (loading != null) {
+        hits.increment();
+      } else {
+        misses.increment();
+        loading = load;
+        try {
+          LookupSnapshot snapshot = loader.apply(name);
+          if (snapshot == null) {
+            /*
+             * Do not keep an entry for a lookup which does not exist so that it
+             * is loaded when it is created.
+             */
+            lookups.remove(name, load);
+          }
+          load.complete(snapshot);
+          if (snapshot != null) {
+            admitted(name, load, snapshot);
+          }
+        } catch (RuntimeException e) {
+          lookups.remove(name, load);
+          load.completeExceptionally(e);
+          throw e;
+        }
+      }
+    }
+    try {
+      return loading.join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException re ? re : e;
+    }
+  }
+
+  /**
+   * Returns the snapshot of the named lookup if it is loaded in the cache, or
+   * null otherwise; the lookup is not loaded if it is not cached.
+   */
+  LookupSnapshot getIfLoaded(String name) {
+    CompletableFuture<LookupSnapshot> loading = lookups.get(name);
+    LookupSnapshot snapshot = loading == null || loading.isCompletedExceptionally()
+                            ? null : loading.getNow(null);
+    if (snapshot != null) {
+      hits.increment();
+      accessed(name);
+    }
+    return snapshot;
+  }
+
+  /**
+   * The number of invalidations of lookups in the cache, to be read before
+   * reading lookups from the database outside of {@link #get(String, Function)}
+   * and passed to {@link #putIfAbsent(String, LookupSnapshot, long)} with the
+   * snapshots read.
+   */
+  long generation() {
+    lock.lock();
+    try {
+      return generation;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adds the snapshot to the cache unless the lookup is already cached or being
+   * loaded, or a lookup has been invalidated since the generation was read, as
+   * the snapshot could then be stale.
+   *
+   * @return false if the snapshot was not added because of an invalidation.
+   */
+  boolean putIfAbsent(String name, LookupSnapshot snapshot, long generation) {
+    lock.lock();
+    try {
+      if (generation != this.generation) {
+        return false;
+      }
+      CompletableFuture<LookupSnapshot> loaded = CompletableFuture.completedFuture(snapshot);
+      if (lookups.putIfAbsent(name, loaded) == null) {
+        admitted(name, loaded, snapshot);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The snapshots currently loaded in the cache, excluding those being loaded.
+   */
+  Map<String, LookupSnapshot> loaded() {
+    Map<String, LookupSnapshot> loaded = new HashMap<>();
+    lookups.forEach((name, loading) -> {
+      LookupSnapshot snapshot = loading.getNow(null);
+      if (snapshot != null) {
+        loaded.put(name, snapshot);
+      }
+    });
+    return loaded;
+  }
+
+  boolean isEmpty() {
+    return lookups.isEmpty();
+  }
+
+  /**
+   * True if the number of values or the memory of the cached lookups is limited.
+   */
+  boolean bounded() {
+    return policy.bounded();
+  }
+
+  /**
+   * Removes the named lookup from the cache.
+   */
+  void invalidate(String name) {
+    lock.lock();
+    try {
+      lookups.remove(name);
+      forget(name);
+      generation++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the named lookup from the cache only if it is still cached as the
+   * given snapshot, leaving it alone if it has been reloaded in the meantime.
+   */
+  void invalidate(String name, LookupSnapshot snapshot) {
+    lock.lock();
+    try {
+      CompletableFuture<LookupSnapshot> loaded = lookups.get(name);
+      if (loaded != null && loaded.getNow(null) == snapshot) {
+        lookups.remove(name, loaded);
+        forget(name);
+        generation++;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes all lookups from the cache.
+   */
+  void clear() {
+    lock.lock();
+    try {
+      lookups.clear();
+      resident.clear();
+      window.clear();
+      probation.clear();
+      protectedArea.clear();
+      entries = 0;
+      bytes = 0;
+      generation++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  LookupCacheStats stats() {
+    lock.lock();
+    try {
+      return new LookupCacheStats(hits.sum(),
+                                  misses.sum(),
+                                  evictions.sum(),
+                                  lookups.size(),
+                                  entries,
+                                  bytes);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records the access to the lookup for the eviction policy, if the policy is
+   * not busy.
+   */
+  private void accessed(String name) {
+    if (policy.bounded() && lock.tryLock()) {
+      try {
+        if (sketch != null) {
+          sketch.increment(name);
+          if (window.containsKey(name)) {
+            window.get(name);
+          } else if (probation.containsKey(name)) {
+            /*
+             * Promote to the protected area, demoting the least recently used
+             * protected lookups to probation if the protected area is full.
+             */
+            protectedArea.put(name, probation.remove(name));
+            while (protectedArea.size() > 1 && weight(protectedArea) > maxProtected()) {
+              String demoted = protectedArea.keySet().iterator().next();
+              probation.put(demoted, protectedArea.remove(demoted));
+            }
+          } else {
+            protectedArea.get(name);
+          }
+        } else {
+          probation.get(name);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Accounts for a snapshot newly added to the cache and evicts lookups if the
+   * cache is over its limits.
+   */
+  private void admitted(String name,
+                        CompletableFuture<LookupSnapshot> loaded,
+                        LookupSnapshot snapshot) {
+    lock.lock();
+    try {
+      if (lookups.get(name) != loaded) {
+        // invalidated while loading
+        return;
+      }
+      forget(name);
+      Weight weight = new Weight(snapshot.size(), snapshot.estimatedBytes());
+      resident.put(name, weight);
+      entries += weight.entries;
+      bytes   += weight.bytes;
+      if (policy.bounded()) {
+        if (sketch != null) {
+          sketch.increment(name);
+          window.put(name, weight);
+        } else {
+          probation.put(name, weight);
+        }
+        evict();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Evicts lookups until the cache is within its limits or only pinned
+   * lookups remain.
+   */
+  private void evict() {
+    if (sketch != null) {
+      /*
+       * W-TinyLFU: move lookups overflowing the window into the main area,
+       * where they compete with the probation victim for admission. Pinned
+       * lookups are always admitted.
+       */
+      while (window.size() > 1 && weight(window) > maxWindow()) {
+        String candidate = window.keySet().iterator().next();
+        Weight weight = window.remove(candidate);
+        probation.put(candidate, weight);
+        while (overLimits()) {
+          String victim = victim(probation, candidate);
+          if (victim == null) victim = victim(protectedArea, candidate);
+          if (victim == null) break;
+          if (policy.pinned.contains(candidate)
+           || sketch.frequency(candidate) > sketch.frequency(victim)) {
+            remove(victim);
+          } else {
+            remove(candidate);
+            break;
+          }
+        }
+      }
+    }
+    while (overLimits()) {
+      String victim = victim(probation, null);
+      if (victim == null) victim = victim(protectedArea, null);
+      if (victim == null) victim = victim(window, null);
+      if (victim == null) break;
+      remove(victim);
+    }
+  }
+
+  /**
+   * The least recently used lookup in the area which is not pinned and is not
+   * the excluded lookup, or null if there is none.
+   */
+  private String victim(Map<String, Weight> area, String excluded) {
+    for (String name: area.keySet()) {
+      if (!policy.pinned.contains(name) && !name.equals(excluded)) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  private void remove(String name) {
+    lookups.remove(name);
+    forget(name);
+    evictions.increment();
+  }
+
+  private void forget(String name) {
+    Weight weight = resident.remove(name);
+    if (weight != null) {
+      entries -= weight.entries;
+      bytes   -= weight.bytes;
+    }
+    window.remove(name);
+    probation.remove(name);
+    protectedArea.remove(name);
+  }
+
+  private boolean overLimits() {
+    return (policy.maxEntries > 0 && entries > policy.maxEntries)
+        || (policy.maxBytes   > 0 && bytes   > policy.maxBytes);
+  }
+
+  /**
+   * Weight of the lookups in the area, in the unit of the tightest limit.
+   */
+  private long weight(Map<String, Weight> area) {
+    long total = 0;
+    for (Weight w: area.values()) {
+      total += policy.maxBytes > 0 ? w.bytes : w.entries;
+    }
+    return total;
+  }
+
+  private long maxWindow() {
+    return Math.max(1, (policy.maxBytes > 0 ? policy.maxBytes : policy.maxEntries) / 100);
+  }
+
+  private long maxProtected() {
+    return (policy.maxBytes > 0 ? policy.maxBytes : policy.maxEntries) * 4 / 5;
+  }
+
+  private record Weight(long entries, long bytes) {}
+
+  /**
+   * A count-min sketch of 4-bit counters estimating how frequently lookups are
+   * accessed. All counters are halved periodically so that the frequencies of
+   * lookups which are no longer used decay.
+   */
+  private static final class FrequencySketch {
+    void increment(String name) {
+      int hash = spread(name.hashCode());
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        int index = index(hash, i);
+        int shift = shift(hash, i);
+        if (((table[index] >>> shift) & 0xfL) < 15) {
+          table[index] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++additions == SAMPLE_SIZE) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        additions /= 2;
+      }
+    }
+
+    int frequency(String name) {
+      int hash = spread(name.hashCode());
+      int frequency = 15;
+      for (int i = 0; i < 4; i++) {
+        frequency = Math.min(frequency, (int)((table[index(hash, i)] >>> shift(hash, i)) & 0xfL));
+      }
+      return frequency;
+    }
+
+    private int index(int hash, int i) {
+      int h = (hash + SEEDS[i]) * SEEDS[i];
+      return (h ^ (h >>> 17)) & (table.length - 1);
+    }
+
+    private int shift(int hash, int i) {
+      return (((hash >>> (i << 3)) & 3) << 2) + (i << 4) & 63;
+    }
+
+    private static int spread(int h) {
+      h = ((h >>> 16) ^ h) * 0x45d9f3b;
+      return (h >>> 16) ^ h;
+    }
+
+    private final long[] table = new long[256];
+    private int additions = 0;
+
+    private static final int SAMPLE_SIZE = 10 * 256 * 16;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb4b82e1d, 0xc2b2ae35, 0x85ebca6b };
+  }
+
+  private final ConcurrentMap<String, CompletableFuture<LookupSnapshot>> lookups = new ConcurrentHashMap<>();
+
+  private final Policy policy;
+  private final FrequencySketch sketch;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /*
+   * Policy state, guarded by lock. Areas are access-ordered, least recently
+   * used first; the LRU policy only uses the probation area.
+   */
+  private final Map<String, Weight> resident      = new HashMap<>();
+  private final Map<String, Weight> window        = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Weight> probation     = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Weight> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+  private long entries = 0;
+  private long bytes = 0;
+
+  /**
+   * Incremented on every invalidation, guarded by lock.
+   */
+  private long generation = 0;
+
+  private final LongAdder hits      = new LongAdder();
+  private final LongAdder misses    = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+}
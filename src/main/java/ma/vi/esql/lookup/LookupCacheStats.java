@@ -0,0 +1,21 @@
+package ma.vi.esql.lookup;
+
+/**
+ * Statistics of the lookups cache of {@link LookupExtension}.
+ *
+ * @param hits       Number of lookup requests served from the cache.
+ * @param misses     Number of lookup requests which required loading the lookup.
+ * @param evictions  Number of lookups evicted from the cache to keep it within
+ *                   its configured limits.
+ * @param lookups    Number of lookups currently in the cache.
+ * @param entries    Total number of values of the lookups in the cache.
+ * @param bytes      Estimated memory used by the lookups in the cache.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public record LookupCacheStats(long hits,
+                               long misses,
+                               long evictions,
+                               int  lookups,
+                               long entries,
+                               long bytes) {}
@@ -5,18 +5,23 @@ import ma.vi.base.lang.NotFoundException;
 import ma.vi.esql.database.Database;
 import ma.vi.esql.database.EsqlConnection;
 import ma.vi.esql.database.Structure;
-import ma.vi.esql.exec.QueryParams;
 import ma.vi.esql.exec.Result;
 import ma.vi.esql.extension.Extension;
 import ma.vi.esql.lookup.function.Classify;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.System.Logger.Level.INFO;
-import static java.util.Collections.emptyList;
+import static java.lang.System.Logger.Level.WARNING;
 import static ma.vi.esql.translation.Translatable.Target.POSTGRESQL;
 import static ma.vi.esql.translation.Translatable.Target.SQLSERVER;
 
@@ -27,6 +32,21 @@ public class LookupExtension implements Extension {
   @Override
   public void init(Database db, Configuration config) {
     this.db = db;
+    this.statements = new LookupStatements(db);
+    this.cache = new LookupCache(LookupCache.Policy.of(config));
+    Object pollInterval = config(config, CONFIG_CACHE_POLL_INTERVAL, 0L);
+    this.pollInterval = TimeUnit.MILLISECONDS.toNanos(pollInterval instanceof Number n
+                                                    ? n.longValue()
+                                                    : Long.parseLong(pollInterval.toString().trim()));
+    this.lastPoll.set(System.nanoTime());
+    Object batchSize = config(config, CONFIG_SAVE_BATCH_SIZE, 5000);
+    this.saveBatchSize = batchSize instanceof Number n ? n.intValue()
+                                                       : Integer.parseInt(batchSize.toString().trim());
+    this.lookupLabelExpansion = LookupLabel.Expansion.valueOf(
+        config(config, CONFIG_LOOKUPLABEL_EXPANSION, "subquery").toString().trim().toLowerCase());
+    Object pathDepth = config(config, CONFIG_VALUE_PATHS_MAX_DEPTH, 0);
+    this.valuePathDepth = pathDepth instanceof Number n ? n.intValue()
+                                                       : Integer.parseInt(pathDepth.toString().trim());
     log.log(INFO, "Creating lookup tables in " + db + " in schema _lookup");
     try (EsqlConnection c = db.esql()) {
       ///////////////////////////////////////////////////////////////////////////
@@ -134,24 +154,80 @@ public class LookupExtension implements Extension {
              foreign key(target_value_id) references _lookup.LookupValue(_id))""");
 
       /*
-       * Indexes for optimizing primary search patterns.
+       * Indexes for optimizing primary search patterns. Composite indexes
+       * for the searches of generated lookup queries are created with
+       * included columns by LookupIndexes on PostgreSQL and SQL Server.
        */
       c.exec("create index value_code   on _lookup.LookupValue(code)");
-      c.exec("create index value_lookup on _lookup.LookupValue(lookup_id)");
 
       c.exec("create index link_name    on _lookup.LookupValueLink(name)");
-      c.exec("create index link_source  on _lookup.LookupValueLink(source_value_id)");
       c.exec("create index link_target  on _lookup.LookupValueLink(target_value_id)");
+      boolean covering = db.target() == POSTGRESQL || db.target() == SQLSERVER;
+      if (!covering) {
+        c.exec("create index value_lookup_code      on _lookup.LookupValue(lookup_id, code)");
+        c.exec("create index value_lookup_alt_code1 on _lookup.LookupValue(lookup_id, alt_code1)");
+        c.exec("create index value_lookup_alt_code2 on _lookup.LookupValue(lookup_id, alt_code2)");
+        c.exec("create index link_source_name       on _lookup.LookupValueLink(source_value_id, name)");
+      }
+
+      if (valuePathDepth > 0) {
+        c.exec("""
+               create table _lookup.LookupValuePath drop undefined({
+                 name: 'Lookup Value Path',
+                 description: 'The values reached from lookup values by following sequences of links, materialised to find labels through several links with a single search'
+               }
+
+               _id             uuid   not null,
+               source_value_id uuid   not null,
+               path            string not null,
+               target_value_id uuid   not null,
+
+               primary key(_id))""");
+        if (!covering) {
+          c.exec("create index value_path_source_path on _lookup.LookupValuePath(source_value_id, path)");
+        }
+      }
+    }
+
+    if (db.target() == POSTGRESQL || db.target() == SQLSERVER) {
+      try (Connection c = db.pooledConnection()) {
+        LookupIndexes.create(c, db.target() == POSTGRESQL, valuePathDepth > 0);
+        c.commit();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    if (db.target() == POSTGRESQL) {
+      /*
+       * Trigram indexes for classify and keyword searches, which need the
+       * pg_trgm extension; it can only be installed by a user with sufficient
+       * privileges, without which both still work, with a scan of the lookup
+       * values.
+       */
+      try (Connection c = db.pooledConnection()) {
+        try {
+          LookupIndexes.createTrigramIndex(c);
+          c.commit();
+        } catch (SQLException e) {
+          c.rollback();
+          log.log(WARNING, "Could not create the trigram indexes on lookup labels and codes used by classify and keyword searches in " + db
+                         + " (" + e.getMessage() + ")");
+        }
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
     }
 
     /*
      * Lookup macros and labels functions.
      */
     Structure structure = db.structure();
-    structure.function(new LookupLabelFunction());
-    structure.function(new LookupLabel());
+    structure.function(new LookupLabelFunction(this));
+    lookupLabel = new LookupLabel(this, lookupLabelExpansion);
+    structure.function(lookupLabel);
     structure.function(new JoinLabel());
-    structure.function(new Classify());
+    structure.function(new Classify(this));
 
     /*
      * Create lookup access functions specific to each database (only
@@ -176,60 +252,99 @@ public class LookupExtension implements Extension {
                   from _lookup."LookupValue" v
                   join _lookup."Lookup"      l on v.lookup_id=l._id
                  where l.name=$2 and v.code=$1;
-            $$ language sql immutable;""");
+            $$ language sql stable;""");
 
-        // lookup label with variable number of links
+        // lookup label by lookup id with no links
         c.createStatement().executeUpdate("""
-            create or replace function _lookup.lookup_label(code text,
-                                                            lookup text,
-                                                            show_code boolean,
-                                                            show_label boolean,
-                                                            variadic links text[]) returns text as $$
+            create or replace function _lookup.lookup_label_by_id(code text,
+                                                                  lookup_id uuid,
+                                                                  show_code boolean,
+                                                                  show_label boolean) returns text as $$
+                select case when coalesce(show_code, false)=coalesce(show_label, false)
+                            then v.code || ' - ' || v.label
+
+                            when coalesce(show_code, false)=true
+                            then v.code
+
+                            else v.label
+                       end
+                  from _lookup."LookupValue" v
+                 where v.lookup_id=$2 and v.code=$1;
+            $$ language sql stable;""");
+
+        // lookup label by lookup id following links, one static query per link
+        c.createStatement().executeUpdate("""
+            create or replace function _lookup.lookup_label_by_id(code text,
+                                                                  lookup_id uuid,
+                                                                  show_code boolean,
+                                                                  show_label boolean,
+                                                                  variadic links text[]) returns text as $$
             declare
                 link_name text;
-                link_index int = 0;
-
-                label_clause text = '';
-                from_clause text = '';
-                query text;
+                value_id uuid;
                 result text;
 
             begin
-                from_clause := '_lookup."LookupValue" v0 '
-                            || 'join _lookup."Lookup" lookup '
-                            || 'on (v0.lookup_id=lookup._id and lookup.name=''' || lookup || ''')';
+                select v._id into value_id
+                  from _lookup."LookupValue" v
+                 where v.lookup_id=$2 and v.code=$1;
 
                 foreach link_name in array links loop
-                    -- source side
-                    from_clause := from_clause || ' join _lookup."LookupValueLink" lk' || link_index
-                                               || ' on (v' || link_index  || '._id=lk'   || link_index
-                                               || '.source_value_id and ' || 'lk'        || link_index
-                                               || '.name=''' || link_name || ''')';
-
-                    link_index := link_index + 1;
-
-                    -- target side
-                    from_clause := from_clause || ' join _lookup."LookupValue" v'   || link_index
-                                               || ' on (v' || link_index || '._id=lk' || (link_index - 1)
-                                               || '.target_value_id)';
+                    exit when value_id is null;
+                    select lk.target_value_id into value_id
+                      from _lookup."LookupValueLink" lk
+                     where lk.source_value_id=value_id and lk.name=link_name;
                 end loop;
 
-                if coalesce(show_code, false)=coalesce(show_label, false) then
-                    label_clause := 'v' || link_index || '.code || '' - '' || v' || link_index || '.label';
-                elsif coalesce(show_code, false)=true then
-                    label_clause := 'v' || link_index || '.code';
-                else
-                    label_clause := 'v' || link_index || '.label';
-                end if;
+                select case when coalesce(show_code, false)=coalesce(show_label, false)
+                            then v.code || ' - ' || v.label
 
-                query := 'select ' || label_clause
-                                   || ' from ' || from_clause
-                                   || ' where v0.code=''' || code || '''';
+                            when coalesce(show_code, false)=true
+                            then v.code
 
-                execute query into result;
+                            else v.label
+                       end into result
+                  from _lookup."LookupValue" v
+                 where v._id=value_id;
                 return result;
             end;
-            $$ language plpgsql immutable;""");
+            $$ language plpgsql stable;""");
+
+        // lookup label with variable number of links, finding the lookup id
+        // and following the links as lookup_label_by_id
+        c.createStatement().executeUpdate("""
+            create or replace function _lookup.lookup_label(code text,
+                                                            lookup text,
+                                                            show_code boolean,
+                                                            show_label boolean,
+                                                            variadic links text[]) returns text as $$
+                select _lookup.lookup_label_by_id($1,
+                                                  (select l._id from _lookup."Lookup" l where l.name=$2),
+                                                  $3, $4, variadic $5);
+            $$ language sql stable;""");
+
+        if (valuePathDepth > 0) {
+          // lookup label by lookup id following a materialised path of links
+          c.createStatement().executeUpdate("""
+              create or replace function _lookup.lookup_label_by_path(code text,
+                                                                      lookup_id uuid,
+                                                                      show_code boolean,
+                                                                      show_label boolean,
+                                                                      path text) returns text as $$
+                  select case when coalesce(show_code, false)=coalesce(show_label, false)
+                              then t.code || ' - ' || t.label
+
+                              when coalesce(show_code, false)=true
+                              then t.code
+
+                              else t.label
+                         end
+                    from _lookup."LookupValue"     v
+                    join _lookup."LookupValuePath" p on p.source_value_id=v._id and p.path=$5
+                    join _lookup."LookupValue"     t on t._id=p.target_value_id
+                   where v.lookup_id=$2 and v.code=$1;
+              $$ language sql stable;""");
+        }
 
         c.commit();
       } catch (SQLException e) {
@@ -237,200 +352,229 @@ public class LookupExtension implements Extension {
       }
     } else if (db.target() == SQLSERVER) {
       try (Connection c = db.pooledConnection()) {
-        // function to find value from lookups
-        c.createStatement().executeUpdate("""
-            create or alter function _lookup.lookup_label0(@Code      nvarchar(max),
-                                                           @Lookup    nvarchar(max),
-                                                           @ShowCode  bit,
-                                                           @ShowLabel bit) returns nvarchar(max) as
-            begin
-              declare @Result nvarchar(max);
-              select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
-                                  code + ' - '+ label,
-                                  iif(coalesce(@ShowCode, 0)=1,
-                                      code,
-                                      label)))
-                from _lookup."LookupValue" v
-                join _lookup."Lookup"      l on v.lookup_id=l._id
-              where l.name=@Lookup and v.code=@Code;
-              return @Result;
-            end;""");
-
-        c.createStatement().executeUpdate("""
-            create or alter function _lookup.lookup_label1(@Code      nvarchar(max),
-                                                           @Lookup    nvarchar(max),
-                                                           @ShowCode  bit,
-                                                           @ShowLabel bit,
-                                                           @Link1     nvarchar(max)) returns nvarchar(max) as
-            begin
-              declare @LinkCursor Cursor;
-              declare @Result nvarchar(max);
-
-              select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
-                                  v1.code + ' - '+ v1.label,
-                                  iif(coalesce(@ShowCode, 0)=1,
-                                      v1.code,
-                                      v1.label)))
-
-                from _lookup."LookupValue" v0
-                join _lookup."Lookup" lookup on (v0.lookup_id=lookup._id and lookup.name=@Lookup)
-
-                join _lookup."LookupValueLink" lk0 on (v0._id=lk0.source_value_id and lk0.name=@Link1)
-                join _lookup."LookupValue" v1 on v1._id=lk0.target_value_id
-
-               where v0.code=@Code;
-              return @Result;
-            end;""");
-
-        c.createStatement().executeUpdate("""
-            create or alter function _lookup.lookup_label2(@Code      nvarchar(max),
-                                                           @Lookup    nvarchar(max),
-                                                           @ShowCode  bit,
-                                                           @ShowLabel bit,
-                                                           @Link1     nvarchar(max),
-                                                           @Link2     nvarchar(max)) returns nvarchar(max) as
-            begin
-              declare @LinkCursor Cursor;
-              declare @Result nvarchar(max);
-
-              select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
-                                  v2.code + ' - '+ v2.label,
-                                  iif(coalesce(@ShowCode, 0)=1,
-                                      v2.code,
-                                      v2.label)))
-
-                from _lookup."LookupValue" v0
-                join _lookup."Lookup" lookup on (v0.lookup_id=lookup._id and lookup.name=@Lookup)
-
-                join _lookup."LookupValueLink" lk0 on (v0._id=lk0.source_value_id and lk0.name=@Link1)
-                join _lookup."LookupValue" v1 on v1._id=lk0.target_value_id
-
-                join _lookup."LookupValueLink" lk1 on (v1._id=lk1.source_value_id and lk1.name=@Link2)
-                join _lookup."LookupValue" v2 on v2._id=lk1.target_value_id
-
-               where v0.code=@Code;
-              return @Result;
-            end;""");
-
-        c.createStatement().executeUpdate("""
-            create or alter function _lookup.lookup_label3(@Code      nvarchar(max),
-                                                           @Lookup    nvarchar(max),
-                                                           @ShowCode  bit,
-                                                           @ShowLabel bit,
-                                                           @Link1     nvarchar(max),
-                                                           @Link2     nvarchar(max),
-                                                           @Link3     nvarchar(max)) returns nvarchar(max) as
-            begin
-              declare @LinkCursor Cursor;
-              declare @Result nvarchar(max);
-
-              select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
-                                  v3.code + ' - '+ v3.label,
-                                  iif(coalesce(@ShowCode, 0)=1,
-                                      v3.code,
-                                      v3.label)))
-
-                from _lookup."LookupValue" v0
-                join _lookup."Lookup" lookup on (v0.lookup_id=lookup._id and lookup.name=@Lookup)
-
-                join _lookup."LookupValueLink" lk0 on (v0._id=lk0.source_value_id and lk0.name=@Link1)
-                join _lookup."LookupValue" v1 on v1._id=lk0.target_value_id
-
-                join _lookup."LookupValueLink" lk1 on (v1._id=lk1.source_value_id and lk1.name=@Link2)
-                join _lookup."LookupValue" v2 on v2._id=lk1.target_value_id
-
-                join _lookup."LookupValueLink" lk2 on (v2._id=lk2.source_value_id and lk2.name=@Link3)
-                join _lookup."LookupValue" v3 on v3._id=lk2.target_value_id
-
-               where v0.code=@Code;
-              return @Result;
-            end;""");
-
-        c.createStatement().executeUpdate("""
-            create or alter function _lookup.lookup_label4(@Code      nvarchar(max),
-                                                           @Lookup    nvarchar(max),
-                                                           @ShowCode  bit,
-                                                           @ShowLabel bit,
-                                                           @Link1     nvarchar(max),
-                                                           @Link2     nvarchar(max),
-                                                           @Link3     nvarchar(max),
-                                                           @Link4     nvarchar(max)) returns nvarchar(max) as
-            begin
-              declare @LinkCursor Cursor;
-              declare @Result nvarchar(max);
-
-              select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
-                                  v4.code + ' - '+ v4.label,
-                                  iif(coalesce(@ShowCode, 0)=1,
-                                      v4.code,
-                                      v4.label)))
-
-                from _lookup."LookupValue" v0
-                join _lookup."Lookup" lookup on (v0.lookup_id=lookup._id and lookup.name=@Lookup)
-
-                join _lookup."LookupValueLink" lk0 on (v0._id=lk0.source_value_id and lk0.name=@Link1)
-                join _lookup."LookupValue" v1 on v1._id=lk0.target_value_id
+        /*
+         * Functions to find labels from lookups, by lookup name and by lookup
+         * id, for 0 to MAX_SQLSERVER_LINKS links.
+         */
+        for (int links = 0; links <= MAX_SQLSERVER_LINKS; links++) {
+          c.createStatement().executeUpdate(sqlServerLookupLabel(links, false));
+          c.createStatement().executeUpdate(sqlServerLookupLabel(links, true));
+          c.createStatement().executeUpdate(sqlServerLookupLabelTable(links, false));
+          c.createStatement().executeUpdate(sqlServerLookupLabelTable(links, true));
+          sqlServerLabelTables.add(sqlServerLabelTableName(links, false));
+          sqlServerLabelTables.add(sqlServerLabelTableName(links, true));
+        }
 
-                join _lookup."LookupValueLink" lk1 on (v1._id=lk1.source_value_id and lk1.name=@Link2)
-                join _lookup."LookupValue" v2 on v2._id=lk1.target_value_id
+        if (valuePathDepth > 0) {
+          c.createStatement().executeUpdate("""
+              create or alter function _lookup.lookup_label_by_path(@Code      nvarchar(max),
+                                                                    @LookupId  uniqueidentifier,
+                                                                    @ShowCode  bit,
+                                                                    @ShowLabel bit,
+                                                                    @Path      nvarchar(max)) returns nvarchar(max) as
+              begin
+                declare @Result nvarchar(max);
+                select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
+                                    t.code + ' - '+ t.label,
+                                    iif(coalesce(@ShowCode, 0)=1,
+                                        t.code,
+                                        t.label)))
+                  from _lookup."LookupValue"     v
+                  join _lookup."LookupValuePath" p on p.source_value_id=v._id and p.path=@Path
+                  join _lookup."LookupValue"     t on t._id=p.target_value_id
+                 where v.lookup_id=@LookupId and v.code=@Code;
+                return @Result;
+              end;""");
+        }
 
-                join _lookup."LookupValueLink" lk2 on (v2._id=lk2.source_value_id and lk2.name=@Link3)
-                join _lookup."LookupValue" v3 on v3._id=lk2.target_value_id
+        c.commit();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    }
 
-                join _lookup."LookupValueLink" lk3 on (v3._id=lk3.source_value_id and lk3.name=@Link4)
-                join _lookup."LookupValue" v4 on v4._id=lk3.target_value_id
+    /*
+     * Compute value paths when they are first enabled.
+     */
+    if (valuePathDepth > 0) {
+      try (Connection c = db.pooledConnection();
+           Statement st = c.createStatement();
+           ResultSet rs = st.executeQuery(db.target() == POSTGRESQL
+                                          ? "select 1 from _lookup.\"LookupValuePath\" limit 1"
+                                          : "select top 1 1 from _lookup.\"LookupValuePath\"")) {
+        if (!rs.next()) {
+          rebuildValuePaths();
+        }
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
 
-               where v0.code=@Code;
-              return @Result;
-            end;""");
+  /**
+   * Recomputes the materialised paths of all lookup values
+   * (<code>_lookup.LookupValuePath</code>), when enabled with
+   * {@link #CONFIG_VALUE_PATHS_MAX_DEPTH}. Paths are maintained when lookups
+   * are saved through this extension; this is only needed after changing
+   * lookup values or links directly in the database.
+   */
+  public void rebuildValuePaths() {
+    if (valuePathDepth > 0) {
+      inTransaction(con -> {
+        ValuePaths.rebuild(con.con(), db.target() == POSTGRESQL, valuePathDepth);
+        return null;
+      });
+    }
+  }
 
-        c.createStatement().executeUpdate("""
-            create or alter function _lookup.lookup_label5(@Code      nvarchar(max),
-                                                           @Lookup    nvarchar(max),
-                                                           @ShowCode  bit,
-                                                           @ShowLabel bit,
-                                                           @Link1     nvarchar(max),
-                                                           @Link2     nvarchar(max),
-                                                           @Link3     nvarchar(max),
-                                                           @Link4     nvarchar(max),
-                                                           @Link5     nvarchar(max)) returns nvarchar(max) as
-            begin
-              declare @LinkCursor Cursor;
-              declare @Result nvarchar(max);
+  /**
+   * Work done on a connection in a transaction, returning a result.
+   */
+  @FunctionalInterface
+  interface Transaction<T> {
+    T run(EsqlConnection con) throws SQLException;
+  }
 
-              select @Result=(iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
-                                  v5.code + ' - '+ v5.label,
-                                  iif(coalesce(@ShowCode, 0)=1,
-                                      v5.code,
-                                      v5.label)))
+  /**
+   * Runs the work in its own transaction, on a new connection, rolling it
+   * back if the work fails, and returns its result once committed.
+   */
+  private <T> T inTransaction(Transaction<T> work) {
+    try (EsqlConnection con = db.esql()) {
+      Connection c = con.con();
+      boolean autoCommit = c.getAutoCommit();
+      c.setAutoCommit(false);
+      try {
+        T result = work.run(con);
+        c.commit();
+        return result;
+      } catch (SQLException | RuntimeException e) {
+        c.rollback();
+        throw e;
+      } finally {
+        c.setAutoCommit(autoCommit);
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-                from _lookup."LookupValue" v0
-                join _lookup."Lookup" lookup on (v0.lookup_id=lookup._id and lookup.name=@Lookup)
+  /**
+   * The maximum number of links of the materialised value paths, or 0 if value
+   * paths are not materialised.
+   */
+  int valuePathDepth() {
+    return valuePathDepth;
+  }
 
-                join _lookup."LookupValueLink" lk0 on (v0._id=lk0.source_value_id and lk0.name=@Link1)
-                join _lookup."LookupValue" v1 on v1._id=lk0.target_value_id
+  /**
+   * The SQL Server function finding the label of a code in a lookup, by name
+   * (<code>_lookup.lookup_label&lt;links&gt;</code>) or by id
+   * (<code>_lookup.lookup_label_by_id&lt;links&gt;</code>), following the
+   * specified number of links.
+   */
+  private static String sqlServerLookupLabel(int links, boolean byId) {
+    return """
+           create or alter function _lookup.%1$s%2$d(@Code      nvarchar(max),
+                                                     %3$s,
+                                                     @ShowCode  bit,
+                                                     @ShowLabel bit%4$s) returns nvarchar(max) as
+           begin
+             declare @Result nvarchar(max);
+
+             select @Result=%5$s;
+             return @Result;
+           end;""".formatted(byId ? "lookup_label_by_id" : "lookup_label",
+                             links,
+                             byId ? "@LookupId  uniqueidentifier" : "@Lookup    nvarchar(max)",
+                             sqlServerLinkParams(links, 42),
+                             sqlServerLabelQuery(links, byId));
+  }
 
-                join _lookup."LookupValueLink" lk1 on (v1._id=lk1.source_value_id and lk1.name=@Link2)
-                join _lookup."LookupValue" v2 on v2._id=lk1.target_value_id
+  /**
+   * The SQL Server inline table-valued function returning the label of a code
+   * in a lookup, by name (<code>_lookup.lookup_label_table&lt;links&gt;</code>)
+   * or by id (<code>_lookup.lookup_label_by_id_table&lt;links&gt;</code>),
+   * following the specified number of links. Unlike scalar functions, inline
+   * table-valued functions are expanded into the queries using them, which
+   * can then be optimised and parallelised as a whole.
+   */
+  private static String sqlServerLookupLabelTable(int links, boolean byId) {
+    return """
+           create or alter function _lookup.%1$s(@Code      nvarchar(max),
+                                                 %2$s,
+                                                 @ShowCode  bit,
+                                                 @ShowLabel bit%3$s) returns table as
+           return select label=%4$s;""".formatted(sqlServerLabelTableName(links, byId),
+                                                  byId ? "@LookupId  uniqueidentifier" : "@Lookup    nvarchar(max)",
+                                                  sqlServerLinkParams(links, 38),
+                                                  sqlServerLabelQuery(links, byId));
+  }
 
-                join _lookup."LookupValueLink" lk2 on (v2._id=lk2.source_value_id and lk2.name=@Link3)
-                join _lookup."LookupValue" v3 on v3._id=lk2.target_value_id
+  private static String sqlServerLabelTableName(int links, boolean byId) {
+    return (byId ? "lookup_label_by_id_table" : "lookup_label_table") + links;
+  }
 
-                join _lookup."LookupValueLink" lk3 on (v3._id=lk3.source_value_id and lk3.name=@Link4)
-                join _lookup."LookupValue" v4 on v4._id=lk3.target_value_id
+  private static String sqlServerLinkParams(int links, int indent) {
+    StringBuilder params = new StringBuilder();
+    for (int i = 1; i <= links; i++) {
+      params.append(",\n").append(" ".repeat(indent)).append("@Link").append(i).append("     nvarchar(max)");
+    }
+    return params.toString();
+  }
 
-                join _lookup."LookupValueLink" lk4 on (v4._id=lk4.source_value_id and lk4.name=@Link5)
-                join _lookup."LookupValue" v5 on v5._id=lk4.target_value_id
+  /**
+   * The query selecting the label of the value reached from the code by
+   * following the links, as a scalar subquery.
+   */
+  private static String sqlServerLabelQuery(int links, boolean byId) {
+    StringBuilder joins = new StringBuilder();
+    for (int i = 1; i <= links; i++) {
+      joins.append("""
 
-               where v0.code=@Code;
-              return @Result;
-            end;""");
+                       join _lookup."LookupValueLink" lk%1$d on (v%1$d._id=lk%1$d.source_value_id and lk%1$d.name=@Link%2$d)
+                       join _lookup."LookupValue" v%2$d on v%2$d._id=lk%1$d.target_value_id""".formatted(i - 1, i));
+    }
+    return """
+           (select top 1
+                   iif(coalesce(@ShowCode, 0)=coalesce(@ShowLabel, 0),
+                       v%1$d.code + ' - '+ v%1$d.label,
+                       iif(coalesce(@ShowCode, 0)=1,
+                           v%1$d.code,
+                           v%1$d.label))
+
+              from _lookup."LookupValue" v0%2$s%3$s
+
+             where %4$s and v0.code=@Code)""".formatted(links,
+                                                        byId ? "" : "\n    join _lookup.\"Lookup\" lookup on v0.lookup_id=lookup._id",
+                                                        joins,
+                                                        byId ? "v0.lookup_id=@LookupId" : "lookup.name=@Lookup");
+  }
 
-        c.commit();
-      } catch (SQLException e) {
-        throw new RuntimeException(e);
+  /**
+   * Returns the name of the SQL Server inline table-valued function finding
+   * labels through the specified number of links, by lookup name or id,
+   * creating it first if it does not exist. Functions for up to
+   * {@link #MAX_SQLSERVER_LINKS} links are created when the extension is
+   * initialised and the others on first use.
+   */
+  String sqlServerLabelTable(int links, boolean byId) {
+    String name = sqlServerLabelTableName(links, byId);
+    if (!sqlServerLabelTables.contains(name)) {
+      synchronized (sqlServerLabelTables) {
+        if (!sqlServerLabelTables.contains(name)) {
+          try (Connection c = db.pooledConnection();
+               Statement st = c.createStatement()) {
+            st.executeUpdate(sqlServerLookupLabelTable(links, byId));
+            c.commit();
+          } catch (SQLException e) {
+            throw new RuntimeException(e);
+          }
+          sqlServerLabelTables.add(name);
+        }
       }
     }
+    return "_lookup." + name;
   }
 
 //  @Override
@@ -439,7 +583,9 @@ public class LookupExtension implements Extension {
 //  }
 
   public List<Lookup> loadLookups() {
-    return List.copyOf(lookups().values());
+    return lookups().values().stream()
+                    .map(LookupSnapshot::lookup)
+                    .toList();
   }
 
   public Lookup loadLookup(String name) {
@@ -451,6 +597,48 @@ public class LookupExtension implements Extension {
     return Optional.ofNullable(lookup(name));
   }
 
+  /**
+   * Returns true if a lookup with the name exists in the database, without
+   * loading it.
+   */
+  public boolean lookupExists(String name) {
+    return readLookupId(name) != null;
+  }
+
+  /**
+   * Returns the id of the named lookup, or null if there is no such lookup.
+   * The id is taken from the cached lookup if loaded; otherwise it is read
+   * from the database once and remembered, as the id of a lookup does not
+   * change when it is saved.
+   */
+  public UUID lookupId(String name) {
+    LookupSnapshot snapshot = cache.getIfLoaded(name);
+    if (snapshot != null) {
+      return snapshot.id;
+    }
+    UUID id = lookupIds.get(name);
+    if (id == null) {
+      id = readLookupId(name);
+      if (id != null) {
+        lookupIds.put(name, id);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Reads the id of the named lookup from the database, or returns null if
+   * there is no such lookup.
+   */
+  private UUID readLookupId(String name) {
+    try (EsqlConnection con = db.esql();
+         LookupStatements.Rows rs = statements.query(con, LookupStatements.LOOKUP_ID, name)) {
+      return rs.next() ? rs.uuid(1) : null;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   public LookupValue loadLookupValue(String lookup,
                                      String code) {
     return loadLookupValue(lookup, code, Lookup.MatchBy.code);
@@ -473,103 +661,555 @@ public class LookupExtension implements Extension {
   public Optional<LookupValue> findLookupValue(String lookup,
                                                String code,
                                                Lookup.MatchBy matchBy) {
-    return Optional.ofNullable(lookup(lookup))
-                   .map(l -> l.mapBy(matchBy).get(code));
+    LookupSnapshot snapshot = snapshot(lookup);
+    int i = snapshot == null ? -1 : snapshot.find(code, matchBy);
+    return i == -1 ? Optional.empty() : Optional.of(snapshot.value(i));
   }
 
-  private record Link(String source,
-                      String target) {}
+  /**
+   * Returns the labels of the codes in the lookup, following the named links
+   * from each value, in the default format of <code>lookuplabel</code>.
+   *
+   * @see #resolveLabels(String, Collection, Lookup.MatchBy, LabelFormat, String...)
+   */
+  public Map<String, String> resolveLabels(String             lookup,
+                                           Collection<String> codes,
+                                           Lookup.MatchBy     matchBy,
+                                           String...          links) {
+    return resolveLabels(lookup, codes, matchBy, LabelFormat.DEFAULT, links);
+  }
+
+  /**
+   * <p>
+   * Returns the labels of the codes in the lookup in a single pass, as
+   * <code>lookuplabel(code, lookup, links...)</code> would for each code. The
+   * value matching each code (in the column specified by matchBy) is found
+   * and the named links are followed from it in turn; the label is produced
+   * from the values in that chain as specified by the format.
+   * </p>
+   *
+   * <p>
+   * When the lookup is loaded in the cache, the labels are resolved from the
+   * cached snapshots of the lookup and its linked lookups; otherwise they are
+   * resolved with a single query joining the values to their linked values
+   * (split into chunks of {@value #RESOLVE_CHUNK_SIZE} codes on SQL Server),
+   * without loading the lookup.
+   * </p>
+   *
+   * @return The labels keyed by code, in the order of the codes. Codes with no
+   *         matching value, or whose value is not linked through all the links,
+   *         are not in the result.
+   */
+  public Map<String, String> resolveLabels(String             lookup,
+                                           Collection<String> codes,
+                                           Lookup.MatchBy     matchBy,
+                                           LabelFormat        format,
+                                           String...          links) {
+    Map<String, String> labels = new LinkedHashMap<>();
+    if (codes.isEmpty()) {
+      return labels;
+    }
+    LookupSnapshot snapshot = cache.getIfLoaded(lookup);
+    if (snapshot != null) {
+      List<String> linkNames = List.of(links);
+      for (String code: codes) {
+        String label = resolveLabel(snapshot, code, matchBy, format, linkNames);
+        if (label != null) {
+          labels.put(code, label);
+        }
+      }
+    } else {
+      Map<String, String> resolved = queryLabels(lookup, codes, matchBy, format, links);
+      for (String code: codes) {
+        String label = resolved.get(code);
+        if (label != null) {
+          labels.put(code, label);
+        }
+      }
+    }
+    return labels;
+  }
 
-  private record ValueLink(UUID   source,
-                           String sourceLookup,
-                           String linkName,
-                           String targetLookup,
-                           UUID   target) {}
+  /**
+   * Resolves the label of the code from the snapshot, or returns null if the
+   * code is not found or its value is not linked through all the links.
+   */
+  private static String resolveLabel(LookupSnapshot snapshot,
+                                     String         code,
+                                     Lookup.MatchBy matchBy,
+                                     LabelFormat    format,
+                                     List<String>   links) {
+    int i = snapshot.find(code, matchBy);
+    if (i == -1) {
+      return null;
+    }
+    String label = format.label(snapshot.code(i, matchBy), snapshot.label(i), snapshot.description(i));
+    for (String linkName: links) {
+      LookupSnapshot target = null;
+      int t = -1;
+      for (int link = snapshot.firstLink(i); link < snapshot.lastLink(i); link++) {
+        if (snapshot.linkNamed(link, linkName)) {
+          target = snapshot.linkTarget(link);
+          t = snapshot.linkTargetIndex(link, target);
+          break;
+        }
+      }
+      if (t == -1) {
+        return null;
+      }
+      snapshot = target;
+      i = t;
+      label = format.combine(label, format.label(snapshot.code(i, matchBy),
+                                                 snapshot.label(i),
+                                                 snapshot.description(i)));
+    }
+    return label;
+  }
+
+  /**
+   * Returns the code of the value of the lookup whose label is the most similar
+   * to each text, with a similarity of at least {@value #CLASSIFY_THRESHOLD}.
+   *
+   * @see #classify(Collection, String, double, int)
+   */
+  public Map<String, String> classify(Collection<String> texts,
+                                      String             lookup) {
+    Map<String, String> codes = new LinkedHashMap<>();
+    classify(texts, lookup, CLASSIFY_THRESHOLD, 1).forEach((text, matches) -> codes.put(text, matches.get(0).code()));
+    return codes;
+  }
+
+  /**
+   * <p>
+   * Classifies the texts in the values of the lookup with the most similar
+   * labels, as the <code>classify</code> function does for a single text on
+   * PostgreSQL. The labels are indexed by their trigrams when the lookup is
+   * loaded in the cache and the index is searched for each text without
+   * querying the database.
+   * </p>
+   *
+   * <p>
+   * Similarity is measured as by the PostgreSQL <code>pg_trgm</code>
+   * extension: the number of distinct trigrams shared by the text and the
+   * label over the number of distinct trigrams in either.
+   * </p>
+   *
+   * @param threshold The minimum similarity of the labels returned, between 0
+   *                  and 1.
+   * @param limit     The maximum number of values returned for each text.
+   * @return The values with the most similar labels to each text, the most
+   *         similar first, keyed by text in the order of the texts. Texts
+   *         with no label similar enough are not in the result.
+   */
+  public Map<String, List<Classification>> classify(Collection<String> texts,
+                                                    String             lookup,
+                                                    double             threshold,
+                                                    int                limit) {
+    LookupSnapshot snapshot = snapshot(lookup);
+    if (snapshot == null) {
+      throw new NotFoundException("Lookup named '" + lookup + "' not found.");
+    }
+    LabelIndex.Searcher searcher = snapshot.labelIndex().searcher();
+    Map<String, List<Classification>> classified = new LinkedHashMap<>();
+    for (String text: texts) {
+      if (text != null && !classified.containsKey(text)) {
+        List<Classification> matches = searcher.search(text, threshold, limit);
+        if (!matches.isEmpty()) {
+          classified.put(text, matches);
+        }
+      }
+    }
+    return classified;
+  }
+
+  /**
+   * <p>
+   * Searches the values of the lookup whose code or label contains all the
+   * keywords of the text, for search-as-you-type over large lookups. As
+   * <code>classify</code>, this uses the in-memory trigram index of the
+   * labels, and of the codes, of the lookup, built when the lookup is first
+   * searched, without querying the database.
+   * </p>
+   *
+   * <p>
+   * Keywords are the sequences of letters and digits in the text, matched
+   * anywhere in the code or label, ignoring case and in any order. Values
+   * are ranked by the trigram similarity of their label to the text.
+   * </p>
+   *
+   * @param limit The maximum number of values returned.
+   * @return The values matching all keywords, the best ranked first.
+   */
+  public List<Classification> search(String lookup,
+                                     String keywords,
+                                     int    limit) {
+    LookupSnapshot snapshot = snapshot(lookup);
+    if (snapshot == null) {
+      throw new NotFoundException("Lookup named '" + lookup + "' not found.");
+    }
+    return snapshot.labelIndex().searcher().find(keywords, limit);
+  }
+
+  /**
+   * Returns the marker which <code>lookuplabel</code>, when expanded for
+   * client-side resolution, prefixes to the code so that its label can be
+   * resolved by {@link #clientLabel(Object)} when it is read from the result.
+   * The marker identifies the lookup, links and format of the label with the
+   * number under which they are registered in this extension.
+   */
+  String clientLabelMarker(String         lookup,
+                           List<String>   links,
+                           Lookup.MatchBy matchBy,
+                           LabelFormat    format) {
+    ClientLabel label = new ClientLabel(lookup, List.copyOf(links), matchBy, format);
+    Integer id = clientLabelIds.get(label);
+    if (id == null) {
+      synchronized (clientLabels) {
+        id = clientLabelIds.get(label);
+        if (id == null) {
+          id = clientLabels.size();
+          clientLabels.add(label);
+          clientLabelIds.put(label, id);
+        }
+      }
+    }
+    return CLIENT_LABEL_MARKER + id + CLIENT_LABEL_MARKER;
+  }
+
+  /**
+   * <p>
+   * Returns the label of a value produced by <code>lookuplabel</code> expanded
+   * for client-side resolution (with <code>expansion='client'</code>), which
+   * is the code prefixed by a marker, resolving it from the cached snapshots
+   * of the lookup and its linked lookups. The label is null if the code is
+   * null or empty, not found or not linked through all the links, as with the
+   * other expansions. Other values are returned unchanged.
+   * </p>
+   *
+   * <p>
+   * {@link #withLabels(Result)} applies this to all the values read from a
+   * result.
+   * </p>
+   */
+  public Object clientLabel(Object value) {
+    if (value instanceof String s && s.startsWith(CLIENT_LABEL_MARKER)) {
+      int end = s.indexOf(CLIENT_LABEL_MARKER, 1);
+      if (end != -1) {
+        ClientLabel label = clientLabels.get(Integer.parseInt(s, 1, end, 10));
+        String code = s.substring(end + 1);
+        LookupSnapshot snapshot = code.isEmpty() ? null : snapshot(label.lookup());
+        return snapshot == null ? null : resolveLabel(snapshot, code, label.matchBy(), label.format(), label.links());
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Wraps the result of a query so that the labels of the codes selected by
+   * <code>lookuplabel</code> with client-side expansion are filled in from the
+   * lookups cache as the rows are read.
+   */
+  public LabelledResult withLabels(Result result) {
+    return new LabelledResult(this, result);
+  }
+
+  /**
+   * The lookup, links and format of a label resolved on the client.
+   */
+  private record ClientLabel(String         lookup,
+                             List<String>   links,
+                             Lookup.MatchBy matchBy,
+                             LabelFormat    format) {}
+
+  /**
+   * Resolves the labels of the codes with a query joining the values matching
+   * the codes to the values they are linked to.
+   */
+  private Map<String, String> queryLabels(String             lookup,
+                                          Collection<String> codes,
+                                          Lookup.MatchBy     matchBy,
+                                          LabelFormat        format,
+                                          String...          links) {
+    String column = switch (matchBy) {
+      case code     -> "code";
+      case altCode1 -> "alt_code1";
+      case altCode2 -> "alt_code2";
+    };
+    StringBuilder select = new StringBuilder("select v0.").append(column);
+    StringBuilder from = new StringBuilder("""
+                                            from _lookup."LookupValue" v0
+                                            join _lookup."Lookup" l on l._id=v0.lookup_id and l.name=?""");
+    for (int i = 0; i <= links.length; i++) {
+      select.append(", v").append(i).append('.').append(column)
+            .append(", v").append(i).append(".label")
+            .append(", v").append(i).append(".description");
+      if (i > 0) {
+        from.append("\njoin _lookup.\"LookupValueLink\" k").append(i)
+            .append(" on k").append(i).append(".source_value_id=v").append(i - 1).append("._id")
+            .append(" and k").append(i).append(".name=?")
+            .append("\njoin _lookup.\"LookupValue\" v").append(i)
+            .append(" on v").append(i).append("._id=k").append(i).append(".target_value_id");
+      }
+    }
+    String query = select + "\n" + from + "\nwhere v0." + column;
+
+    Map<String, String> labels = new HashMap<>();
+    try (Connection con = db.pooledConnection()) {
+      if (db.target() == POSTGRESQL) {
+        try (PreparedStatement ps = con.prepareStatement(query + "=any(?)")) {
+          int p = parameters(ps, lookup, links);
+          ps.setArray(p, con.createArrayOf("text", codes.toArray()));
+          readLabels(ps, format, links.length, labels);
+        }
+      } else {
+        List<String> all = new ArrayList<>(codes);
+        for (int start = 0; start < all.size(); start += RESOLVE_CHUNK_SIZE) {
+          List<String> chunk = all.subList(start, Math.min(all.size(), start + RESOLVE_CHUNK_SIZE));
+          String in = String.join(",", Collections.nCopies(chunk.size(), "?"));
+          try (PreparedStatement ps = con.prepareStatement(query + " in (" + in + ")")) {
+            int p = parameters(ps, lookup, links);
+            for (String code: chunk) {
+              ps.setString(p++, code);
+            }
+            readLabels(ps, format, links.length, labels);
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    return labels;
+  }
+
+  private static int parameters(PreparedStatement ps,
+                                String            lookup,
+                                String...         links) throws SQLException {
+    int p = 1;
+    ps.setString(p++, lookup);
+    for (String link: links) {
+      ps.setString(p++, link);
+    }
+    return p;
+  }
+
+  private static void readLabels(PreparedStatement   ps,
+                                 LabelFormat         format,
+                                 int                 links,
+                                 Map<String, String> labels) throws SQLException {
+    try (ResultSet rs = ps.executeQuery()) {
+      while (rs.next()) {
+        String label = format.label(rs.getString(2), rs.getString(3), rs.getString(4));
+        for (int i = 1; i <= links; i++) {
+          label = format.combine(label, format.label(rs.getString(3 * i + 2),
+                                                     rs.getString(3 * i + 3),
+                                                     rs.getString(3 * i + 4)));
+        }
+        labels.putIfAbsent(rs.getString(1), label);
+      }
+    }
+  }
 
   private Lookup lookup(String name) {
-    if (this.lookupsCache == null) {
-      this.lookupsCache = new ConcurrentHashMap<>();
+    LookupSnapshot snapshot = snapshot(name);
+    return snapshot == null ? null : snapshot.lookup();
+  }
+
+  /**
+   * Returns the snapshot of the named lookup, loading it if not already cached,
+   * or null if there is no such lookup. Linked lookups are not loaded with the
+   * snapshot; they are resolved by name when their values are accessed. Loading
+   * is single-flight: concurrent callers for the same lookup wait for and share
+   * the result of a single load.
+   */
+  LookupSnapshot snapshot(String name) {
+    pollIfDue();
+    return cache.get(name, this::loadSnapshot);
+  }
+
+  /**
+   * Synchronises the cache with the database if the poll interval has elapsed
+   * since the last synchronisation. Only one of the threads arriving at the
+   * same time polls, the others carry on with the cache as it is.
+   */
+  private void pollIfDue() {
+    if (pollInterval > 0) {
+      long last = lastPoll.get();
+      long now = System.nanoTime();
+      if (now - last >= pollInterval && lastPoll.compareAndSet(last, now)) {
+        try {
+          synchroniseLookups();
+        } catch (RuntimeException e) {
+          log.log(WARNING, "Could not synchronise lookups cache with " + db, e);
+        }
+      }
     }
-    if (!lookupsCache.containsKey(name)) {
-      lookupsCache.put(name, new Lookup());
-      try (EsqlConnection con = db.esql();
-           Result rs = con.exec("""
-                              select _id,
-                                     "group",
-                                     display_name,
-                                     description
-                                from _lookup.Lookup
-                               where name=@name""", new QueryParams().add("name", name))) {
-        if (!rs.toNext()) {
-          lookupsCache.remove(name);
+  }
+
+  /**
+   * <p>
+   * Brings the cache in line with the lookups in the database by invalidating
+   * the cached lookups which have been changed or deleted since they were
+   * loaded, possibly by other nodes sharing the database. Every save of a
+   * lookup increments its version (<code>_lookup.Lookup._version</code>), so
+   * this only needs to read the name and version of each lookup and compare
+   * them with the versions of the cached snapshots. Unchanged lookups stay
+   * loaded.
+   * </p>
+   *
+   * <p>
+   * This is called periodically on access when a poll interval is configured
+   * (see {@link #CONFIG_CACHE_POLL_INTERVAL}), and can also be called directly,
+   * such as on receiving a change notification. Changes made directly to the
+   * lookup tables without incrementing the version of the lookup are not
+   * detected.
+   * </p>
+   *
+   * @return The names of the lookups invalidated.
+   */
+  public Set<String> synchroniseLookups() {
+    Map<String, LookupSnapshot> loaded = cache.loaded();
+    if (loaded.isEmpty() && lookupIds.isEmpty()) {
+      return Set.of();
+    }
+    Map<String, Long> versions = new HashMap<>();
+    Map<String, UUID> ids = new HashMap<>();
+    try (EsqlConnection con = db.esql();
+         Result rs = con.exec("select name, _version, _id from _lookup.Lookup")) {
+      while (rs.toNext()) {
+        versions.put(rs.value(1), version(rs.value(2)));
+        ids.put(rs.value(1), rs.value(3));
+      }
+    }
+    /*
+     * A lookup deleted and recreated may have the version of the cached
+     * lookup but not its id, which is inlined in the translations of the
+     * lookup label functions.
+     */
+    Set<String> invalidated = new HashSet<>();
+    for (Map.Entry<String, LookupSnapshot> e: loaded.entrySet()) {
+      Long version = versions.get(e.getKey());
+      if (version == null
+       || version != e.getValue().version
+       || !e.getValue().id.equals(ids.get(e.getKey()))) {
+        cache.invalidate(e.getKey(), e.getValue());
+        invalidated.add(e.getKey());
+      }
+    }
+
+    /*
+     * Forget the ids of lookups deleted, or deleted and recreated.
+     */
+    boolean forgotten = lookupIds.entrySet().removeIf(e -> !e.getValue().equals(ids.get(e.getKey())));
+    if (forgotten || !invalidated.isEmpty()) {
+      invalidateExpansions();
+    }
+
+    if (!invalidated.isEmpty()) {
+      log.log(INFO, "Lookups changed in " + db + ": " + invalidated);
+    }
+    return invalidated;
+  }
+
+  private static long version(Object version) {
+    return version == null ? 0 : ((Number)version).longValue();
+  }
+
+  private LookupSnapshot loadSnapshot(String name) {
+    try (EsqlConnection con = db.esql()) {
+      LookupSnapshot.Builder builder;
+      UUID id;
+      try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LOOKUP, name)) {
+        if (!rs.next()) {
           return null;
         }
-        UUID   id          = rs.value(1);
-        String group       = rs.value(2);
-        String displayName = rs.value(3);
-        String description = rs.value(4);
+        id = rs.uuid(1);
+        builder = new LookupSnapshot.Builder(id,
+                                             name,
+                                             rs.string(2),
+                                             rs.string(3),
+                                             rs.string(4))
+                     .version(rs.number(5));
+      }
 
-        /*
-         * Load values.
-         */
-        Map<String, LookupValue> values     = new LinkedHashMap<>();
-        Map<UUID,   LookupValue> valuesById = new HashMap<>();
-        try (Result vrs = con.exec("""
-                                 select _id,
-                                        code,
-                                        alt_code1,
-                                        alt_code2,
-                                        label,
-                                        description,
-                                        lang
-                                   from _lookup.LookupValue
-                                  where lookup_id=@id""", new QueryParams().add("id", id))) {
-          while (vrs.toNext()) {
-            LookupValue value = new LookupValue(
-                    vrs.value(1),
-                    name,
-                    vrs.value(2),
-                    vrs.value(3),
-                    vrs.value(4),
-                    vrs.value(5),
-                    vrs.value(6),
-                    vrs.value(7),
-                    emptyList());
-
-            values.put(value.code(),   value);
-            valuesById.put(value.id(), value);
-          }
+      /*
+       * Load linked lookups.
+       */
+      try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LOOKUP_LINKS, id)) {
+        while (rs.next()) {
+          builder.link(rs.string(1));
         }
+      }
 
-        /*
-         * Load linked lookups.
-         */
-        List<Lookup> links = new ArrayList<>();
-        try (Result lrs = con.exec("""
-                                   select lk.name
-                                     from ln:_lookup.LookupLink
-                                     join lk:_lookup.Lookup on lk._id=ln.target_lookup_id
-                                    where ln.source_lookup_id=@id""", new QueryParams().add("id", id))) {
-          while (lrs.toNext()) {
-            links.add(lookup(lrs.value(1)));
-          }
+      /*
+       * Load values.
+       */
+      try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LOOKUP_VALUES, id)) {
+        while (rs.next()) {
+          builder.value(rs.uuid(1),
+                        rs.string(2),
+                        rs.string(3),
+                        rs.string(4),
+                        rs.string(5),
+                        rs.string(6),
+                        rs.string(7));
+        }
+      }
+
+      /*
+       * Load value links.
+       */
+      try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LOOKUP_VALUE_LINKS, id)) {
+        while (rs.next()) {
+          builder.valueLink(rs.uuid(1),
+                            rs.string(2),
+                            rs.string(3),
+                            rs.uuid(4));
         }
-        lookupsCache.put(name, new Lookup(id,
-                                          name,
-                                          group,
-                                          displayName,
-                                          description,
-                                          links,
-                                          values,
-                                          valuesById));
       }
+      return builder.build(this::snapshot);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
     }
-    return lookupsCache.get(name);
   }
 
-  private Map<String, Lookup> lookups() {
-    if (this.lookupsCache == null) {
-      this.lookupsCache = new ConcurrentHashMap<>();
+  /**
+   * Returns the snapshots of all lookups in the database, keyed by name. When
+   * the cache is empty and unbounded, all lookups are first loaded in bulk;
+   * otherwise only the lookups not already cached are loaded, one at a time,
+   * so that a bounded cache never holds more lookups than its limits allow.
+   */
+  private Map<String, LookupSnapshot> lookups() {
+    if (cache.isEmpty() && !cache.bounded()) {
+      preloadLookups();
+    }
+    Map<String, LookupSnapshot> lookups = new LinkedHashMap<>();
+    try (EsqlConnection con = db.esql();
+         Result rs = con.exec("select name from _lookup.Lookup order by name")) {
+      while (rs.toNext()) {
+        String name = rs.value(1);
+        LookupSnapshot snapshot = snapshot(name);
+        if (snapshot != null) {
+          lookups.put(name, snapshot);
+        }
+      }
+    }
+    return lookups;
+  }
+
+  /**
+   * Loads all lookups, their values and value links with two queries and adds
+   * them to the cache, leaving any lookup already cached or being loaded
+   * untouched. Concurrent preloads are serialised so that the database is read
+   * only once on a cold start. Lookups are only added if none has been
+   * invalidated since they were read, so that a lookup saved in the meantime
+   * is not cached as it was before; lookups not added are loaded on access.
+   */
+  private void preloadLookups() {
+    synchronized (preloadLock) {
+      if (!cache.isEmpty()) {
+        return;
+      }
+      long generation = cache.generation();
       try (EsqlConnection con = db.esql();
            Result rs = con.exec("""
                                 select           source_id:source._id,
@@ -577,38 +1217,35 @@ public class LookupExtension implements Extension {
                                               source_group:source."group",
                                        source_display_name:source.display_name,
                                         source_description:source.description,
+                                            source_version:source._version,
                                                target_name:target.name
-                                       
+                                     
                                   from source:_lookup.Lookup
                              left join   link:_lookup.LookupLink on link.source_lookup_id=source._id
-                             left join target:_lookup.Lookup     on target._id=link.target_lookup_id""")) {
-        Map<String, Lookup> lookups = new HashMap<>();
-        List<Link> links = new ArrayList<>();
+                             left join target:_lookup.Lookup     on target._id=link.target_lookup_id
+                              order by link._seq""")) {
+        Map<String, LookupSnapshot.Builder> builders = new HashMap<>();
         while (rs.toNext()) {
           String lookupName = rs.value("source_name");
-          if (!lookups.containsKey(lookupName)) {
-            lookups.put(lookupName, new Lookup(rs.value("source_id"),
-                                               lookupName,
-                                               rs.value("source_group"),
-                                               rs.value("source_display_name"),
-                                               rs.value("source_description"),
-                                               new ArrayList<>(),
-                                               new HashMap<>(),
-                                               new HashMap<>()));
+          LookupSnapshot.Builder builder = builders.get(lookupName);
+          if (builder == null) {
+            builder = new LookupSnapshot.Builder(rs.value("source_id"),
+                                                 lookupName,
+                                                 rs.value("source_group"),
+                                                 rs.value("source_display_name"),
+                                                 rs.value("source_description"))
+                         .version(version(rs.value("source_version")));
+            builders.put(lookupName, builder);
           }
           String targetName = rs.value("target_name");
           if (targetName != null) {
-            links.add(new Link(lookupName, targetName));
+            builder.link(targetName);
           }
         }
-        for (Link link: links) {
-          Lookup source = lookups.get(link.source);
-          Lookup target = lookups.get(link.target);
-          source.links().add(target);
-        }
 
         /*
-         * Load values.
+         * Load values, in the order of their codes and languages (see
+         * LookupStatements.LOOKUP_VALUES).
          */
         try (Result vrs = con.exec("""
                                    select          source_id:sv._id,
@@ -618,165 +1255,206 @@ public class LookupExtension implements Extension {
                                                 source_label:sv.label,
                                           source_description:sv.description,
                                                  source_lang:sv.lang,
-                                         
+                                       
                                           source_lookup_name:sl.name,
                                                    link_name:lk.name,
-                                          
+                                        
                                           target_lookup_name:tl.name,
                                                    target_id:lk.target_value_id
-                                          
+                                        
                                      from sv:_lookup.LookupValue
                                      join sl:_lookup.Lookup          on sl._id=sv.lookup_id
                                 left join lk:_lookup.LookupValueLink on lk.source_value_id=sv._id
                                 left join tv:_lookup.LookupValue     on tv._id=lk.target_value_id
-                                left join tl:_lookup.Lookup          on tl._id=tv.lookup_id""")) {
-          List<ValueLink> valueLinks = new ArrayList<>();
+                                left join tl:_lookup.Lookup          on tl._id=tv.lookup_id
+                                 order by sv.code, sv.lang""")) {
           while (vrs.toNext()) {
             UUID valueId = vrs.value("source_id");
-            String sourceLookupName = vrs.value("source_lookup_name");
-            Map<String, LookupValue> lookupValues = lookups.get(sourceLookupName).values();
-            Map<UUID,   LookupValue> lookupValuesById = lookups.get(sourceLookupName).valuesById();
-            String sourceCode = vrs.value("source_code");
-            if (!lookupValues.containsKey(sourceCode)) {
-              LookupValue value = new LookupValue(valueId,
-                                                  sourceLookupName,
-                                                  sourceCode,
-                                                  vrs.value("source_alt_code1"),
-                                                  vrs.value("source_alt_code2"),
-                                                  vrs.value("source_label"),
-                                                  vrs.value("source_description"),
-                                                  vrs.value("source_lang"),
-                                                  new ArrayList<>());
-              lookupValues.put(sourceCode,  value);
-              lookupValuesById.put(valueId, value);
-            }
+            LookupSnapshot.Builder builder = builders.get(vrs.<String>value("source_lookup_name"));
+            builder.value(valueId,
+                          vrs.value("source_code"),
+                          vrs.value("source_alt_code1"),
+                          vrs.value("source_alt_code2"),
+                          vrs.value("source_label"),
+                          vrs.value("source_description"),
+                          vrs.value("source_lang"));
             String linkName = vrs.value("link_name");
             if (linkName != null) {
-              valueLinks.add(new ValueLink(valueId,
-                                           sourceLookupName,
-                                           linkName,
-                                           vrs.value("target_lookup_name"),
-                                           vrs.value("target_id")));
+              builder.valueLink(valueId,
+                                linkName,
+                                vrs.value("target_lookup_name"),
+                                vrs.value("target_id"));
             }
           }
-          for (ValueLink link: valueLinks) {
-            LookupValue source = lookups.get(link.sourceLookup).valuesById().get(link.source);
-            LookupValue target = lookups.get(link.targetLookup).valuesById().get(link.target);
-            source.links().add(new LookupValueLink(link.linkName, target));
+        }
+        for (Map.Entry<String, LookupSnapshot.Builder> e: builders.entrySet()) {
+          if (!cache.putIfAbsent(e.getKey(), e.getValue().build(this::snapshot), generation)) {
+            break;
           }
         }
-        this.lookupsCache = lookups;
       }
     }
-    return this.lookupsCache;
   }
 
+  /**
+   * Drops all lookups from the cache; they will be reloaded on next access.
+   */
+  public void invalidateLookups() {
+    cache.clear();
+    lookupIds.clear();
+    invalidateExpansions();
+  }
+
+  /**
+   * Drops the named lookup from the cache; it will be reloaded on next access.
+   * Other cached lookups are not affected: those linking to the invalidated
+   * lookup refer to it, and to its values, by name and id and resolve these
+   * references on access, so they will see the reloaded lookup.
+   */
+  public void invalidateLookup(String name) {
+    cache.invalidate(name);
+    lookupIds.remove(name);
+    invalidateExpansions();
+  }
+
+  /**
+   * Drops the cached expansions of <code>lookuplabel</code>, which inline the
+   * ids of lookups and must be expanded again when lookups change.
+   */
+  private void invalidateExpansions() {
+    if (lookupLabel != null) {
+      lookupLabel.invalidateExpansions();
+    }
+  }
+
+  /**
+   * Invalidates and immediately reloads the named lookup so that the next
+   * access to it does not have to wait for the load.
+   */
+  public void refreshLookup(String name) {
+    invalidateLookup(name);
+    snapshot(name);
+  }
+
+  /**
+   * Hit, miss and eviction counters and the current size of the lookups cache.
+   */
+  public LookupCacheStats cacheStats() {
+    return cache.stats();
+  }
+
+  /**
+   * Creates or updates the lookup and refreshes it in the cache. Only the saved
+   * lookup is reloaded; all other cached lookups stay loaded. The lookup and
+   * its values are saved in bulk in a single transaction (see {@link LookupWriter}).
+   */
   public UUID saveLookup(Lookup lookup) {
-    UUID saved = saveLookup(lookup, new HashSet<>());
-    lookupsCache = null;
+    UUID saved;
+    try (LookupWriter writer = lookupWriter(lookup)) {
+      if (lookup.values() != null) {
+        for (LookupValue value: lookup.values().values()) {
+          writer.write(value);
+        }
+      }
+      saved = writer.commit();
+    }
+    refreshLookup(lookup.name());
     return saved;
   }
 
-  private UUID saveLookup(Lookup lookup, Set<UUID> savedLookups) {
-    if (!savedLookups.contains(lookup.id())) {
-      savedLookups.add(lookup.id());
-      try (EsqlConnection con = db.esql()) {
-        Result rs = con.exec("""
-                             select _id
-                               from _lookup.Lookup
-                              where name=@name""",
-                             new QueryParams().add("name", lookup.name()));
-        UUID lookupId;
-        if (rs.toNext()) {
-          lookupId = rs.value("_id");
-          con.exec("""
-                   update l
-                     from l:_lookup.Lookup
-                      set display_name=@displayName,
-                          description=@description,
-                          "group"=@grp
-                    where _id=@id""",
-                   new QueryParams()
-                       .add("displayName", lookup.displayName())
-                       .add("description", lookup.description())
-                       .add("grp",         lookup.group())
-                       .add("id",          lookupId));
-
-          /*
-           * Update links: set a special version on existing links, change that
-           * version for updated links, then deleted those which were not updated
-           * (meaning that they were not present in the definition).
-           */
-          con.exec("""
-                   update ln
-                     from ln:_lookup.LookupLink
-                      set _version=0
-                    where source_lookup_id=u'""" + lookupId + "'");
-
-          if (lookup.links() != null) {
-            for (Lookup link: lookup.links()) {
-              saveLookupLink(lookupId, link);
-            }
-          }
-          con.exec("""
-                   delete ln
-                     from ln:_lookup.LookupLink
-                    where _version=0
-                      and source_lookup_id=u'""" + lookupId + "'");
-
-          /*
-           * Update values using same strategy as links
-           */
-          con.exec("""
-                   update lv
-                     from lv:_lookup.LookupValue
-                      set _version=0
-                    where lookup_id=u'""" + lookupId + "'");
-
-          if (lookup.values() != null) {
-            for (LookupValue value: lookup.values().values()) {
-              saveLookupValue(lookupId, value);
-            }
-          }
-          con.exec("""
-                   delete lv
-                     from lv:_lookup.LookupValue
-                    where _version=0
-                      and lookup_id=u'""" + lookupId + "'");
-
-        } else {
-          lookupId = lookup.id();
-          con.exec("""
-                   insert into _lookup.Lookup(_id,  name, display_name,  description, "group")
-                                       values(@id, @name, @displayName, @description, @grp)""",
-                   new QueryParams()
-                       .add("id",          lookupId)
-                       .add("name",        lookup.name())
-                       .add("displayName", lookup.displayName())
-                       .add("description", lookup.description())
-                       .add("grp",         lookup.group()));
-          if (lookup.links() != null) {
-            for (Lookup link: lookup.links()) {
-              con.exec("""
-                       insert into _lookup.LookupLink(_id,     source_lookup_id, target_lookup_id)
-                                               values(newid(), @sourceId,        @targetId)""",
-                       new QueryParams()
-                           .add("sourceId",    lookupId)
-                           .add("targetId",    link.id()));
-            }
-          }
-          if (lookup.values() != null) {
-            for (LookupValue value: lookup.values().values()) {
-              saveLookupValue(lookupId, value);
-            }
-          }
+  /**
+   * Returns a writer to save the lookup and values written to it in bulk, in a
+   * single transaction. The values of the lookup are ignored; instead, the
+   * values written to the writer replace those of the lookup when the writer
+   * is committed. The writer must be closed after use, and the lookup
+   * refreshed in the cache with {@link #refreshLookup(String)} once committed.
+   */
+  public LookupWriter lookupWriter(Lookup lookup) {
+    return new LookupWriter(db, lookup, saveBatchSize, valuePathDepth);
+  }
+
+  /**
+   * <p>
+   * Creates or updates the lookup on the connection, in its transaction, so
+   * that several lookups, or lookups and other data, can be saved atomically
+   * by saving them on the same connection: the lookup is saved when the
+   * caller commits the transaction, and not at all if the caller rolls it
+   * back. Links between lookups saved in the same transaction are resolved
+   * within the transaction.
+   * </p>
+   *
+   * <p>
+   * The transaction should be committed with {@link #commit(EsqlConnection)},
+   * which invalidates the lookup in the cache once committed. A transaction
+   * committed directly on the connection leaves the lookup in the cache until
+   * it is invalidated or the cache synchronised with
+   * {@link #synchroniseLookups()}.
+   * </p>
+   */
+  public UUID saveLookup(EsqlConnection con, Lookup lookup) {
+    try (LookupWriter writer = lookupWriter(con, lookup)) {
+      if (lookup.values() != null) {
+        for (LookupValue value: lookup.values().values()) {
+          writer.write(value);
         }
+      }
+      return writer.commit();
+    }
+  }
+
+  /**
+   * Returns a writer to save the lookup and values written to it in bulk on
+   * the connection, in its transaction; committing the writer completes the
+   * writing of the lookup, which is saved when the caller commits the
+   * transaction (see {@link #saveLookup(EsqlConnection, Lookup)}). The
+   * connection is left open when the writer is closed.
+   */
+  public LookupWriter lookupWriter(EsqlConnection con, Lookup lookup) {
+    LookupWriter writer = new LookupWriter(db, con, false, lookup, saveBatchSize, valuePathDepth);
+    saved(con, lookup.name());
+    return writer;
+  }
 
-//        saveLookupImport(lookup);
-        return lookupId;
+  /**
+   * Commits the transaction of the connection, then invalidates in the cache
+   * the lookups saved on the connection since its last commit or rollback.
+   * Invalidating them after the commit, and not as they are saved, ensures
+   * that a lookup loaded while the transaction is in progress, which does not
+   * see the changes of the transaction, is not left in the cache.
+   */
+  public void commit(EsqlConnection con) {
+    Set<String> lookups = savedOn.remove(con);
+    try {
+      con.con().commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    if (lookups != null) {
+      for (String name: lookups) {
+        invalidateLookup(name);
       }
     }
-    return lookup.id();
+  }
+
+  /**
+   * Rolls back the transaction of the connection; the lookups saved on it
+   * since its last commit or rollback are left unchanged and stay cached.
+   */
+  public void rollback(EsqlConnection con) {
+    savedOn.remove(con);
+    try {
+      con.con().rollback();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Records that the lookup was saved on the connection, to be invalidated
+   * when the connection is committed with {@link #commit(EsqlConnection)}.
+   */
+  private void saved(EsqlConnection con, String lookup) {
+    savedOn.computeIfAbsent(con, c -> ConcurrentHashMap.newKeySet()).add(lookup);
   }
 
   /**
@@ -831,117 +1509,301 @@ public class LookupExtension implements Extension {
 //    }
 //  }
 
+  /**
+   * Links the lookup to another, in a transaction of its own, and invalidates
+   * the lookup in the cache once committed.
+   */
   public void saveLookupLink(UUID lookupId, Lookup link) {
-    try (EsqlConnection con = db.esql();
-         Result rs = con.exec("""
-                              select ln._id
-                                from ln:_lookup.LookupLink
-                                join lk:_lookup.Lookup on lk._id=ln.source_lookup_id
-                                                      and lk._id=@sourceId
-                               where ln.target_lookup_id=@targetId
-                              """,
-                              new QueryParams()
-                                 .add("sourceId", lookupId)
-                                 .add("targetId", link.id()))) {
-      if (rs.toNext()) {
-        UUID linkId = rs.value(1);
-        con.exec("""
-                 update ln
-                   from ln:_lookup.LookupLink
-                    set _version=2,
-                        target_lookup_id=@targetId
-                  where ln._id=@linkId""",
-                 new QueryParams()
-                     .add("linkId",   linkId)
-                     .add("targetId", link.id()));
-//                     .add("targetId", loadLookup(link.name()).id()));
-      } else {
-        con.exec("""
-                 insert into _lookup.LookupLink(_id,     _version, source_lookup_id, target_lookup_id)
-                                         values(newid(), 1,        @sourceId,        @targetId)""",
-                 new QueryParams()
-                     .add("sourceId", lookupId)
-                     .add("targetId", link.id()));
-//                     .add("targetId", loadLookup(link.target().name()).id()));
+    invalidateLookup(inTransaction(con -> writeLookupLink(con, lookupId, link)));
+  }
+
+  /**
+   * Links the lookup to another on the connection, in its transaction; the
+   * lookup is invalidated in the cache when the transaction is committed with
+   * {@link #commit(EsqlConnection)}.
+   */
+  public void saveLookupLink(EsqlConnection con, UUID lookupId, Lookup link) {
+    try {
+      saved(con, writeLookupLink(con, lookupId, link));
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the link of the lookup and returns the name of the lookup.
+   */
+  private String writeLookupLink(EsqlConnection con, UUID lookupId, Lookup link) throws SQLException {
+    UUID linkId = null;
+    try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LINK_ID, lookupId, link.id())) {
+      if (rs.next()) {
+        linkId = rs.uuid(1);
       }
     }
+    if (linkId != null) {
+      statements.update(con, LookupStatements.UPDATE_LINK, link.id(), linkId);
+    } else {
+      statements.update(con, LookupStatements.INSERT_LINK, UUID.randomUUID(), lookupId, link.id());
+    }
+    return changed(con, lookupId);
   }
 
+  /**
+   * Creates or updates the value of the lookup, with its links, in a
+   * transaction of its own, and invalidates the lookup in the cache once
+   * committed. Links to values saved in another transaction which is not
+   * committed yet are not found.
+   */
   public void saveLookupValue(UUID lookupId, LookupValue value) {
-    try (EsqlConnection con = db.esql();
-         Result rs = con.exec("""
-                              select lv._id
-                                from lv:_lookup.LookupValue
-                               where lv.lookup_id=@lookupId
-                                 and lv.code=@code
-                              """,
-                              new QueryParams()
-                                 .add("lookupId", lookupId)
-                                 .add("code",     value.code()))) {
-
-      UUID valueId;
-      if (rs.toNext()) {
-        valueId = rs.value(1);
-        con.exec("""
-                 update lv
-                   from lv:_lookup.LookupValue
-                    set _version   =2,
-                        alt_code1  =@altCode1,
-                        alt_code2  =@altCode2,
-                        label      =@label,
-                        description=@description,
-                        lang       =@lang
-                  where _id=@valueId""",
-                 new QueryParams()
-                     .add("valueId",     valueId)
-                     .add("altCode1",    value.altCode1())
-                     .add("altCode2",    value.altCode2())
-                     .add("label",       value.label())
-                     .add("description", value.description())
-                     .add("lang",        value.lang() == null ? "en" : value.lang()));
-        /*
-         * Delete existing value links; new links, if any, will be inserted below.
-         */
-        con.exec("""
-                 delete ln
-                   from ln:_lookup.LookupValueLink
-                  where source_value_id=@valueId""",
-                 new QueryParams().add( "valueId", valueId));
-      } else {
-        valueId = UUID.randomUUID();
-        con.exec("""
-                 insert into _lookup.LookupValue(_id,      _version, lookup_id,  code, alt_code1, alt_code2,  label,  description,  lang)
-                                          values(@valueId, 1,        @lookupId, @code, @altCode1, @altCode2, @label, @description, @lang)""",
-                 new QueryParams()
-                     .add("valueId",     valueId)
-                     .add("lookupId",    lookupId)
-                     .add("code",        value.code())
-                     .add("altCode1",    value.altCode1())
-                     .add("altCode2",    value.altCode2())
-                     .add("label",       value.label())
-                     .add("description", value.description())
-                     .add("lang",        value.lang() == null ? "en" : value.lang()));
+    invalidateLookup(inTransaction(con -> writeLookupValue(con, lookupId, value)));
+  }
+
+  /**
+   * Creates or updates the value of the lookup, with its links, on the
+   * connection, in its transaction. Links to values saved earlier in the
+   * same transaction are found. The lookup is invalidated in the cache when
+   * the transaction is committed with {@link #commit(EsqlConnection)}.
+   */
+  public void saveLookupValue(EsqlConnection con, UUID lookupId, LookupValue value) {
+    try {
+      saved(con, writeLookupValue(con, lookupId, value));
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes the value of the lookup and returns the name of the lookup.
+   */
+  private String writeLookupValue(EsqlConnection con, UUID lookupId, LookupValue value) throws SQLException {
+    UUID valueId = null;
+    try (LookupStatements.Rows rs = statements.query(con, LookupStatements.VALUE_ID, lookupId, value.code())) {
+      if (rs.next()) {
+        valueId = rs.uuid(1);
       }
+    }
+    String lang = value.lang() == null ? "en" : value.lang();
+    if (valueId != null) {
+      statements.update(con, LookupStatements.UPDATE_VALUE,
+                        value.altCode1(),
+                        value.altCode2(),
+                        value.label(),
+                        value.description(),
+                        lang,
+                        valueId);
       /*
-       * Insert value links
+       * Delete existing value links; new links, if any, will be inserted below.
        */
-      if (value.links() != null) {
-        for (LookupValueLink link: value.links()) {
-          con.exec("""
-                     insert into _lookup.LookupValueLink(_id,     _version, name,  source_value_id, target_value_id)
-                                                  values(newid(), 1,        @name, @sourceId,       @targetId)""",
-                   new QueryParams()
-                       .add("name",     link.name())
-                       .add("sourceId", valueId)
-                       .add("targetId", loadLookupValue(link.target().lookup(), link.target().code()).id()));
-        }
+      statements.update(con, LookupStatements.DELETE_VALUE_LINKS, valueId);
+    } else {
+      valueId = UUID.randomUUID();
+      statements.update(con, LookupStatements.INSERT_VALUE,
+                        valueId,
+                        lookupId,
+                        value.code(),
+                        value.altCode1(),
+                        value.altCode2(),
+                        value.label(),
+                        value.description(),
+                        lang);
+    }
+    /*
+     * Insert value links
+     */
+    if (value.links() != null) {
+      for (LookupValueLink link: value.links()) {
+        statements.update(con, LookupStatements.INSERT_VALUE_LINK,
+                          UUID.randomUUID(),
+                          link.name(),
+                          valueId,
+                          linkTarget(con, link.target().lookup(), link.target().code()));
+      }
+    }
+    if (valuePathDepth > 0) {
+      ValuePaths.refreshValue(con.con(), db.target() == POSTGRESQL, valuePathDepth, valueId);
+    }
+    return changed(con, lookupId);
+  }
+
+  /**
+   * Increments the version of the lookup, so that other nodes caching it
+   * reload it when they next synchronise their caches, and returns its name.
+   */
+  private String changed(EsqlConnection con, UUID lookupId) throws SQLException {
+    statements.update(con, LookupStatements.INCREMENT_VERSION, lookupId);
+    return lookupName(con, lookupId);
+  }
+
+  /**
+   * The name of the lookup with the id.
+   */
+  private String lookupName(EsqlConnection con, UUID lookupId) throws SQLException {
+    try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LOOKUP_NAME, lookupId)) {
+      if (!rs.next()) {
+        throw new NotFoundException("Lookup with id " + lookupId + " not found.");
       }
+      return rs.string(1);
     }
   }
 
-  private Map<String, Lookup> lookupsCache = null;
+  /**
+   * Finds the id of the value of the named lookup with the code, on the
+   * connection so that values saved earlier in its transaction are found.
+   */
+  private UUID linkTarget(EsqlConnection con, String lookup, String code) throws SQLException {
+    try (LookupStatements.Rows rs = statements.query(con, LookupStatements.LINK_TARGET_ID, lookup, code)) {
+      if (!rs.next()) {
+        throw new NotFoundException("code='" + code + "' not found in lookup " + lookup);
+      }
+      return rs.uuid(1);
+    }
+  }
+
+  /**
+   * Returns the value of the configuration parameter, or the default value if
+   * the parameter is not set.
+   */
+  static <T> T config(Configuration config, String name, T defaultValue) {
+    Object value = config == null ? null : config.get(name);
+    return value == null ? defaultValue : (T)value;
+  }
+
+  /**
+   * Maximum number of codes whose labels are resolved with a single query by
+   * {@link #resolveLabels} on databases without array parameters, keeping
+   * within the limit on the number of parameters of a statement.
+   */
+  static final int RESOLVE_CHUNK_SIZE = 2000;
+
+  /**
+   * Maximum total number of lookup values to keep in the cache. Unlimited if
+   * not set or 0.
+   */
+  public static final String CONFIG_CACHE_MAX_ENTRIES = "cache.max_entries";
+
+  /**
+   * Maximum estimated memory, in bytes, to be used by the cached lookups.
+   * Unlimited if not set or 0.
+   */
+  public static final String CONFIG_CACHE_MAX_BYTES = "cache.max_bytes";
+
+  /**
+   * The policy used to evict lookups when the cache is over its limits: 'lru'
+   * (default) or 'tinylfu'.
+   */
+  public static final String CONFIG_CACHE_EVICTION = "cache.eviction";
+
+  /**
+   * Names of lookups which are never evicted from the cache, as a list or a
+   * comma-separated string.
+   */
+  public static final String CONFIG_CACHE_PINNED = "cache.pinned";
+
+  /**
+   * Interval, in milliseconds, at which the cache is synchronised with the
+   * database on access, invalidating lookups changed by other nodes (see
+   * {@link #synchroniseLookups()}). The cache is not synchronised automatically
+   * if not set or 0.
+   */
+  public static final String CONFIG_CACHE_POLL_INTERVAL = "cache.poll_interval";
+
+  /**
+   * Number of values written to the database per batch when saving lookups.
+   * Defaults to 5000.
+   */
+  public static final String CONFIG_SAVE_BATCH_SIZE = "save.batch_size";
+
+  /**
+   * How <code>lookuplabel</code> is expanded when not specified in the call:
+   * 'subquery' (the default) for a scalar subquery per row, 'join' for left
+   * joins added to the enclosing select, or 'client' for labels resolved from
+   * the lookups cache when the result is read through {@link #withLabels}.
+   */
+  public static final String CONFIG_LOOKUPLABEL_EXPANSION = "lookuplabel.expansion";
+
+  /**
+   * Maximum number of links of the value paths materialised in
+   * <code>_lookup.LookupValuePath</code>, used to find labels through 2 or
+   * more links with a single search. Value paths are not materialised if not
+   * set or 0 (the default).
+   */
+  public static final String CONFIG_VALUE_PATHS_MAX_DEPTH = "value_paths.max_depth";
+
+  /**
+   * Lookups loaded or being loaded.
+   */
+  private LookupCache cache = new LookupCache(LookupCache.Policy.UNBOUNDED);
+
+  private final Object preloadLock = new Object();
+
+  /**
+   * Interval between automatic synchronisations of the cache, in nanoseconds,
+   * and the time of the last synchronisation.
+   */
+  private long pollInterval;
+  private final AtomicLong lastPoll = new AtomicLong();
+
+  private int saveBatchSize = 5000;
+
+  /**
+   * Ids of lookups read by {@link #lookupId(String)} for lookups not loaded.
+   */
+  private final Map<String, UUID> lookupIds = new ConcurrentHashMap<>();
+
+  /**
+   * Names of the lookups saved on connections, in their transactions, to
+   * invalidate when these are committed. Connections are weakly held so that
+   * those not committed through {@link #commit(EsqlConnection)} are dropped.
+   */
+  private final Map<EsqlConnection, Set<String>> savedOn = Collections.synchronizedMap(new WeakHashMap<>());
+
+  /**
+   * Maximum number of links supported by the scalar lookup label functions on
+   * SQL Server (<code>_lookup.lookup_label0</code> to <code>lookup_label5</code>);
+   * label table functions are created on demand for more links.
+   */
+  static final int MAX_SQLSERVER_LINKS = 5;
+
+  /**
+   * Labels resolved on the client, by the number in their marker, and the
+   * reverse mapping.
+   */
+  private final List<ClientLabel> clientLabels = new CopyOnWriteArrayList<>();
+  private final Map<ClientLabel, Integer> clientLabelIds = new ConcurrentHashMap<>();
+
+  /**
+   * Default minimum similarity of labels to texts classified, as the default
+   * similarity threshold of the PostgreSQL <code>pg_trgm</code> extension.
+   */
+  public static final double CLASSIFY_THRESHOLD = 0.3;
+
+  /**
+   * Delimits the number of a client label at the start of the codes selected
+   * by lookuplabel for client-side resolution.
+   */
+  static final String CLIENT_LABEL_MARKER = "\u0001";
+
+  /**
+   * Names of the SQL Server label table functions created.
+   */
+  private final Set<String> sqlServerLabelTables = ConcurrentHashMap.newKeySet();
+
+  private LookupLabel.Expansion lookupLabelExpansion = LookupLabel.Expansion.subquery;
+
+  /**
+   * The lookuplabel macro registered by this extension, whose cached
+   * expansions are dropped when lookups change.
+   */
+  private LookupLabel lookupLabel;
+
+  private int valuePathDepth;
 
   private Database db;
 
+  /**
+   * The statements reading and saving lookups one at a time.
+   */
+  private LookupStatements statements;
+
   private static final System.Logger log = System.getLogger(LookupExtension.class.getName());
 }
\ No newline at end of file
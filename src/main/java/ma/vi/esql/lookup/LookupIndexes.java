@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * <p>
+ * Creates the composite indexes matching the searches made by the generated
+ * lookup queries on PostgreSQL and SQL Server: values are found by lookup and
+ * code (or alternative code) and links by source value and name, and the
+ * indexes include the columns read by those searches so that each hop is
+ * answered from the index alone, without reading the table.
+ * </p>
+ *
+ * <p>
+ * The indexes are created with plain SQL as ESQL indexes cannot include
+ * columns nor be filtered, and only if they do not exist so that this can run
+ * on every start. Single-column indexes created by earlier versions on the
+ * leading column of one of these indexes are redundant and are dropped.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class LookupIndexes {
+  private LookupIndexes() {}
+
+  /**
+   * Creates the missing indexes and drops the redundant ones.
+   *
+   * @param con        The connection to create the indexes on; committed by
+   *                   the caller.
+   * @param postgresql True for PostgreSQL, false for SQL Server.
+   * @param valuePaths Whether the value paths table exists and should be
+   *                   indexed.
+   */
+  static void create(Connection con,
+                     boolean    postgresql,
+                     boolean    valuePaths) throws SQLException {
+    try (Statement st = con.createStatement()) {
+      for (Index index: INDEXES) {
+        st.executeUpdate(index.create(postgresql));
+      }
+      if (valuePaths) {
+        st.executeUpdate(VALUE_PATH_INDEX.create(postgresql));
+      }
+      for (Index index: REDUNDANT) {
+        st.executeUpdate(index.drop(postgresql));
+      }
+    }
+  }
+
+  /**
+   * Creates the <code>pg_trgm</code> extension, if not installed, and GIN
+   * trigram indexes on the labels and codes of lookup values. The label index
+   * is used by <code>classify</code> on PostgreSQL to find similar labels
+   * (with the <code>%</code> operator) and both by the <code>keywords</code>
+   * search of <code>lookuplabel</code>, as <code>pg_trgm</code> indexes also
+   * serve <code>ilike '%keyword%'</code>, without scanning all values of the
+   * lookup.
+   */
+  static void createTrigramIndex(Connection con) throws SQLException {
+    try (Statement st = con.createStatement()) {
+      st.executeUpdate("create extension if not exists pg_trgm");
+      st.executeUpdate("create index if not exists value_label_trgm "
+                     + "on _lookup.\"LookupValue\" using gin (label gin_trgm_ops)");
+      st.executeUpdate("create index if not exists value_code_trgm "
+                     + "on _lookup.\"LookupValue\" using gin (code gin_trgm_ops)");
+    }
+  }
+
+  /**
+   * An index on a table of the lookup schema.
+   *
+   * @param name    The name of the index.
+   * @param table   The table indexed.
+   * @param columns The key columns of the index.
+   * @param include The columns included in the index, or null.
+   * @param filter  The condition on the rows indexed, or null to index all
+   *                rows.
+   */
+  record Index(String name, String table, String columns, String include, String filter) {
+    String create(boolean postgresql) {
+      String create = "create index " + (postgresql ? "if not exists " : "") + name
+                    + " on _lookup.\"" + table + "\"(" + columns + ")"
+                    + (include == null ? "" : " include (" + include + ")")
+                    + (filter  == null ? "" : " where " + filter);
+      return postgresql ? create : "if " + exists() + " is null " + create;
+    }
+
+    String drop(boolean postgresql) {
+      return postgresql
+           ? "drop index if exists _lookup." + name
+           : "if " + exists() + " is not null drop index " + name + " on _lookup.\"" + table + '"';
+    }
+
+    /**
+     * SQL Server expression which is null when the index or its table does
+     * not exist.
+     */
+    private String exists() {
+      return "indexproperty(object_id('_lookup." + table + "'), '" + name + "', 'IndexId')";
+    }
+  }
+
+  /**
+   * Indexes for finding values by lookup and code or alternative codes, and
+   * the targets of the links of a value by link name.
+   */
+  static final List<Index> INDEXES = List.of(
+      new Index("value_lookup_code",      "LookupValue",     "lookup_id, code",        "label, alt_code1, alt_code2", null),
+      new Index("value_lookup_alt_code1", "LookupValue",     "lookup_id, alt_code1",   "code, label", "alt_code1 is not null"),
+      new Index("value_lookup_alt_code2", "LookupValue",     "lookup_id, alt_code2",   "code, label", "alt_code2 is not null"),
+      new Index("link_source_name",       "LookupValueLink", "source_value_id, name",  "target_value_id", null));
+
+  /**
+   * Index for finding the value at the end of a path from a value.
+   */
+  static final Index VALUE_PATH_INDEX =
+      new Index("value_path_source_path", "LookupValuePath", "source_value_id, path", "target_value_id", null);
+
+  /**
+   * Indexes of earlier versions on the leading column of one of the indexes
+   * above.
+   */
+  static final List<Index> REDUNDANT = List.of(
+      new Index("value_lookup",      "LookupValue",     "lookup_id",       null, null),
+      new Index("link_source",       "LookupValueLink", "source_value_id", null, null),
+      new Index("value_path_source", "LookupValuePath", "source_value_id", null, null));
+}
@@ -14,9 +14,11 @@ import ma.vi.esql.semantic.type.Types;
 import ma.vi.esql.syntax.Context;
 import ma.vi.esql.syntax.Esql;
 import ma.vi.esql.syntax.EsqlPath;
+import ma.vi.esql.syntax.Parser;
 import ma.vi.esql.syntax.define.Define;
 import ma.vi.esql.syntax.expression.*;
 import ma.vi.esql.syntax.expression.comparison.Equality;
+import ma.vi.esql.syntax.expression.comparison.GreaterThan;
 import ma.vi.esql.syntax.expression.comparison.ILike;
 import ma.vi.esql.syntax.expression.literal.BaseArrayLiteral;
 import ma.vi.esql.syntax.expression.literal.NullLiteral;
@@ -24,8 +26,10 @@ import ma.vi.esql.syntax.expression.literal.StringLiteral;
 import ma.vi.esql.syntax.expression.logical.And;
 import ma.vi.esql.syntax.expression.logical.Or;
 import ma.vi.esql.syntax.macro.TypedMacro;
+import ma.vi.esql.syntax.query.Column;
 import ma.vi.esql.syntax.query.JoinTableExpr;
 import ma.vi.esql.syntax.query.QueryUpdate;
+import ma.vi.esql.syntax.query.Select;
 import ma.vi.esql.syntax.query.SingleTableExpr;
 import ma.vi.esql.syntax.query.TableExpr;
 import ma.vi.esql.translation.TranslationException;
@@ -34,6 +38,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
@@ -86,6 +92,34 @@ import static ma.vi.esql.translation.Translatable.Target.ESQL;
  * <li><b>labels_limit:</b> The number labels to return. Applies only when the
  *                          code searched is null; can be used to lazily load
  *                          labels in pages.</li>
+ * <li><b>labels_after:</b> The code after which to start returning labels, in
+ *                          code order; applies only when the code searched is
+ *                          null. Pass the last code of a page to load the next
+ *                          one: unlike labels_offset, which must skip all the
+ *                          values before the page, this seeks directly to the
+ *                          page through the index on lookup and code, so that
+ *                          every page takes the same time to load however deep
+ *                          it is. <code>labels_after=null</code> loads the first
+ *                          page.</li>
+ * <li><b>expansion:</b> how the label is looked up: 'subquery' for a scalar
+ *                       subquery evaluated for each row, or 'join' to add the
+ *                       lookup tables as left joins to the enclosing select,
+ *                       so that the database can join them once with the rest
+ *                       of the query. Defaults to the expansion set in the
+ *                       extension configuration (see
+ *                       {@link LookupExtension#CONFIG_LOOKUPLABEL_EXPANSION}),
+ *                       or 'subquery'. Join expansion applies only to a single
+ *                       code (not null or an array) in a select; other uses
+ *                       are expanded to a subquery. 'client' selects the
+ *                       code with a marker instead, and the label is resolved
+ *                       from the lookups cache when the result is read through
+ *                       {@link LookupExtension#withLabels}, so that the
+ *                       database does not search the lookup tables at all.
+ *                       Client expansion applies only to a column of a select
+ *                       with a single code, a lookup named by a constant and
+ *                       constant separators; lookuplabel must be the whole
+ *                       expression of the column for its marker to reach the
+ *                       result.</li>
  * </ul>
  *
  * @author Vikash Madhow (vikash.madhow@gmail.com)
@@ -95,7 +129,49 @@ public class LookupLabel extends Function implements TypedMacro {
    * Creates the lookuplabel macro function.
    */
   public LookupLabel() {
+    this(null, Expansion.subquery);
+  }
+
+  /**
+   * Creates the lookuplabel macro function, expanding to the specified form
+   * unless overridden by the <code>expansion</code> named argument.
+   */
+  public LookupLabel(Expansion expansion) {
+    this(null, expansion);
+  }
+
+  /**
+   * Creates the lookuplabel macro function using the lookup extension to find
+   * the ids of lookups named by constants, which are then inlined in the
+   * expansion instead of joining to the Lookup table by name.
+   */
+  public LookupLabel(LookupExtension extension, Expansion expansion) {
     super("lookuplabel", Types.StringType, emptyList());
+    this.extension = extension;
+    this.expansion = expansion;
+  }
+
+  /**
+   * The forms to which lookuplabel can be expanded.
+   */
+  public enum Expansion {
+    /**
+     * A scalar subquery finding the label, evaluated for each row.
+     */
+    subquery,
+
+    /**
+     * Left joins to the lookup tables added to the enclosing select, with the
+     * label computed from the joined values.
+     */
+    join,
+
+    /**
+     * The code itself, with a marker from which the label is resolved from
+     * the lookups cache when the result is read through
+     * {@link LookupExtension#withLabels}.
+     */
+    client
   }
 
   @Override
@@ -109,6 +185,48 @@ public class LookupLabel extends Function implements TypedMacro {
       return esql;
     }
     FunctionCall call = (FunctionCall)esql;
+    QueryUpdate qu = path.ancestor(QueryUpdate.class);
+    Set<String> aliases = qu != null && qu.tables().exists(path)
+                        ? new HashSet<>(qu.tables().computeType(path.add(qu)).aliases())
+                        : new HashSet<>();
+    if (expansion(call.arguments(), path) == Expansion.join) {
+      /*
+       * Join expansion adds the lookup tables to the enclosing select, which
+       * is not part of the expansion returned, and so cannot be cached.
+       */
+      return expand(call, path, qu, aliases);
+    }
+
+    /*
+     * The expansion depends on the call, on the aliases already used in the
+     * query, on whether the code is an array and, for client expansion, on
+     * whether the call is a column of a select.
+     */
+    String key = ExpansionCache.key(call, aliases,
+                                    codeIsArray(call.arguments()),
+                                    qu instanceof Select,
+                                    path.hasAncestor(Column.class));
+    Esql<?, ?> expanded = expansions.get(key);
+    if (expanded == null) {
+      long generation = expansions.generation();
+      expanded = expand(call, path, qu, aliases);
+      expansions.put(key, expanded, generation);
+    }
+    return expanded;
+  }
+
+  /**
+   * Drops the cached expansions of lookuplabel, which inline the ids of the
+   * lookups named by constants; called when lookups change.
+   */
+  void invalidateExpansions() {
+    expansions.clear();
+  }
+
+  private Esql<?, ?> expand(FunctionCall call,
+                            EsqlPath     path,
+                            QueryUpdate  qu,
+                            Set<String>  aliases) {
     Context ctx = call.context;
     List<Expression<?, ?>> arguments = call.arguments();
 
@@ -137,6 +255,8 @@ public class LookupLabel extends Function implements TypedMacro {
     String           keywords        = null;                             // Keywords that will be used to limit the loaded labels.
     Expression<?, ?> offset          = null;                             // Offset labels loading by this number.
     Expression<?, ?> limit           = null;                             // Limit labels to load to this number.
+    Expression<?, ?> after           = null;                             // Load labels of codes after this one (keyset pagination).
+    Expansion        expansion       = this.expansion;                   // Expand to a subquery or to joins.
 
     for (Expression<?, ?> arg: arguments) {
       if (arg instanceof NamedArgument namedArg) {
@@ -153,6 +273,8 @@ public class LookupLabel extends Function implements TypedMacro {
           case "keywords"         -> keywords        = getStringParam(namedArg, "keywords", path);
           case "labels_offset"    -> offset          = namedArg.arg();
           case "labels_limit"     -> limit           = namedArg.arg();
+          case "labels_after"     -> after           = namedArg.arg();
+          case "expansion"        -> expansion       = getExpansionParam(namedArg, path);
           default                 -> throw new TranslationException("""
                                                                     Invalid named argument in lookuplabel: %1s
                                                                     lookuplabel recognises the following named arguments:
@@ -168,6 +290,8 @@ public class LookupLabel extends Function implements TypedMacro {
                                                                     keywords: keywords that will be used to limit the loaded labels.
                                                                     labels_offset: offset labels loading by this number.
                                                                     labels_limit: limit labels to load to this number.
+                                                                    labels_after: load labels of the codes after this one, in code order.
+                                                                    expansion: 'subquery', 'join' or 'client' to look up the label with a subquery, with joins added to the enclosing select or from the lookups cache when the result is read.
                                                                     """.formatted(namedArg.name()));
         }
       } else if (code == null) {
@@ -185,8 +309,7 @@ public class LookupLabel extends Function implements TypedMacro {
       throw new TranslationException("The name of the lookup table containing the label for the code has not been provided");
     }
 
-    boolean codeIsArray = code instanceof ColumnRef ref && ref.type() instanceof ArrayType
-                       || code instanceof BaseArrayLiteral;
+    boolean codeIsArray = codeIsArray(arguments);
 
     /*
      * lookup table:
@@ -205,10 +328,6 @@ public class LookupLabel extends Function implements TypedMacro {
      *        join Lookup l on v0.lookup_id=l.id and l.name=X
      *       where v0.code='123'
      */
-    QueryUpdate qu = path.ancestor(QueryUpdate.class);
-    Set<String> aliases = qu != null && qu.tables().exists(path)
-                        ? new HashSet<>(qu.tables().computeType(path.add(qu)).aliases())
-                        : new HashSet<>();
     int aliasIndex = 1;
     T2<String, Integer> uniqueName = makeUnique("value", aliases, aliasIndex, false);
     String fromValueAlias = uniqueName.a;
@@ -219,24 +338,68 @@ public class LookupLabel extends Function implements TypedMacro {
     String lookupAlias = uniqueName.a;
     aliasIndex = uniqueName.b;
 
+    /*
+     * When the lookup is named by a constant, its id is inlined and values are
+     * filtered on it directly, removing the join to Lookup by name.
+     */
+    Expression<?, ?> lookupId = lookupId(lookup, path);
+
+    if (expansion == Expansion.client
+     && lookupId != null
+     && codeSeparator instanceof StringLiteral
+     && labelSeparator instanceof StringLiteral
+     && !(code instanceof NullLiteral)
+     && !codeIsArray
+     && qu instanceof Select
+     && path.hasAncestor(Column.class)) {
+      return clientExpansion(ctx, code, lookup, links, matchBy, path,
+                             showCode, showLabel, showDescription, codeSeparator,
+                             showLastOnly, labelSeparator, lastToFirst);
+    }
+
+    if (expansion == Expansion.join
+     && !(code instanceof NullLiteral)
+     && !codeIsArray
+     && qu instanceof Select select
+     && select.tables() != null) {
+      return joinExpansion(ctx, select, code, lookup, lookupId, links, aliases, aliasIndex,
+                           fromValueAlias, lookupAlias, matchBy,
+                           showCode, showLabel, showDescription, codeSeparator,
+                           showLastOnly, labelSeparator, lastToFirst);
+    }
+
     Expression<?, String> value = label(ctx, showCode, showLabel, showDescription,
                                         matchBy, fromValueAlias, codeSeparator);
 
     /*
      * from LookupValue v0
      * join Lookup l on v0.lookup_id=l._id and l.name=X
+     *
+     * or, when the lookup id is known:
+     *
+     * from LookupValue v0 (filtered on v0.lookup_id=<id>)
      */
-    TableExpr from = new JoinTableExpr(ctx, null, false,
-                                       new SingleTableExpr(ctx, "_lookup.LookupValue", fromValueAlias),
-                                       new SingleTableExpr(ctx, "_lookup.Lookup", lookupAlias),
-                                       new And(ctx,
-                                               new Equality(ctx,
-                                                            new ColumnRef(ctx, fromValueAlias, "lookup_id"),
-                                                            new ColumnRef(ctx, lookupAlias, "_id")),
-                                               new Equality(ctx,
-                                                            new ColumnRef(ctx, lookupAlias, "name"),
-                                                            lookup)));
-    for (String linkName: links) {
+    TableExpr from = new SingleTableExpr(ctx, "_lookup.LookupValue", fromValueAlias);
+    Expression<?, String> lookupFilter = null;
+    if (lookupId != null) {
+      lookupFilter = new Equality(ctx,
+                                  new ColumnRef(ctx, fromValueAlias, "lookup_id"),
+                                  lookupId);
+    } else {
+      from = new JoinTableExpr(ctx, null, false, from,
+                               new SingleTableExpr(ctx, "_lookup.Lookup", lookupAlias),
+                               new And(ctx,
+                                       new Equality(ctx,
+                                                    new ColumnRef(ctx, fromValueAlias, "lookup_id"),
+                                                    new ColumnRef(ctx, lookupAlias, "_id")),
+                                       new Equality(ctx,
+                                                    new ColumnRef(ctx, lookupAlias, "name"),
+                                                    lookup)));
+    }
+    List<String> hops = hops(links, showLastOnly);
+    String hopTable = hops == links ? "_lookup.LookupValueLink" : "_lookup.LookupValuePath";
+    String hopName  = hops == links ? "name" : "path";
+    for (String hop: hops) {
       uniqueName = makeUnique("value", aliases, aliasIndex, false);
       String toValueAlias = uniqueName.a;
       aliasIndex = uniqueName.b;
@@ -249,16 +412,21 @@ public class LookupLabel extends Function implements TypedMacro {
        * from ...
        * join LookupValueLink lk1 on lk1.source_value_id=v0._id and lk1.name=link_name
        * join LookupValue      v1 on lk1.target_value_id=v1._id
+       *
+       * or, following all links at once through the materialised value paths:
+       *
+       * join LookupValuePath  p1 on p1.source_value_id=v0._id and p1.path='Y/Z'
+       * join LookupValue      v1 on p1.target_value_id=v1._id
        */
       from = new JoinTableExpr(ctx, null, false, from,
-                               new SingleTableExpr(ctx, "_lookup.LookupValueLink", toLinkAlias),
+                               new SingleTableExpr(ctx, hopTable, toLinkAlias),
                                new And(ctx,
                                        new Equality(ctx,
                                                     new ColumnRef(ctx, toLinkAlias, "source_value_id"),
                                                     new ColumnRef(ctx, fromValueAlias, "_id")),
                                        new Equality(ctx,
-                                                    new ColumnRef(ctx, toLinkAlias, "name"),
-                                                    new StringLiteral(ctx, linkName))));
+                                                    new ColumnRef(ctx, toLinkAlias, hopName),
+                                                    new StringLiteral(ctx, hop))));
       from = new JoinTableExpr(ctx, null, false, from,
                                new SingleTableExpr(ctx, "_lookup.LookupValue", toValueAlias),
                                new Equality(ctx,
@@ -279,11 +447,40 @@ public class LookupLabel extends Function implements TypedMacro {
                                                         firstFromValueAlias, false);
         builder.where(where);
       }
+      if (lookupFilter != null) {
+        builder.and(lookupFilter);
+      }
       if (keywords != null && !keywords.trim().isEmpty()) {
         StringLiteral match = new StringLiteral(ctx, "%" + String.join("%", keywords.split("\\W+")) + "%");
         builder.and(new Or(ctx,
                            new ILike(ctx, false, new ColumnRef(ctx, firstFromValueAlias, matchBy), match),
                            new ILike(ctx, false, value, match)));
+        if (links.isEmpty()
+         && !showDescription
+         && !keywords.contains("_")
+         && codeSeparator instanceof StringLiteral sep
+         && WORD_SEPARATOR.matcher((String)sep.exec(ESQL, null, path, ctx.structure)).matches()) {
+          /*
+           * The label is only made of the code and label of the value, joined
+           * by a separator which keywords cannot span as it is not empty and
+           * has no word character, so each keyword must be in either. This is
+           * implied by the condition above but, unlike it, can be answered
+           * from the trigram indexes on code and label on PostgreSQL instead
+           * of scanning the lookup. This is not done for keywords with '_',
+           * which matches any character, including those of the separator.
+           */
+          for (String word: keywords.split("\\W+")) {
+            if (!word.isEmpty()) {
+              StringLiteral wordMatch = new StringLiteral(ctx, "%" + word + "%");
+              builder.and(new Or(ctx,
+                                 new ILike(ctx, false, new ColumnRef(ctx, firstFromValueAlias, matchBy), wordMatch),
+                                 new ILike(ctx, false, new ColumnRef(ctx, firstFromValueAlias, "label"), wordMatch)));
+            }
+          }
+        }
+      }
+      if (after != null && !(after instanceof NullLiteral)) {
+        builder.and(new GreaterThan(ctx, new ColumnRef(ctx, firstFromValueAlias, matchBy), after));
       }
       if (offset != null) {
         builder.offset((Expression<?, String>)offset);
@@ -304,21 +501,248 @@ public class LookupLabel extends Function implements TypedMacro {
                                   new SelectBuilder(ctx)
                                        .column(value, "label")
                                        .from  (from)
-                                       .where (new FunctionCall(ctx, "inarray",
-                                                                List.of(new ColumnRef(ctx, firstFromValueAlias, matchBy), code)))
+                                       .where (withFilter(ctx, lookupFilter,
+                                                          new FunctionCall(ctx, "inarray",
+                                                                           List.of(new ColumnRef(ctx, firstFromValueAlias, matchBy), code))))
                                        .build ());
     } else {
       return new SelectExpression(ctx,
                                   new SelectBuilder(ctx)
                                        .column(value, "label")
                                        .from  (from)
-                                       .where (new Equality(ctx,
-                                                            new ColumnRef(ctx, firstFromValueAlias, matchBy),
-                                                            code))
+                                       .where (withFilter(ctx, lookupFilter,
+                                                          new Equality(ctx,
+                                                                       new ColumnRef(ctx, firstFromValueAlias, matchBy),
+                                                                       code)))
                                        .build ());
     }
   }
 
+  /**
+   * Expands lookuplabel to the code prefixed with a marker identifying the
+   * lookup, links and format of the label, which is then resolved from the
+   * lookups cache when the value is read through
+   * {@link LookupExtension#withLabels}, without the database searching the
+   * lookup tables.
+   */
+  private Expression<?, ?> clientExpansion(Context          ctx,
+                                           Expression<?, ?> code,
+                                           Expression<?, ?> lookup,
+                                           List<String>     links,
+                                           String           matchBy,
+                                           EsqlPath         path,
+                                           boolean          showCode,
+                                           boolean          showLabel,
+                                           boolean          showDescription,
+                                           Expression<?, ?> codeSeparator,
+                                           boolean          showLastOnly,
+                                           Expression<?, ?> labelSeparator,
+                                           boolean          lastToFirst) {
+    LabelFormat format = new LabelFormat(showCode, showLabel, showDescription,
+                                         (String)codeSeparator.exec(ESQL, null, path, ctx.structure),
+                                         showLastOnly,
+                                         (String)labelSeparator.exec(ESQL, null, path, ctx.structure),
+                                         lastToFirst);
+    String marker = extension.clientLabelMarker((String)lookup.exec(ESQL, null, path, ctx.structure),
+                                                links,
+                                                switch (matchBy) {
+                                                  case "alt_code1" -> Lookup.MatchBy.altCode1;
+                                                  case "alt_code2" -> Lookup.MatchBy.altCode2;
+                                                  default          -> Lookup.MatchBy.code;
+                                                },
+                                                format);
+    return new Concatenation(ctx, asList(new StringLiteral(ctx, marker), code));
+  }
+
+  /**
+   * <p>
+   * Expands lookuplabel to a reference to the label of the value joined to
+   * the enclosing select. The lookup tables are added to the tables of the
+   * select as left joins, so that rows without a matching value are kept
+   * with a null label, as with the subquery expansion:
+   * </p>
+   *
+   * <pre>
+   *   select lookuplabel(t.code, X, Y) from T t
+   * </pre>
+   *
+   * <p>
+   * is transformed to (pseudo-code):
+   * </p>
+   *
+   * <pre>
+   *   select v1.label
+   *     from T t
+   *     left join Lookup          l  on l.name=X
+   *     left join LookupValue     v0 on v0.lookup_id=l._id and v0.code=t.code
+   *     left join LookupValueLink k1 on k1.source_value_id=v0._id and k1.name=Y
+   *     left join LookupValue     v1 on v1._id=k1.target_value_id
+   * </pre>
+   *
+   * <p>
+   * The database can then resolve the labels of all rows with a single join
+   * instead of evaluating a subquery per row. Like the subquery, which fails
+   * when it returns more than one row, the joins expect the code to match a
+   * single value of the lookup and each link to have a single target. When the
+   * id of the lookup is known, the join to Lookup is left out and values are
+   * joined on that id instead.
+   * </p>
+   */
+  private Expression<?, String> joinExpansion(Context          ctx,
+                                              Select           select,
+                                              Expression<?, ?> code,
+                                              Expression<?, ?> lookup,
+                                              Expression<?, ?> lookupId,
+                                              List<String>     links,
+                                              Set<String>      aliases,
+                                              int              aliasIndex,
+                                              String           valueAlias,
+                                              String           lookupAlias,
+                                              String           matchBy,
+                                              boolean          showCode,
+                                              boolean          showLabel,
+                                              boolean          showDescription,
+                                              Expression<?, ?> codeSeparator,
+                                              boolean          showLastOnly,
+                                              Expression<?, ?> labelSeparator,
+                                              boolean          lastToFirst) {
+    /*
+     * left join Lookup l on l.name=X
+     * left join LookupValue v0 on v0.lookup_id=l._id and v0.code=code
+     */
+    TableExpr tables = select.tables();
+    if (lookupId == null) {
+      tables = new JoinTableExpr(ctx, "left", false, tables,
+                                 new SingleTableExpr(ctx, "_lookup.Lookup", lookupAlias),
+                                 new Equality(ctx,
+                                              new ColumnRef(ctx, lookupAlias, "name"),
+                                              lookup));
+      lookupId = new ColumnRef(ctx, lookupAlias, "_id");
+    }
+    tables = new JoinTableExpr(ctx, "left", false, tables,
+                               new SingleTableExpr(ctx, "_lookup.LookupValue", valueAlias),
+                               new And(ctx,
+                                       new Equality(ctx,
+                                                    new ColumnRef(ctx, valueAlias, "lookup_id"),
+                                                    lookupId),
+                                       new Equality(ctx,
+                                                    new ColumnRef(ctx, valueAlias, matchBy),
+                                                    code)));
+    Expression<?, String> value = label(ctx, showCode, showLabel, showDescription,
+                                        matchBy, valueAlias, codeSeparator);
+    List<String> hops = hops(links, showLastOnly);
+    String hopTable = hops == links ? "_lookup.LookupValueLink" : "_lookup.LookupValuePath";
+    String hopName  = hops == links ? "name" : "path";
+    for (String hop: hops) {
+      T2<String, Integer> uniqueName = makeUnique("value", aliases, aliasIndex, false);
+      String toValueAlias = uniqueName.a;
+      aliasIndex = uniqueName.b;
+
+      uniqueName = makeUnique("link", aliases, aliasIndex, false);
+      String toLinkAlias = uniqueName.a;
+      aliasIndex = uniqueName.b;
+
+      /*
+       * left join LookupValueLink lk1 on lk1.source_value_id=v0._id and lk1.name=link_name
+       * left join LookupValue      v1 on lk1.target_value_id=v1._id
+       */
+      tables = new JoinTableExpr(ctx, "left", false, tables,
+                                 new SingleTableExpr(ctx, hopTable, toLinkAlias),
+                                 new And(ctx,
+                                         new Equality(ctx,
+                                                      new ColumnRef(ctx, toLinkAlias, "source_value_id"),
+                                                      new ColumnRef(ctx, valueAlias, "_id")),
+                                         new Equality(ctx,
+                                                      new ColumnRef(ctx, toLinkAlias, hopName),
+                                                      new StringLiteral(ctx, hop))));
+      tables = new JoinTableExpr(ctx, "left", false, tables,
+                                 new SingleTableExpr(ctx, "_lookup.LookupValue", toValueAlias),
+                                 new Equality(ctx,
+                                              new ColumnRef(ctx, toLinkAlias, "target_value_id"),
+                                              new ColumnRef(ctx, toValueAlias, "_id")));
+
+      Expression<?, String> label = label(ctx, showCode, showLabel, showDescription,
+                                          matchBy, toValueAlias, codeSeparator);
+      value = showLastOnly ? label :
+              lastToFirst  ? new Concatenation(ctx, asList(label, labelSeparator, value)) :
+                             new Concatenation(ctx, asList(value, labelSeparator, label));
+      valueAlias = toValueAlias;
+    }
+    select.tables(tables);
+    return value;
+  }
+
+  /**
+   * The links to follow one by one, or a single path of all links when the
+   * value paths are materialised to the number of links. Paths lead to the
+   * last value only, so they are not used when the labels of all values in
+   * the chain are shown.
+   */
+  private List<String> hops(List<String> links, boolean showLastOnly) {
+    return extension != null
+        && showLastOnly
+        && links.size() > 1
+        && links.size() <= extension.valuePathDepth()
+         ? List.of(String.join("/", links))
+         : links;
+  }
+
+  /**
+   * A uuid literal of the id of the lookup if it is named by a constant and
+   * exists, or null otherwise.
+   */
+  private Expression<?, ?> lookupId(Expression<?, ?> lookup, EsqlPath path) {
+    if (extension != null && lookup instanceof StringLiteral) {
+      UUID id = extension.lookupId((String)lookup.exec(ESQL, null, path, lookup.context.structure));
+      if (id != null) {
+        return new Parser(lookup.context.structure).parseExpression("u'" + id + "'");
+      }
+    }
+    return null;
+  }
+
+  private static Expression<?, String> withFilter(Context               ctx,
+                                                  Expression<?, String> filter,
+                                                  Expression<?, String> condition) {
+    return filter == null ? condition : new And(ctx, filter, condition);
+  }
+
+  /**
+   * The form to which the call is to be expanded, as specified by its
+   * <code>expansion</code> named argument or otherwise by default.
+   */
+  private Expansion expansion(List<Expression<?, ?>> arguments, EsqlPath path) {
+    for (Expression<?, ?> arg: arguments) {
+      if (arg instanceof NamedArgument namedArg && namedArg.name().equals("expansion")) {
+        return getExpansionParam(namedArg, path);
+      }
+    }
+    return expansion;
+  }
+
+  /**
+   * Whether the code, the first argument which is not named, is an array.
+   */
+  private static boolean codeIsArray(List<Expression<?, ?>> arguments) {
+    for (Expression<?, ?> arg: arguments) {
+      if (!(arg instanceof NamedArgument)) {
+        return arg instanceof ColumnRef ref && ref.type() instanceof ArrayType
+            || arg instanceof BaseArrayLiteral;
+      }
+    }
+    return false;
+  }
+
+  private static Expansion getExpansionParam(NamedArgument namedArg,
+                                             EsqlPath      path) {
+    String expansion = getStringParam(namedArg, "expansion", path);
+    try {
+      return expansion == null ? Expansion.subquery : Expansion.valueOf(expansion.trim().toLowerCase());
+    } catch (IllegalArgumentException e) {
+      throw new TranslationException("expansion must be 'subquery', 'join' or 'client' ('" + expansion + "' was provided)");
+    }
+  }
+
   private static Expression<?, String> label(Context ctx,
                                              boolean showCode,
                                              boolean showLabel,
@@ -343,4 +767,27 @@ public class LookupLabel extends Function implements TypedMacro {
         ? expr
         : new Concatenation(ctx, asList(label, codeSeparator, expr));
   }
+
+  /**
+   * The form to which lookuplabel is expanded when not specified by the
+   * <code>expansion</code> named argument.
+   */
+  private final Expansion expansion;
+
+  /**
+   * The extension used to find lookup ids, or null to always find lookups by
+   * name in the expansion.
+   */
+  private final LookupExtension extension;
+
+  /**
+   * Expansions of the calls to lookuplabel, except for join expansions.
+   */
+  private final ExpansionCache expansions = new ExpansionCache(ExpansionCache.MAX_ENTRIES);
+
+  /**
+   * A code separator which keywords cannot span: not empty and without any
+   * word character, as keywords are split on non-word characters.
+   */
+  private static final Pattern WORD_SEPARATOR = Pattern.compile("\\W+");
 }
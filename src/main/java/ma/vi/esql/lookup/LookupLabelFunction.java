@@ -12,11 +12,14 @@ import ma.vi.esql.exec.function.FunctionParam;
 import ma.vi.esql.semantic.type.Types;
 import ma.vi.esql.syntax.EsqlPath;
 import ma.vi.esql.syntax.expression.Expression;
+import ma.vi.esql.syntax.expression.literal.StringLiteral;
 import org.pcollections.PMap;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 
+import static ma.vi.esql.translation.Translatable.Target.ESQL;
 import static ma.vi.esql.translation.Translatable.Target.POSTGRESQL;
 import static ma.vi.esql.translation.Translatable.Target.SQLSERVER;
 
@@ -26,14 +29,25 @@ import static ma.vi.esql.translation.Translatable.Target.SQLSERVER;
  * <p>
  * lookuplabelf(code, lookup, [show_code=true], [show_label=true], [links...])
  * <p>
- * Given that SQL Server does not support dynamic sql in functions
+ * Given that SQL Server does not support variable arguments in functions
  * this function is resolved to a static function based on the number
- * of links on that database. Thus, there is a limit to the number of
- * links supported on SQL Server.
+ * of links on that database. It is translated to a subquery on an inline
+ * table-valued function (<code>lookup_label_table&lt;links&gt;</code>), which
+ * SQL Server expands into the query instead of calling it for each row; the
+ * functions for more than {@link LookupExtension#MAX_SQLSERVER_LINKS} links
+ * are created on first use. Without the extension, the scalar functions
+ * <code>lookup_label0</code> to <code>lookup_label5</code> are used and the
+ * number of links is limited.
  * <p>
  * Other databases (Oracle, Postgresql) do not have this limitation and
- * supports any number of links using a dynamic query in the underlying
- * lookup function.
+ * supports any number of links through a variadic lookup function.
+ * <p>
+ * When the lookup is named by a constant, it is translated to the variant of
+ * the function taking the id of the lookup (<code>lookup_label_by_id</code>)
+ * with the id inlined, avoiding finding the lookup by name on each call. When
+ * the value paths are materialised (see
+ * {@link LookupExtension#CONFIG_VALUE_PATHS_MAX_DEPTH}), 2 or more links are
+ * followed at once with <code>lookup_label_by_path</code>.
  *
  * @author Vikash Madhow (vikash.madhow@gmail.com)
  */
@@ -42,9 +56,18 @@ public class LookupLabelFunction extends Function {
    * Creates the lookuplabelf function.
    */
   public LookupLabelFunction() {
+    this(null);
+  }
+
+  /**
+   * Creates the lookuplabelf function using the lookup extension to find the
+   * ids of lookups named by constants.
+   */
+  public LookupLabelFunction(LookupExtension extension) {
     super("lookuplabelf", Types.TextType,
           Arrays.asList(new FunctionParam("code", Types.TextType),
                         new FunctionParam("lookup", Types.TextType)));
+    this.extension = extension;
   }
 
   @Override
@@ -57,11 +80,37 @@ public class LookupLabelFunction extends Function {
     List<Expression<?, ?>> args = call.arguments();
     Expression<?, ?> code = args.get(0);
     Expression<?, ?> linkTable = args.get(1);
-    if (target == POSTGRESQL) {
+    UUID lookupId = extension != null && linkTable instanceof StringLiteral
+                  ? extension.lookupId((String)linkTable.exec(ESQL, esqlCon, path, call.context.structure))
+                  : null;
+    int links = args.size() > 4 ? args.size() - 4 : 0;
+    if (lookupId != null
+     && links > 1
+     && links <= extension.valuePathDepth()
+     && (target == POSTGRESQL || target == SQLSERVER)) {
+      /*
+       * Follow all links at once through the materialised value paths.
+       */
+      boolean postgresql = target == POSTGRESQL;
+      String showCode = args.size() > 3 ? (String)args.get(2).translate(target) : postgresql ? "true" : "1";
+      String showText = args.size() > 4 ? (String)args.get(3).translate(target) : postgresql ? "true" : "1";
+      StringBuilder valuePath = new StringBuilder("concat_ws('/'");
+      for (int i = 4; i < args.size(); i++) {
+        valuePath.append(", ").append(args.get(i).translate(target));
+      }
+      valuePath.append(')');
+      return "_lookup.lookup_label_by_path("
+           + (postgresql ? "(" + code.translate(target) + ")::text, '" + lookupId + "'::uuid, "
+                         : code.translate(target) + ", '" + lookupId + "', ")
+           + showCode + ", " + showText + ", " + valuePath + ')';
+
+    } else if (target == POSTGRESQL) {
       StringBuilder func = new StringBuilder(
-          "_lookup.lookup_label((" +
-              code.translate(target) + ")::text, (" +
-              linkTable.translate(target) + ")::text, ");
+          lookupId != null
+            ? "_lookup.lookup_label_by_id((" + code.translate(target) + ")::text, '" + lookupId + "'::uuid, "
+            : "_lookup.lookup_label((" +
+                  code.translate(target) + ")::text, (" +
+                  linkTable.translate(target) + ")::text, ");
       String showCode = "true";
       String showText = "true";
       if (args.size() > 3) {
@@ -80,7 +129,7 @@ public class LookupLabelFunction extends Function {
     } else if (target == SQLSERVER) {
       StringBuilder func = new StringBuilder("("
           + code.translate(target) + ", "
-          + linkTable.translate(target) + ", ");
+          + (lookupId != null ? "'" + lookupId + "'" : linkTable.translate(target)) + ", ");
       String showCode = "1";
       String showText = "1";
       if (args.size() > 3) {
@@ -94,8 +143,15 @@ public class LookupLabelFunction extends Function {
         func.append(", ").append(args.get(i).translate(target));
       }
       func.append(')');
-      int links = args.size() > 4 ? args.size() - 4 : 0;
-      return "_lookup.lookup_label" + links + func;
+      if (extension != null) {
+        /*
+         * Inline table-valued function, expanded by SQL Server into the query
+         * instead of being called for each row as a scalar function.
+         */
+        return "(select label from " + extension.sqlServerLabelTable(links, lookupId != null) + func + ')';
+      } else {
+        return (lookupId != null ? "_lookup.lookup_label_by_id" : "_lookup.lookup_label") + links + func;
+      }
 
     } else {
       StringBuilder func = new StringBuilder(
@@ -118,4 +174,10 @@ public class LookupLabelFunction extends Function {
       return func.toString();
     }
   }
+
+  /**
+   * The extension used to find lookup ids, or null to always find lookups by
+   * name.
+   */
+  private final LookupExtension extension;
 }
\ No newline at end of file
@@ -0,0 +1,779 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * An immutable and compact in-memory representation of a lookup and its
+ * values. All strings of the lookup are interned in a single {@link StringTable}
+ * and values are stored column-wise in primitive arrays, indexed by the position
+ * of the value in the lookup. Links between values are kept as CSR-style
+ * adjacency arrays: the links of value <code>i</code> are at positions
+ * <code>linkStart[i]</code> (inclusive) to <code>linkStart[i+1]</code> (exclusive)
+ * of the link arrays.
+ * </p>
+ *
+ * <p>
+ * Ids, codes and alternative codes are indexed with open-addressing hash
+ * tables over the value positions so that finding a value by any of them does
+ * not allocate. {@link Lookup} and
+ * {@link LookupValue} records are materialised on demand as views over the
+ * snapshot. Link targets in other lookups are resolved by name through the
+ * resolver supplied when the snapshot is built, which allows lookups to link
+ * to each other (even cyclically) without being loaded together.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class LookupSnapshot {
+  private LookupSnapshot(Builder builder,
+                         Function<String, LookupSnapshot> resolver) {
+    this.id          = builder.id;
+    this.name        = builder.name;
+    this.group       = builder.group;
+    this.displayName = builder.displayName;
+    this.description = builder.description;
+    this.version     = builder.version;
+    this.links       = builder.links.toArray(new String[0]);
+    this.resolver    = resolver;
+
+    this.size    = builder.size;
+    this.strings = builder.strings.build();
+    this.ids     = Arrays.copyOf(builder.ids, 2 * size);
+    this.fields  = Arrays.copyOf(builder.fields, FIELDS * size);
+
+    /*
+     * Arrange value links in CSR form, ordered by source value, by counting the
+     * links of each value and then placing them at their offsets.
+     */
+    this.targetLookups = builder.targetLookups.toArray(new String[0]);
+    int[] sources = new int[builder.linkCount];
+    int linkCount = 0;
+    linkStart = new int[size + 1];
+    for (int i = 0; i < builder.linkCount; i++) {
+      Integer source = builder.rowsById.get(new UUID(builder.linkSources[2 * i],
+                                                     builder.linkSources[2 * i + 1]));
+      sources[i] = source == null ? -1 : source;
+      if (source != null) {
+        linkStart[source + 1]++;
+        linkCount++;
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      linkStart[i + 1] += linkStart[i];
+    }
+    linkNames   = new int[linkCount];
+    linkLookups = new int[linkCount];
+    linkTargets = new long[2 * linkCount];
+    int[] next = Arrays.copyOf(linkStart, size);
+    for (int i = 0; i < builder.linkCount; i++) {
+      if (sources[i] != -1) {
+        int pos = next[sources[i]]++;
+        linkNames[pos]           = builder.linkNames[i];
+        linkLookups[pos]         = builder.linkLookups[i];
+        linkTargets[2 * pos]     = builder.linkTargets[2 * i];
+        linkTargets[2 * pos + 1] = builder.linkTargets[2 * i + 1];
+      }
+    }
+
+    /*
+     * Hash indexes on ids, codes and alternative codes.
+     */
+    int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+    idIndex = new int[capacity];
+    for (int i = 0; i < size; i++) {
+      put(idIndex, hash(ids[2 * i], ids[2 * i + 1]), i);
+    }
+    codeIndex     = index(CODE,      capacity);
+    altCode1Index = index(ALT_CODE1, capacity);
+    altCode2Index = index(ALT_CODE2, capacity);
+
+    valuesByCode     = new ValuesBy(codeIndex,     CODE);
+    valuesByAltCode1 = new ValuesBy(altCode1Index, ALT_CODE1);
+    valuesByAltCode2 = new ValuesBy(altCode2Index, ALT_CODE2);
+
+    lookup = new Lookup(id,
+                        name,
+                        group,
+                        displayName,
+                        description,
+                        new LookupLinks(),
+                        valuesByCode,
+                        new ValuesById());
+  }
+
+  /**
+   * Builds a hash index on the field. Values without the field (null) are not
+   * indexed and, when several values have the same field value, only one of
+   * them is indexed: for codes, which values in different languages share,
+   * the value whose language comes first; for alternative codes, the first
+   * value in load order, which is the order of codes, then languages, for
+   * lookups loaded from the database. The empty index is shared.
+   */
+  private int[] index(int field, int capacity) {
+    int[] index = null;
+    for (int i = 0; i < size; i++) {
+      int s = fields[FIELDS * i + field];
+      if (s != -1) {
+        if (index == null) {
+          index = new int[capacity];
+        }
+        int slot = slot(index, field, s);
+        if (index[slot] == 0
+         || (field == CODE && before(fields[FIELDS * i + LANG],
+                                     fields[FIELDS * (index[slot] - 1) + LANG]))) {
+          index[slot] = i + 1;
+        }
+      }
+    }
+    return index == null ? NO_INDEX : index;
+  }
+
+  /**
+   * Returns true if the interned string s1 sorts before s2, null sorting last.
+   */
+  private boolean before(int s1, int s2) {
+    if (s1 == s2 || s1 == -1) {
+      return false;
+    } else if (s2 == -1) {
+      return true;
+    } else {
+      return strings.get(s1).compareTo(strings.get(s2)) < 0;
+    }
+  }
+
+  /**
+   * The slot of the index holding the value whose field is the interned string
+   * s, or the empty slot where such a value would be.
+   */
+  private int slot(int[] index, int field, int s) {
+    int mask = index.length - 1;
+    int slot = hash(strings.hashCode(s)) & mask;
+    while (index[slot] != 0 && fields[FIELDS * (index[slot] - 1) + field] != s) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * The number of values in the lookup.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the position of the value with the code, or -1 if there is no such
+   * value in this lookup. When there are values with the code in several
+   * languages, the one whose language comes first is returned.
+   */
+  int find(CharSequence code) {
+    return find(codeIndex, CODE, code);
+  }
+
+  /**
+   * Returns the position of the value matching the code in the column
+   * specified by matchBy, or -1 if there is no such value in this lookup. When
+   * several values have the same alternative code, the first one in load
+   * order, which is the one with the smallest code, is returned.
+   */
+  int find(CharSequence code, Lookup.MatchBy matchBy) {
+    return switch (matchBy) {
+      case code     -> find(codeIndex,     CODE,      code);
+      case altCode1 -> find(altCode1Index, ALT_CODE1, code);
+      case altCode2 -> find(altCode2Index, ALT_CODE2, code);
+    };
+  }
+
+  private int find(int[] index, int field, CharSequence code) {
+    if (code == null) {
+      return -1;
+    }
+    int mask = index.length - 1;
+    for (int slot = hash(hashCode(code)) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int i = index[slot] - 1;
+      if (strings.equals(fields[FIELDS * i + field], code)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The values of the lookup keyed by code or by one of the alternative codes.
+   * Values without the alternative code are left out and, when several values
+   * have the same alternative code, only the first in load order, which is
+   * the one with the smallest code, is included.
+   */
+  Map<String, LookupValue> valuesBy(Lookup.MatchBy matchBy) {
+    return switch (matchBy) {
+      case code     -> valuesByCode;
+      case altCode1 -> valuesByAltCode1;
+      case altCode2 -> valuesByAltCode2;
+    };
+  }
+
+  /**
+   * Returns the position of the value with the id, or -1 if there is no such
+   * value in this lookup.
+   */
+  int indexOf(long mostSigBits, long leastSigBits) {
+    int mask = idIndex.length - 1;
+    for (int slot = hash(mostSigBits, leastSigBits) & mask; idIndex[slot] != 0; slot = (slot + 1) & mask) {
+      int i = idIndex[slot] - 1;
+      if (ids[2 * i] == mostSigBits && ids[2 * i + 1] == leastSigBits) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  int indexOf(UUID id) {
+    return id == null ? -1 : indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+  }
+
+  UUID id(int i)             { return new UUID(ids[2 * i], ids[2 * i + 1]); }
+  String code(int i)         { return strings.get(fields[FIELDS * i + CODE]);        }
+  String altCode1(int i)     { return strings.get(fields[FIELDS * i + ALT_CODE1]);   }
+  String altCode2(int i)     { return strings.get(fields[FIELDS * i + ALT_CODE2]);   }
+  String label(int i)        { return strings.get(fields[FIELDS * i + LABEL]);       }
+  String description(int i)  { return strings.get(fields[FIELDS * i + DESCRIPTION]); }
+  String lang(int i)         { return strings.get(fields[FIELDS * i + LANG]);        }
+
+  /**
+   * The code of the value at position i in the column specified by matchBy.
+   */
+  String code(int i, Lookup.MatchBy matchBy) {
+    return switch (matchBy) {
+      case code     -> code(i);
+      case altCode1 -> altCode1(i);
+      case altCode2 -> altCode2(i);
+    };
+  }
+
+  /**
+   * Position of the first link of the value at position i in the link arrays.
+   */
+  int firstLink(int i) {
+    return linkStart[i];
+  }
+
+  /**
+   * Position after the last link of the value at position i in the link arrays.
+   */
+  int lastLink(int i) {
+    return linkStart[i + 1];
+  }
+
+  /**
+   * The name of the link at position link.
+   */
+  String linkName(int link) {
+    return strings.get(linkNames[link]);
+  }
+
+  /**
+   * Returns true if the link at position link is named linkName.
+   */
+  boolean linkNamed(int link, CharSequence linkName) {
+    return strings.equals(linkNames[link], linkName);
+  }
+
+  /**
+   * The snapshot of the lookup containing the target of the link at position
+   * link, or null if that lookup cannot be found.
+   */
+  LookupSnapshot linkTarget(int link) {
+    return resolver.apply(targetLookups[linkLookups[link]]);
+  }
+
+  /**
+   * The position of the target of the link in the target snapshot, or -1 if
+   * the target value is not in that snapshot.
+   */
+  int linkTargetIndex(int link, LookupSnapshot target) {
+    return target == null ? -1 : target.indexOf(linkTargets[2 * link], linkTargets[2 * link + 1]);
+  }
+
+  /**
+   * Materialises the value at position i as a {@link LookupValue}; the links of
+   * the returned value are a view which resolves targets as they are accessed.
+   */
+  LookupValue value(int i) {
+    return new LookupValue(id(i),
+                           name,
+                           code(i),
+                           altCode1(i),
+                           altCode2(i),
+                           label(i),
+                           description(i),
+                           lang(i),
+                           new ValueLinks(i));
+  }
+
+  /**
+   * The lookup corresponding to this snapshot, whose links and values are
+   * views over the snapshot.
+   */
+  Lookup lookup() {
+    return lookup;
+  }
+
+  /**
+   * The trigram index of the labels of this snapshot, built once, on first
+   * use, by the first thread asking for it while the others wait for it.
+   */
+  LabelIndex labelIndex() {
+    LabelIndex index = labelIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = labelIndex;
+        if (index == null) {
+          labelIndex = index = LabelIndex.of(this);
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Approximate number of bytes used by the snapshot, excluding the shared
+   * lookup definition strings.
+   */
+  long estimatedBytes() {
+    return 128L
+         + strings.estimatedBytes()
+         + 8L * ids.length
+         + 4L * (fields.length + idIndex.length)
+         + 4L * (codeIndex.length + altCode1Index.length + altCode2Index.length)
+         + 4L * (linkStart.length + linkNames.length + linkLookups.length)
+         + 8L * linkTargets.length;
+  }
+
+  private static void put(int[] index, int hash, int value) {
+    int mask = index.length - 1;
+    int slot = hash & mask;
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = value + 1;
+  }
+
+  /**
+   * The hash code of the characters of the sequence, as {@link String#hashCode()}.
+   */
+  private static int hashCode(CharSequence s) {
+    if (s instanceof String string) {
+      return string.hashCode();
+    }
+    int h = 0;
+    for (int i = 0; i < s.length(); i++) {
+      h = 31 * h + s.charAt(i);
+    }
+    return h;
+  }
+
+  private static int hash(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  private static int hash(long mostSigBits, long leastSigBits) {
+    return hash(Long.hashCode(mostSigBits ^ leastSigBits));
+  }
+
+  /**
+   * Lookups linked to this one, resolved by name when accessed.
+   */
+  private final class LookupLinks extends AbstractList<Lookup> {
+    @Override
+    public Lookup get(int index) {
+      LookupSnapshot link = resolver.apply(links[index]);
+      return link == null ? null : link.lookup();
+    }
+
+    @Override
+    public int size() {
+      return links.length;
+    }
+  }
+
+  /**
+   * Links of a value to values in other lookups.
+   */
+  private final class ValueLinks extends AbstractList<LookupValueLink> {
+    private ValueLinks(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public LookupValueLink get(int index) {
+      int link = linkStart[value] + Objects.checkIndex(index, size());
+      LookupSnapshot target = linkTarget(link);
+      int targetIndex = linkTargetIndex(link, target);
+      return new LookupValueLink(linkName(link),
+                                 targetIndex == -1 ? null : target.value(targetIndex));
+    }
+
+    @Override
+    public int size() {
+      return linkStart[value + 1] - linkStart[value];
+    }
+
+    private final int value;
+  }
+
+  /**
+   * The values of the lookup keyed by their codes or alternative codes, in
+   * load order.
+   */
+  final class ValuesBy extends AbstractMap<String, LookupValue> {
+    private ValuesBy(int[] index, int field) {
+      this.index = index;
+      this.field = field;
+    }
+
+    /**
+     * The values of the same snapshot keyed by code or alternative code.
+     */
+    Map<String, LookupValue> by(Lookup.MatchBy matchBy) {
+      return valuesBy(matchBy);
+    }
+
+    @Override
+    public LookupValue get(Object key) {
+      int i = key instanceof CharSequence code ? find(index, field, code) : -1;
+      return i == -1 ? null : value(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof CharSequence code && find(index, field, code) != -1;
+    }
+
+    @Override
+    public int size() {
+      int n = keys;
+      if (n == -1) {
+        n = 0;
+        for (int slot: index) {
+          if (slot != 0) n++;
+        }
+        keys = n;
+      }
+      return n;
+    }
+
+    @Override
+    public Set<Entry<String, LookupValue>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, LookupValue>> iterator() {
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              /*
+               * Skip values without the key or not indexed as they have the
+               * same key as an earlier value.
+               */
+              while (i < LookupSnapshot.this.size) {
+                int s = fields[FIELDS * i + field];
+                if (s != -1 && index[slot(index, field, s)] == i + 1) {
+                  return true;
+                }
+                i++;
+              }
+              return false;
+            }
+
+            @Override
+            public Entry<String, LookupValue> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              LookupValue value = value(i++);
+              return new SimpleImmutableEntry<>(strings.get(fields[FIELDS * (i - 1) + field]), value);
+            }
+
+            private int i = 0;
+          };
+        }
+
+        @Override
+        public int size() {
+          return ValuesBy.this.size();
+        }
+      };
+    }
+
+    private final int[] index;
+    private final int field;
+    private int keys = -1;
+  }
+
+  /**
+   * The values of the lookup keyed by their ids, in load order.
+   */
+  private final class ValuesById extends AbstractMap<UUID, LookupValue> {
+    @Override
+    public LookupValue get(Object key) {
+      int i = key instanceof UUID id ? indexOf(id) : -1;
+      return i == -1 ? null : value(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof UUID id && indexOf(id) != -1;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Set<Entry<UUID, LookupValue>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<UUID, LookupValue>> iterator() {
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return i < size;
+            }
+
+            @Override
+            public Entry<UUID, LookupValue> next() {
+              if (i >= size) {
+                throw new NoSuchElementException();
+              }
+              LookupValue value = value(i++);
+              return new SimpleImmutableEntry<>(value.id(), value);
+            }
+
+            private int i = 0;
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+  }
+
+  /**
+   * Accumulates the definition, values and value links of a lookup and builds
+   * the corresponding immutable snapshot. Every value is kept, including
+   * values with the same code in different languages, which can all be found
+   * by id; only one of them is found by code (see {@link #find(CharSequence)}).
+   */
+  static final class Builder {
+    Builder(UUID   id,
+            String name,
+            String group,
+            String displayName,
+            String description) {
+      this.id          = id;
+      this.name        = name;
+      this.group       = group;
+      this.displayName = displayName;
+      this.description = description;
+    }
+
+    /**
+     * Sets the version of the lookup (the <code>_version</code> of its row in
+     * <code>_lookup.Lookup</code>) from which the snapshot is built.
+     */
+    Builder version(long version) {
+      this.version = version;
+      return this;
+    }
+
+    /**
+     * Adds a link from this lookup to the named lookup.
+     */
+    Builder link(String lookup) {
+      links.add(lookup);
+      return this;
+    }
+
+    /**
+     * Adds a value to the lookup; values with the id of a value already added
+     * are ignored.
+     */
+    Builder value(UUID   id,
+                  String code,
+                  String altCode1,
+                  String altCode2,
+                  String label,
+                  String description,
+                  String lang) {
+      if (rowsById.containsKey(id)) {
+        return this;
+      }
+      int row = size++;
+      if (2 * size > ids.length) {
+        ids    = Arrays.copyOf(ids,    ids.length * 2);
+        fields = Arrays.copyOf(fields, fields.length * 2);
+      }
+      rowsById.put(id, row);
+      ids[2 * row]     = id.getMostSignificantBits();
+      ids[2 * row + 1] = id.getLeastSignificantBits();
+
+      int f = FIELDS * row;
+      fields[f + CODE]        = strings.intern(code);
+      fields[f + ALT_CODE1]   = strings.intern(altCode1);
+      fields[f + ALT_CODE2]   = strings.intern(altCode2);
+      fields[f + LABEL]       = strings.intern(label);
+      fields[f + DESCRIPTION] = strings.intern(description);
+      fields[f + LANG]        = strings.intern(lang);
+      return this;
+    }
+
+    /**
+     * Adds a link named linkName from the value with id source in this lookup
+     * to the value with id target in the lookup named targetLookup. Links from
+     * values which are not added to the builder are ignored.
+     */
+    Builder valueLink(UUID   source,
+                      String linkName,
+                      String targetLookup,
+                      UUID   target) {
+      if (linkCount == linkNames.length) {
+        linkNames   = Arrays.copyOf(linkNames,   linkNames.length * 2);
+        linkLookups = Arrays.copyOf(linkLookups, linkLookups.length * 2);
+        linkSources = Arrays.copyOf(linkSources, linkSources.length * 2);
+        linkTargets = Arrays.copyOf(linkTargets, linkTargets.length * 2);
+      }
+      int lookupIndex = targetLookups.indexOf(targetLookup);
+      if (lookupIndex == -1) {
+        lookupIndex = targetLookups.size();
+        targetLookups.add(targetLookup);
+      }
+      linkNames[linkCount]           = strings.intern(linkName);
+      linkLookups[linkCount]         = lookupIndex;
+      linkSources[2 * linkCount]     = source.getMostSignificantBits();
+      linkSources[2 * linkCount + 1] = source.getLeastSignificantBits();
+      linkTargets[2 * linkCount]     = target.getMostSignificantBits();
+      linkTargets[2 * linkCount + 1] = target.getLeastSignificantBits();
+      linkCount++;
+      return this;
+    }
+
+    /**
+     * Builds the snapshot; the resolver is used to find the snapshots of linked
+     * lookups by name when links are traversed.
+     */
+    LookupSnapshot build(Function<String, LookupSnapshot> resolver) {
+      return new LookupSnapshot(this, resolver);
+    }
+
+    private final UUID   id;
+    private final String name;
+    private final String group;
+    private final String displayName;
+    private final String description;
+    private long version = 0;
+    private final List<String> links = new ArrayList<>();
+
+    private final StringTable.Builder strings = new StringTable.Builder();
+    private final Map<UUID, Integer> rowsById = new HashMap<>();
+    private long[] ids    = new long[32];
+    private int[]  fields = new int[16 * FIELDS];
+    private int    size   = 0;
+
+    private final List<String> targetLookups = new ArrayList<>();
+    private int[]  linkNames   = new int[16];
+    private int[]  linkLookups = new int[16];
+    private long[] linkSources = new long[32];
+    private long[] linkTargets = new long[32];
+    private int    linkCount   = 0;
+  }
+
+  final UUID     id;
+  final String   name;
+  final String   group;
+  final String   displayName;
+  final String   description;
+
+  /**
+   * The version of the lookup when it was loaded, used to detect changes made
+   * to it by other nodes sharing the database.
+   */
+  final long     version;
+
+  /**
+   * Names of the lookups linked to this one.
+   */
+  final String[] links;
+
+  private final Function<String, LookupSnapshot> resolver;
+
+  private final int size;
+  private final StringTable strings;
+
+  /**
+   * Value ids as pairs of (most significant bits, least significant bits).
+   */
+  private final long[] ids;
+
+  /**
+   * Indexes in the string table of the string fields of values, FIELDS per value.
+   */
+  private final int[] fields;
+
+  /**
+   * Hash indexes of value positions (plus one, 0 marking empty slots) by code,
+   * alternative codes and id.
+   */
+  private final int[] codeIndex;
+  private final int[] altCode1Index;
+  private final int[] altCode2Index;
+  private final int[] idIndex;
+
+  /**
+   * Views of the values keyed by code and alternative codes.
+   */
+  private final ValuesBy valuesByCode;
+  private final ValuesBy valuesByAltCode1;
+  private final ValuesBy valuesByAltCode2;
+
+  /**
+   * CSR arrays of value links.
+   */
+  private final String[] targetLookups;
+  private final int[]    linkStart;
+  private final int[]    linkNames;
+  private final int[]    linkLookups;
+  private final long[]   linkTargets;
+
+  /**
+   * The lookup view over this snapshot, created with the snapshot so that it
+   * is the same instance for all threads.
+   */
+  private final Lookup lookup;
+
+  /**
+   * Lazily created trigram index of the labels.
+   */
+  private volatile LabelIndex labelIndex;
+
+  private static final int CODE        = 0;
+  private static final int ALT_CODE1   = 1;
+  private static final int ALT_CODE2   = 2;
+  private static final int LABEL       = 3;
+  private static final int DESCRIPTION = 4;
+  private static final int LANG        = 5;
+  private static final int FIELDS      = 6;
+
+  /**
+   * Index of a field that no value has.
+   */
+  private static final int[] NO_INDEX = new int[1];
+}
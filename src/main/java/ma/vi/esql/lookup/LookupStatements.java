@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+import ma.vi.esql.exec.QueryParams;
+import ma.vi.esql.exec.Result;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static ma.vi.esql.translation.Translatable.Target.POSTGRESQL;
+import static ma.vi.esql.translation.Translatable.Target.SQLSERVER;
+
+/**
+ * <p>
+ * The statements run by {@link LookupExtension} and {@link LookupWriter} to
+ * read and save lookups, and their values, one at a time. On PostgreSQL and
+ * SQL Server, they are run as SQL, written once with parameters for all
+ * values, instead of being parsed and translated from ESQL on every call,
+ * and their text never changes so that the JDBC
+ * drivers and the databases reuse their preparation and plans: the
+ * PostgreSQL driver prepares a statement on the server once it has been
+ * executed a few times on a connection and keeps it for later executions of
+ * the same text on that connection, and SQL Server caches the plans of
+ * parameterised statements by their text.
+ * </p>
+ *
+ * <p>
+ * On other databases, the ESQL form of the statements is executed instead,
+ * with the same parameters, passed by name. Both forms of a statement must
+ * have the same result, which <code>LookupStatementsTest</code> checks by
+ * running each form on PostgreSQL and SQL Server.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class LookupStatements {
+  LookupStatements(Database db) {
+    this(db, db.target() == POSTGRESQL || db.target() == SQLSERVER);
+  }
+
+  /**
+   * Statements run as SQL if prepared, which is only possible on PostgreSQL
+   * and SQL Server, or as ESQL otherwise, so that both forms can be compared.
+   */
+  LookupStatements(Database db, boolean prepared) {
+    this.postgresql = db.target() == POSTGRESQL;
+    this.prepared   = prepared;
+  }
+
+  /**
+   * A statement as SQL for PostgreSQL and SQL Server and as ESQL for other
+   * databases, and the names of its parameters, in the order of the
+   * placeholders of the SQL.
+   */
+  record Statement(String sql, String esql, String... params) {}
+
+  static final Statement LOOKUP_ID = new Statement("""
+      select _id
+        from _lookup."Lookup"
+       where name=?""", """
+      select _id
+        from _lookup.Lookup
+       where name=@name""",
+      "name");
+
+  static final Statement LOOKUP_NAME = new Statement("""
+      select name
+        from _lookup."Lookup"
+       where _id=?""", """
+      select name
+        from _lookup.Lookup
+       where _id=@id""",
+      "id");
+
+  static final Statement INCREMENT_VERSION = new Statement("""
+      update _lookup."Lookup"
+         set _version=_version + 1
+       where _id=?""", """
+      update l
+        from l:_lookup.Lookup
+         set _version=l._version + 1
+       where l._id=@id""",
+      "id");
+
+  static final Statement LOOKUP = new Statement("""
+      select _id,
+             "group",
+             display_name,
+             description,
+             _version
+        from _lookup."Lookup"
+       where name=?""", """
+      select _id,
+             "group",
+             display_name,
+             description,
+             _version
+        from _lookup.Lookup
+       where name=@name""",
+      "name");
+
+  static final Statement LOOKUP_LINKS = new Statement("""
+      select lk.name
+        from _lookup."LookupLink" ln
+        join _lookup."Lookup" lk on lk._id=ln.target_lookup_id
+       where ln.source_lookup_id=?
+       order by ln._seq""", """
+      select lk.name
+        from ln:_lookup.LookupLink
+        join lk:_lookup.Lookup on lk._id=ln.target_lookup_id
+       where ln.source_lookup_id=@id
+       order by ln._seq""",
+      "id");
+
+  /**
+   * The values of a lookup, in the order of their codes and then languages,
+   * which is the order of the values of loaded lookups: when several values
+   * have the same alternative code, the one coming first in this order is
+   * found by that alternative code.
+   */
+  static final Statement LOOKUP_VALUES = new Statement("""
+      select _id,
+             code,
+             alt_code1,
+             alt_code2,
+             label,
+             description,
+             lang
+        from _lookup."LookupValue"
+       where lookup_id=?
+       order by code, lang""", """
+      select _id,
+             code,
+             alt_code1,
+             alt_code2,
+             label,
+             description,
+             lang
+        from _lookup.LookupValue
+       where lookup_id=@id
+       order by code, lang""",
+      "id");
+
+  static final Statement LOOKUP_VALUE_LINKS = new Statement("""
+      select lk.source_value_id,
+             lk.name,
+             tl.name,
+             lk.target_value_id
+        from _lookup."LookupValueLink" lk
+        join _lookup."LookupValue" sv on sv._id=lk.source_value_id
+        join _lookup."LookupValue" tv on tv._id=lk.target_value_id
+        join _lookup."Lookup"      tl on tl._id=tv.lookup_id
+       where sv.lookup_id=?""", """
+      select lk.source_value_id,
+             lk.name,
+             tl.name,
+             lk.target_value_id
+        from lk:_lookup.LookupValueLink
+        join sv:_lookup.LookupValue on sv._id=lk.source_value_id
+        join tv:_lookup.LookupValue on tv._id=lk.target_value_id
+        join tl:_lookup.Lookup      on tl._id=tv.lookup_id
+       where sv.lookup_id=@id""",
+      "id");
+
+  static final Statement LINK_ID = new Statement("""
+      select _id
+        from _lookup."LookupLink"
+       where source_lookup_id=?
+         and target_lookup_id=?""", """
+      select ln._id
+        from ln:_lookup.LookupLink
+       where ln.source_lookup_id=@sourceId
+         and ln.target_lookup_id=@targetId""",
+      "sourceId", "targetId");
+
+  static final Statement UPDATE_LINK = new Statement("""
+      update _lookup."LookupLink"
+         set _version=2,
+             target_lookup_id=?
+       where _id=?""", """
+      update ln
+        from ln:_lookup.LookupLink
+         set _version=2,
+             target_lookup_id=@targetId
+       where ln._id=@linkId""",
+      "targetId", "linkId");
+
+  static final Statement INSERT_LINK = new Statement("""
+      insert into _lookup."LookupLink"(_id, _version, source_lookup_id, target_lookup_id)
+                                values(?,   1,        ?,                ?)""", """
+      insert into _lookup.LookupLink(_id,     _version, source_lookup_id, target_lookup_id)
+                              values(@linkId, 1,        @sourceId,        @targetId)""",
+      "linkId", "sourceId", "targetId");
+
+  static final Statement UPDATE_LOOKUP = new Statement("""
+      update _lookup."Lookup"
+         set display_name=?,
+             description =?,
+             "group"     =?
+       where _id=?""", """
+      update l
+        from l:_lookup.Lookup
+         set display_name=@displayName,
+             description =@description,
+             "group"     =@grp
+       where l._id=@id""",
+      "displayName", "description", "grp", "id");
+
+  static final Statement INSERT_LOOKUP = new Statement("""
+      insert into _lookup."Lookup"(_id, name, display_name, description, "group")
+                            values(?,   ?,    ?,            ?,           ?)""", """
+      insert into _lookup.Lookup(_id, name,  display_name, description,  "group")
+                          values(@id, @name, @displayName, @description, @grp)""",
+      "id", "name", "displayName", "description", "grp");
+
+  static final Statement MARK_LINKS = new Statement("""
+      update _lookup."LookupLink"
+         set _version=0
+       where source_lookup_id=?""", """
+      update ln
+        from ln:_lookup.LookupLink
+         set _version=0
+       where ln.source_lookup_id=@sourceId""",
+      "sourceId");
+
+  static final Statement UPDATE_LINK_SEQ = new Statement("""
+      update _lookup."LookupLink"
+         set _version=2,
+             _seq=?
+       where _id=?""", """
+      update ln
+        from ln:_lookup.LookupLink
+         set _version=2,
+             _seq=@seq
+       where ln._id=@linkId""",
+      "seq", "linkId");
+
+  static final Statement INSERT_LINK_SEQ = new Statement("""
+      insert into _lookup."LookupLink"(_id, _version, source_lookup_id, target_lookup_id, _seq)
+                                values(?,   1,        ?,                ?,                ?)""", """
+      insert into _lookup.LookupLink(_id,     _version, source_lookup_id, target_lookup_id, _seq)
+                              values(@linkId, 1,        @sourceId,        @targetId,        @seq)""",
+      "linkId", "sourceId", "targetId", "seq");
+
+  static final Statement DELETE_UNMARKED_LINKS = new Statement("""
+      delete from _lookup."LookupLink"
+       where source_lookup_id=?
+         and _version=0""", """
+      delete ln
+        from ln:_lookup.LookupLink
+       where ln.source_lookup_id=@sourceId
+         and ln._version=0""",
+      "sourceId");
+
+  static final Statement MARK_VALUES = new Statement("""
+      update _lookup."LookupValue"
+         set _version=0
+       where lookup_id=?""", """
+      update lv
+        from lv:_lookup.LookupValue
+         set _version=0
+       where lv.lookup_id=@lookupId""",
+      "lookupId");
+
+  static final Statement DELETE_UNMARKED_VALUES = new Statement("""
+      delete from _lookup."LookupValue"
+       where lookup_id=?
+         and _version=0""", """
+      delete lv
+        from lv:_lookup.LookupValue
+       where lv.lookup_id=@lookupId
+         and lv._version=0""",
+      "lookupId");
+
+  static final Statement DELETE_LOOKUP_VALUE_LINKS = new Statement("""
+      delete from _lookup."LookupValueLink"
+       where source_value_id in (select _id
+                                   from _lookup."LookupValue"
+                                  where lookup_id=?)""", """
+      delete ln
+        from ln:_lookup.LookupValueLink
+       where ln.source_value_id in (select lv._id
+                                      from lv:_lookup.LookupValue
+                                     where lv.lookup_id=@lookupId)""",
+      "lookupId");
+
+  static final Statement VALUE_ID = new Statement("""
+      select _id
+        from _lookup."LookupValue"
+       where lookup_id=?
+         and code=?""", """
+      select lv._id
+        from lv:_lookup.LookupValue
+       where lv.lookup_id=@lookupId
+         and lv.code=@code""",
+      "lookupId", "code");
+
+  static final Statement UPDATE_VALUE = new Statement("""
+      update _lookup."LookupValue"
+         set _version   =2,
+             alt_code1  =?,
+             alt_code2  =?,
+             label      =?,
+             description=?,
+             lang       =?
+       where _id=?""", """
+      update lv
+        from lv:_lookup.LookupValue
+         set _version   =2,
+             alt_code1  =@altCode1,
+             alt_code2  =@altCode2,
+             label      =@label,
+             description=@description,
+             lang       =@lang
+       where lv._id=@valueId""",
+      "altCode1", "altCode2", "label", "description", "lang", "valueId");
+
+  static final Statement INSERT_VALUE = new Statement("""
+      insert into _lookup."LookupValue"(_id, _version, lookup_id, code, alt_code1, alt_code2, label, description, lang)
+                                 values(?,   1,        ?,         ?,    ?,         ?,         ?,     ?,           ?)""", """
+      insert into _lookup.LookupValue(_id,      _version, lookup_id, code,  alt_code1, alt_code2, label,  description,  lang)
+                               values(@valueId, 1,        @lookupId, @code, @altCode1, @altCode2, @label, @description, @lang)""",
+      "valueId", "lookupId", "code", "altCode1", "altCode2", "label", "description", "lang");
+
+  static final Statement DELETE_VALUE_LINKS = new Statement("""
+      delete from _lookup."LookupValueLink"
+       where source_value_id=?""", """
+      delete ln
+        from ln:_lookup.LookupValueLink
+       where ln.source_value_id=@valueId""",
+      "valueId");
+
+  static final Statement LINK_TARGET_ID = new Statement("""
+      select v._id
+        from _lookup."LookupValue" v
+        join _lookup."Lookup" l on l._id=v.lookup_id
+       where l.name=?
+         and v.code=?""", """
+      select v._id
+        from v:_lookup.LookupValue
+        join l:_lookup.Lookup on l._id=v.lookup_id
+       where l.name=@lookup
+         and v.code=@code""",
+      "lookup", "code");
+
+  static final Statement INSERT_VALUE_LINK = new Statement("""
+      insert into _lookup."LookupValueLink"(_id, _version, name, source_value_id, target_value_id)
+                                     values(?,   1,        ?,    ?,               ?)""", """
+      insert into _lookup.LookupValueLink(_id,     _version, name,  source_value_id, target_value_id)
+                                   values(@linkId, 1,        @name, @sourceId,       @targetId)""",
+      "linkId", "name", "sourceId", "targetId");
+
+  /**
+   * The rows returned by a query, read by column position.
+   */
+  interface Rows extends AutoCloseable {
+    boolean next() throws SQLException;
+
+    String string(int column) throws SQLException;
+
+    UUID uuid(int column) throws SQLException;
+
+    long number(int column) throws SQLException;
+
+    @Override
+    void close() throws SQLException;
+  }
+
+  /**
+   * Runs the query on the connection, with the arguments as the values of its
+   * parameters, in order. The rows must be closed after use.
+   */
+  Rows query(EsqlConnection con, Statement statement, Object... args) throws SQLException {
+    if (prepared) {
+      PreparedStatement ps = prepare(con, statement, args);
+      ResultSet rs;
+      try {
+        rs = ps.executeQuery();
+      } catch (SQLException e) {
+        ps.close();
+        throw e;
+      }
+      return new Rows() {
+        @Override public boolean next()             throws SQLException { return rs.next(); }
+        @Override public String  string(int column) throws SQLException { return rs.getString(column); }
+        @Override public UUID    uuid(int column)   throws SQLException { return LookupStatements.uuid(rs, column); }
+        @Override public long    number(int column) throws SQLException { return rs.getLong(column); }
+        @Override public void    close()            throws SQLException { ps.close(); }
+      };
+    } else {
+      Result rs = con.exec(statement.esql(), params(statement, args));
+      return new Rows() {
+        @Override public boolean next() { return rs.toNext(); }
+
+        @Override
+        public String string(int column) {
+          Object value = rs.value(column);
+          return value == null ? null : value.toString();
+        }
+
+        @Override
+        public UUID uuid(int column) {
+          Object value = rs.value(column);
+          return value == null || value instanceof UUID ? (UUID)value : UUID.fromString(value.toString());
+        }
+
+        @Override
+        public long number(int column) {
+          Object value = rs.value(column);
+          return value == null ? 0 : ((Number)value).longValue();
+        }
+
+        @Override public void close() { rs.close(); }
+      };
+    }
+  }
+
+  /**
+   * Runs the insert, update or delete statement on the connection, with the
+   * arguments as the values of its parameters, in order.
+   */
+  void update(EsqlConnection con, Statement statement, Object... args) throws SQLException {
+    if (prepared) {
+      try (PreparedStatement ps = prepare(con, statement, args)) {
+        ps.executeUpdate();
+      }
+    } else {
+      con.exec(statement.esql(), params(statement, args));
+    }
+  }
+
+  private PreparedStatement prepare(EsqlConnection con,
+                                    Statement      statement,
+                                    Object...      args) throws SQLException {
+    PreparedStatement ps = con.con().prepareStatement(statement.sql());
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if (args[i] instanceof UUID id) {
+          uuid(ps, i + 1, id, postgresql);
+        } else if (args[i] instanceof Number n) {
+          ps.setLong(i + 1, n.longValue());
+        } else {
+          ps.setString(i + 1, (String)args[i]);
+        }
+      }
+      return ps;
+    } catch (SQLException | RuntimeException e) {
+      ps.close();
+      throw e;
+    }
+  }
+
+  private static QueryParams params(Statement statement, Object... args) {
+    QueryParams params = new QueryParams();
+    for (int i = 0; i < args.length; i++) {
+      params.add(statement.params()[i], args[i]);
+    }
+    return params;
+  }
+
+  /**
+   * Sets a uuid parameter of SQL run on PostgreSQL or SQL Server: PostgreSQL
+   * accepts UUIDs directly while SQL Server converts their string form to
+   * uniqueidentifier.
+   */
+  static void uuid(PreparedStatement ps, int index, UUID id, boolean postgresql) throws SQLException {
+    if (postgresql) {
+      ps.setObject(index, id);
+    } else {
+      ps.setString(index, id == null ? null : id.toString());
+    }
+  }
+
+  /**
+   * Reads a uuid column of SQL run on PostgreSQL or SQL Server, returned as a
+   * UUID by PostgreSQL and as a string by SQL Server.
+   */
+  static UUID uuid(ResultSet rs, int index) throws SQLException {
+    String id = rs.getString(index);
+    return id == null ? null : UUID.fromString(id);
+  }
+
+  /**
+   * True if the statements are run as SQL, on PostgreSQL and SQL Server.
+   */
+  final boolean prepared;
+
+  private final boolean postgresql;
+}
@@ -0,0 +1,607 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import ma.vi.base.lang.NotFoundException;
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.lang.System.Logger.Level.WARNING;
+import static ma.vi.esql.lookup.LookupStatements.uuid;
+import static ma.vi.esql.translation.Translatable.Target.POSTGRESQL;
+
+/**
+ * <p>
+ * Writes a lookup and its values to the database in bulk, on a single
+ * connection and in a single transaction. Values are buffered and written in
+ * batches: on PostgreSQL and SQL Server, each batch is inserted with JDBC
+ * batching into a temporary staging table and applied to the lookup with one
+ * set-based update of the existing values and one insert of the new ones.
+ * Value links are staged in the same way and applied on {@link #commit()}
+ * with a single insert, resolving their targets by lookup name and code in
+ * the database.
+ * </p>
+ *
+ * <p>
+ * On other databases, which do not share the syntax of temporary tables and
+ * of updates with joins, each value of a batch is updated or inserted with
+ * its own statements (see {@link LookupStatements}) and value links are kept
+ * in memory until the commit, where they are inserted one at a time.
+ * </p>
+ *
+ * <p>
+ * The values of the lookup which are not written before the commit are
+ * deleted, as are all value links of the lookup not written. A value written
+ * more than once replaces the earlier one. On PostgreSQL and SQL Server,
+ * memory use is bounded by the batch size, irrespective of the number of
+ * values written.
+ * </p>
+ *
+ * <p>
+ * Nothing is saved if the writer is closed without being committed. A writer
+ * can also write on a connection supplied by the caller, in the transaction of
+ * that connection (see {@link LookupExtension#lookupWriter(EsqlConnection, Lookup)}):
+ * committing the writer then only completes the writing of the lookup, which
+ * is saved, or not, with the rest of the transaction when the caller commits
+ * or rolls it back.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class LookupWriter implements AutoCloseable {
+  LookupWriter(Database db, Lookup lookup, int batchSize, int pathDepth) {
+    this(db, db.esql(), true, lookup, batchSize, pathDepth);
+  }
+
+  /**
+   * Creates a writer on the connection which, if not owned, is left open and
+   * in the transaction of the caller.
+   */
+  LookupWriter(Database       db,
+               EsqlConnection esql,
+               boolean        owned,
+               Lookup         lookup,
+               int            batchSize,
+               int            pathDepth) {
+    this.statements = new LookupStatements(db);
+    this.bulk = statements.prepared;
+    this.postgresql = db.target() == POSTGRESQL;
+    this.batchSize = batchSize;
+    this.pathDepth = pathDepth;
+    this.valueStage = postgresql ? "lookup_value_stage" : "#lookup_value_stage";
+    this.linkStage  = postgresql ? "lookup_link_stage"  : "#lookup_link_stage";
+    this.esql = esql;
+    this.con = esql.con();
+    this.owned = owned;
+    try {
+      if (owned) {
+        autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+      }
+      if (bulk) {
+        createStagingTables();
+      }
+      lookupId = saveLookup(lookup);
+      /*
+       * Mark existing values with a special version which is changed for
+       * updated values; those left with that version when committing were not
+       * written and are deleted.
+       */
+      statements.update(esql, LookupStatements.MARK_VALUES, lookupId);
+    } catch (SQLException e) {
+      close();
+      throw new RuntimeException(e);
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * The id of the lookup being written.
+   */
+  public UUID lookupId() {
+    return lookupId;
+  }
+
+  /**
+   * Adds the value to the lookup. The value is buffered and written with the
+   * next batch.
+   */
+  public void write(LookupValue value) {
+    if (committed) {
+      throw new IllegalStateException("Lookup writer has already been committed");
+    }
+    buffer.put(value.code(), value);
+    if (buffer.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes the buffered values to the database, without committing them.
+   */
+  public void flush() {
+    if (!buffer.isEmpty()) {
+      try {
+        if (bulk) {
+          stage();
+        } else {
+          for (LookupValue value: buffer.values()) {
+            writeValue(value);
+          }
+        }
+        buffer.clear();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Stages the buffered values and their links, then updates the existing
+   * values of the lookup and inserts the new ones from the staged values.
+   */
+  private void stage() throws SQLException {
+    try (Statement st = con.createStatement()) {
+      st.executeUpdate("delete from " + valueStage);
+    }
+
+    /*
+     * Stage the values and their links.
+     */
+    try (PreparedStatement ps = con.prepareStatement(
+             "insert into " + valueStage + "(_id, code, alt_code1, alt_code2, label, description, lang) "
+           + "values(?, ?, ?, ?, ?, ?, ?)")) {
+      for (LookupValue value: buffer.values()) {
+        uuid(ps, 1, UUID.randomUUID(), postgresql);
+        ps.setString(2, value.code());
+        ps.setString(3, value.altCode1());
+        ps.setString(4, value.altCode2());
+        ps.setString(5, value.label());
+        ps.setString(6, value.description());
+        ps.setString(7, value.lang() == null ? "en" : value.lang());
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    }
+
+    /*
+     * Values written again replace the links staged for them earlier.
+     */
+    try (Statement st = con.createStatement()) {
+      st.executeUpdate("delete from " + linkStage
+                     + " where source_code in (select code from " + valueStage + ")");
+    }
+    try (PreparedStatement ps = con.prepareStatement(
+             "insert into " + linkStage + "(_id, source_code, name, target_lookup, target_code) "
+           + "values(?, ?, ?, ?, ?)")) {
+      boolean links = false;
+      for (LookupValue value: buffer.values()) {
+        if (value.links() != null) {
+          for (LookupValueLink link: value.links()) {
+            uuid(ps, 1, UUID.randomUUID(), postgresql);
+            ps.setString(2, value.code());
+            ps.setString(3, link.name());
+            ps.setString(4, link.target().lookup());
+            ps.setString(5, link.target().code());
+            ps.addBatch();
+            links = true;
+          }
+        }
+      }
+      if (links) {
+        ps.executeBatch();
+      }
+    }
+
+    /*
+     * Update existing values and insert new ones.
+     */
+    try (PreparedStatement ps = con.prepareStatement(postgresql
+             ? """
+               update _lookup."LookupValue" v
+                  set _version=2,
+                      alt_code1=s.alt_code1,
+                      alt_code2=s.alt_code2,
+                      label=s.label,
+                      description=s.description,
+                      lang=s.lang
+                 from lookup_value_stage s
+                where v.lookup_id=?
+                  and v.code=s.code"""
+             : """
+               update v
+                  set _version=2,
+                      alt_code1=s.alt_code1,
+                      alt_code2=s.alt_code2,
+                      label=s.label,
+                      description=s.description,
+                      lang=s.lang
+                 from _lookup."LookupValue" v
+                 join #lookup_value_stage s on s.code=v.code
+                where v.lookup_id=?""")) {
+      uuid(ps, 1, lookupId, postgresql);
+      ps.executeUpdate();
+    }
+    try (PreparedStatement ps = con.prepareStatement(
+             """
+             insert into _lookup."LookupValue"(_id, _version, lookup_id, code, alt_code1, alt_code2, label, description, lang)
+             select s._id, 1, ?, s.code, s.alt_code1, s.alt_code2, s.label, s.description, s.lang
+               from %s s
+              where not exists(select 1
+                                 from _lookup."LookupValue" v
+                                where v.lookup_id=?
+                                  and v.code=s.code)""".formatted(valueStage))) {
+      uuid(ps, 1, lookupId, postgresql);
+      uuid(ps, 2, lookupId, postgresql);
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * Updates or inserts the value on its own and keeps its links, replacing
+   * those kept for an earlier write of the value, to insert on commit.
+   */
+  private void writeValue(LookupValue value) throws SQLException {
+    UUID valueId = null;
+    try (LookupStatements.Rows rs = statements.query(esql, LookupStatements.VALUE_ID, lookupId, value.code())) {
+      if (rs.next()) {
+        valueId = rs.uuid(1);
+      }
+    }
+    String lang = value.lang() == null ? "en" : value.lang();
+    if (valueId != null) {
+      statements.update(esql, LookupStatements.UPDATE_VALUE,
+                        value.altCode1(),
+                        value.altCode2(),
+                        value.label(),
+                        value.description(),
+                        lang,
+                        valueId);
+    } else {
+      valueId = UUID.randomUUID();
+      statements.update(esql, LookupStatements.INSERT_VALUE,
+                        valueId,
+                        lookupId,
+                        value.code(),
+                        value.altCode1(),
+                        value.altCode2(),
+                        value.label(),
+                        value.description(),
+                        lang);
+    }
+    if (value.links() == null || value.links().isEmpty()) {
+      links.remove(valueId);
+    } else {
+      links.put(valueId, value.links());
+    }
+  }
+
+  /**
+   * Writes the remaining buffered values, replaces the value links of the
+   * lookup with the links written, deletes the values not written and commits
+   * the transaction, unless the connection was supplied by the caller who then
+   * commits it. Throws a {@link NotFoundException} and saves nothing if a link
+   * refers to a value which does not exist.
+   *
+   * @return The id of the saved lookup.
+   */
+  public UUID commit() {
+    flush();
+    try {
+      statements.update(esql, LookupStatements.DELETE_LOOKUP_VALUE_LINKS, lookupId);
+      statements.update(esql, LookupStatements.DELETE_UNMARKED_VALUES, lookupId);
+      if (bulk) {
+        insertStagedLinks();
+      } else {
+        insertLinks();
+      }
+
+      /*
+       * Recompute the materialised paths through the values of the lookup.
+       */
+      if (pathDepth > 0) {
+        ValuePaths.refresh(con, postgresql, pathDepth, lookupId);
+      }
+
+      /*
+       * Increment the version of the lookup so that other nodes caching it
+       * reload it when they next synchronise their caches.
+       */
+      statements.update(esql, LookupStatements.INCREMENT_VERSION, lookupId);
+      if (owned) {
+        con.commit();
+      }
+      committed = true;
+      return lookupId;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Inserts the staged links, once their targets have been checked to exist.
+   */
+  private void insertStagedLinks() throws SQLException {
+    try (PreparedStatement ps = con.prepareStatement(
+             """
+             select l.target_lookup, l.target_code
+               from %s l
+              where not exists(select 1
+                                 from _lookup."LookupValue" tv
+                                 join _lookup."Lookup" tl on tl._id=tv.lookup_id
+                                where tl.name=l.target_lookup
+                                  and tv.code=l.target_code)""".formatted(linkStage))) {
+      try (ResultSet rs = ps.executeQuery()) {
+        if (rs.next()) {
+          throw new NotFoundException("code='" + rs.getString(2)
+                                    + "' not found in lookup "
+                                    + rs.getString(1));
+        }
+      }
+    }
+    try (PreparedStatement ps = con.prepareStatement(
+             """
+             insert into _lookup."LookupValueLink"(_id, _version, name, source_value_id, target_value_id)
+             select l._id, 1, l.name, sv._id, tv._id
+               from %s l
+               join _lookup."LookupValue" sv on sv.lookup_id=? and sv.code=l.source_code
+               join _lookup."Lookup"      tl on tl.name=l.target_lookup
+               join _lookup."LookupValue" tv on tv.lookup_id=tl._id and tv.code=l.target_code""".formatted(linkStage))) {
+      uuid(ps, 1, lookupId, postgresql);
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * Inserts the links kept in memory, one at a time.
+   */
+  private void insertLinks() throws SQLException {
+    for (Map.Entry<UUID, List<LookupValueLink>> e: links.entrySet()) {
+      for (LookupValueLink link: e.getValue()) {
+        UUID targetId = null;
+        try (LookupStatements.Rows rs = statements.query(esql, LookupStatements.LINK_TARGET_ID,
+                                                         link.target().lookup(),
+                                                         link.target().code())) {
+          if (rs.next()) {
+            targetId = rs.uuid(1);
+          }
+        }
+        if (targetId == null) {
+          throw new NotFoundException("code='" + link.target().code()
+                                    + "' not found in lookup "
+                                    + link.target().lookup());
+        }
+        statements.update(esql, LookupStatements.INSERT_VALUE_LINK,
+                          UUID.randomUUID(), link.name(), e.getKey(), targetId);
+      }
+    }
+  }
+
+  /**
+   * Rolls back the transaction if it has not been committed, restores the
+   * auto-commit mode of the connection and releases it. A connection supplied by the caller is left open and its
+   * transaction is left to the caller to commit or roll back.
+   */
+  @Override
+  public void close() {
+    if (!owned) {
+      try {
+        dropStagingTables();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+      return;
+    }
+    try {
+      if (!committed) {
+        con.rollback();
+      }
+      if (dropStagingTables()) {
+        con.commit();
+      }
+      con.setAutoCommit(autoCommit);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      try {
+        esql.close();
+      } catch (RuntimeException e) {
+        log.log(WARNING, "Could not close connection", e);
+      }
+    }
+  }
+
+  /**
+   * Drops the local temporary staging tables of SQL Server, returning true if
+   * they were dropped; those of PostgreSQL are dropped with the transaction.
+   */
+  private boolean dropStagingTables() throws SQLException {
+    if (bulk && !postgresql) {
+      try (Statement st = con.createStatement()) {
+        st.executeUpdate("drop table if exists #lookup_value_stage");
+        st.executeUpdate("drop table if exists #lookup_link_stage");
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Creates the staging tables: on PostgreSQL, as temporary tables dropped on
+   * commit or rollback; on SQL Server, as local temporary tables dropped on
+   * close, as the connection may be reused by the pool. Staging tables left
+   * by an earlier writer in the same transaction are dropped first.
+   */
+  private void createStagingTables() throws SQLException {
+    try (Statement st = con.createStatement()) {
+      if (postgresql) {
+        st.executeUpdate("drop table if exists lookup_value_stage");
+        st.executeUpdate("drop table if exists lookup_link_stage");
+        st.executeUpdate("""
+                         create temporary table lookup_value_stage(
+                           _id         uuid,
+                           code        text,
+                           alt_code1   text,
+                           alt_code2   text,
+                           label       text,
+                           description text,
+                           lang        text) on commit drop""");
+        st.executeUpdate("""
+                         create temporary table lookup_link_stage(
+                           _id           uuid,
+                           source_code   text,
+                           name          text,
+                           target_lookup text,
+                           target_code   text) on commit drop""");
+      } else {
+        st.executeUpdate("drop table if exists #lookup_value_stage");
+        st.executeUpdate("drop table if exists #lookup_link_stage");
+        st.executeUpdate("""
+                         create table #lookup_value_stage(
+                           _id         uniqueidentifier,
+                           code        nvarchar(max),
+                           alt_code1   nvarchar(max),
+                           alt_code2   nvarchar(max),
+                           label       nvarchar(max),
+                           description nvarchar(max),
+                           lang        nvarchar(max))""");
+        st.executeUpdate("""
+                         create table #lookup_link_stage(
+                           _id           uniqueidentifier,
+                           source_code   nvarchar(max),
+                           name          nvarchar(max),
+                           target_lookup nvarchar(max),
+                           target_code   nvarchar(max))""");
+      }
+    }
+  }
+
+  /**
+   * Creates or updates the lookup and its links to other lookups, returning
+   * the id of the lookup.
+   */
+  private UUID saveLookup(Lookup lookup) throws SQLException {
+    UUID id = lookupId(lookup.name());
+    if (id != null) {
+      statements.update(esql, LookupStatements.UPDATE_LOOKUP,
+                        lookup.displayName(),
+                        lookup.description(),
+                        lookup.group(),
+                        id);
+    } else {
+      id = lookup.id();
+      statements.update(esql, LookupStatements.INSERT_LOOKUP,
+                        id,
+                        lookup.name(),
+                        lookup.displayName(),
+                        lookup.description(),
+                        lookup.group());
+    }
+
+    /*
+     * Update links: set a special version on existing links, change that
+     * version for updated links, then delete those which were not updated
+     * (meaning that they were not present in the definition).
+     */
+    statements.update(esql, LookupStatements.MARK_LINKS, id);
+    if (lookup.links() != null) {
+      int seq = 1;
+      for (Lookup link: lookup.links()) {
+        /*
+         * Linked lookups are identified by name, so that they need not be loaded.
+         */
+        UUID targetId = lookupId(link.name());
+        if (targetId == null) {
+          throw new NotFoundException("Lookup named '" + link.name() + "' not found.");
+        }
+        UUID linkId = null;
+        try (LookupStatements.Rows rs = statements.query(esql, LookupStatements.LINK_ID, id, targetId)) {
+          if (rs.next()) {
+            linkId = rs.uuid(1);
+          }
+        }
+        if (linkId != null) {
+          statements.update(esql, LookupStatements.UPDATE_LINK_SEQ, seq, linkId);
+        } else {
+          statements.update(esql, LookupStatements.INSERT_LINK_SEQ, UUID.randomUUID(), id, targetId, seq);
+        }
+        seq++;
+      }
+    }
+    statements.update(esql, LookupStatements.DELETE_UNMARKED_LINKS, id);
+    return id;
+  }
+
+  /**
+   * The id of the named lookup, or null if there is no such lookup.
+   */
+  private UUID lookupId(String name) throws SQLException {
+    try (LookupStatements.Rows rs = statements.query(esql, LookupStatements.LOOKUP_ID, name)) {
+      return rs.next() ? rs.uuid(1) : null;
+    }
+  }
+
+  private final EsqlConnection esql;
+
+  /**
+   * The JDBC connection of {@link #esql}, on which batches are staged and
+   * the transaction is controlled.
+   */
+  private final Connection con;
+
+  /**
+   * Whether the connection was obtained by this writer, which then commits
+   * and closes it, or supplied by the caller.
+   */
+  private final boolean owned;
+
+  private final LookupStatements statements;
+
+  /**
+   * Whether values are staged and applied in bulk, on PostgreSQL and SQL
+   * Server, or written one at a time, on other databases.
+   */
+  private final boolean bulk;
+
+  private final boolean postgresql;
+  private final int batchSize;
+  private final int pathDepth;
+  private final String valueStage;
+  private final String linkStage;
+  private final UUID lookupId;
+
+  /**
+   * Values to write with the next batch, by code.
+   */
+  private final Map<String, LookupValue> buffer = new LinkedHashMap<>();
+
+  /**
+   * Links of the values written, by value id, inserted on commit when values
+   * are not written in bulk.
+   */
+  private final Map<UUID, List<LookupValueLink>> links = new LinkedHashMap<>();
+
+  private boolean committed;
+
+  /**
+   * The auto-commit mode of an owned connection when it was obtained,
+   * restored on close as the connection may be pooled.
+   */
+  private boolean autoCommit = true;
+
+  private static final System.Logger log = System.getLogger(LookupWriter.class.getName());
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable table of interned strings packed in a single character array.
+ * Each distinct string is stored once and referred to by its index in the
+ * table; strings are only materialised when {@link #get(int)} is called, and
+ * can be compared to other character sequences without allocation.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class StringTable {
+  private StringTable(char[] chars, int[] offsets) {
+    this.chars = chars;
+    this.offsets = offsets;
+  }
+
+  /**
+   * The number of distinct strings in this table.
+   */
+  int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * Returns the string at the index or null if the index is negative (used
+   * for null values).
+   */
+  String get(int index) {
+    return index < 0 ? null : new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+  }
+
+  /**
+   * Returns true if the string at the index has the same characters as the
+   * supplied sequence. A negative index (a null value) only matches null.
+   */
+  boolean equals(int index, CharSequence s) {
+    if (index < 0 || s == null) {
+      return index < 0 && s == null;
+    }
+    int start = offsets[index];
+    int length = offsets[index + 1] - start;
+    if (length != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (chars[start + i] != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The hash code of the string at the index, as returned by
+   * {@link String#hashCode()}, computed without materialising the string.
+   */
+  int hashCode(int index) {
+    int h = 0;
+    for (int i = offsets[index]; i < offsets[index + 1]; i++) {
+      h = 31 * h + chars[i];
+    }
+    return h;
+  }
+
+  /**
+   * Approximate number of bytes used by this table.
+   */
+  long estimatedBytes() {
+    return 32L + 2L * chars.length + 4L * offsets.length;
+  }
+
+  /**
+   * Builds a string table, interning strings as they are added.
+   */
+  static final class Builder {
+    /**
+     * Adds the string to the table if not already present and returns its
+     * index; null strings are not stored and are given the index -1.
+     */
+    int intern(String s) {
+      if (s == null) {
+        return -1;
+      }
+      Integer index = interned.get(s);
+      if (index == null) {
+        index = interned.size();
+        interned.put(s, index);
+        if (count + 1 >= offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        int end = offsets[count] + s.length();
+        if (end > chars.length) {
+          chars = Arrays.copyOf(chars, Math.max(end, chars.length * 2));
+        }
+        s.getChars(0, s.length(), chars, offsets[count]);
+        offsets[++count] = end;
+      }
+      return index;
+    }
+
+    StringTable build() {
+      return new StringTable(Arrays.copyOf(chars, offsets[count]),
+                             Arrays.copyOf(offsets, count + 1));
+    }
+
+    private final Map<String, Integer> interned = new HashMap<>();
+    private char[] chars = new char[256];
+    private int[] offsets = new int[64];
+    private int count = 0;
+  }
+
+  private final char[] chars;
+  private final int[] offsets;
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+import static ma.vi.esql.lookup.LookupStatements.uuid;
+
+/**
+ * <p>
+ * Maintains the materialised paths of lookup values in
+ * <code>_lookup.LookupValuePath</code>: for every value and every sequence of
+ * 2 to <code>maxDepth</code> links which can be followed from it, the value
+ * reached at the end of the sequence. The path is the names of the links
+ * followed, separated by '/'. A label found by following several links from
+ * a value can then be found with a single search on the source value and
+ * path instead of joining to the links and values once per link.
+ * </p>
+ *
+ * <p>
+ * The paths of a value depend on the links of the values reached from it, in
+ * the same or other lookups. When a lookup is saved, the paths are therefore
+ * recomputed for the values of the lookup and of all lookups linking to it,
+ * directly or indirectly, with a recursive query. When a single value is
+ * saved, only the paths which can go through it are recomputed: those
+ * starting at the value and those of the values reaching it, found from the
+ * links and paths ending at the value.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class ValuePaths {
+  private ValuePaths() {}
+
+  /**
+   * Recomputes the paths of the values of the lookup and of the lookups
+   * linking to it, directly or indirectly, on the connection and within its
+   * current transaction.
+   */
+  static void refresh(Connection con,
+                      boolean    postgresql,
+                      int        maxDepth,
+                      UUID       lookupId) throws SQLException {
+    Set<UUID> lookups = linkingLookups(con, lookupId);
+    String in = String.join(",", Collections.nCopies(lookups.size(), "?"));
+    try (PreparedStatement ps = con.prepareStatement("""
+                                 delete from _lookup."LookupValuePath"
+                                  where source_value_id in (select _id
+                                                              from _lookup."LookupValue"
+                                                             where lookup_id in (%s))""".formatted(in))) {
+      int p = 1;
+      for (UUID lookup: lookups) {
+        uuid(ps, p++, lookup, postgresql);
+      }
+      ps.executeUpdate();
+    }
+    try (PreparedStatement ps = con.prepareStatement(insertPaths(postgresql, "sv.lookup_id in (" + in + ")"))) {
+      int p = 1;
+      for (UUID lookup: lookups) {
+        uuid(ps, p++, lookup, postgresql);
+      }
+      ps.setInt(p, maxDepth);
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * Recomputes the paths starting at the value and at the values reaching it,
+   * on the connection and within its current transaction, after the links of
+   * the value have been changed. A path going through the value has a prefix
+   * ending at the value, which is a link, or a path if longer than one link,
+   * of the source of the path. The paths of other values cannot go through
+   * the value and are not changed.
+   */
+  static void refreshValue(Connection con,
+                           boolean    postgresql,
+                           int        maxDepth,
+                           UUID       valueId) throws SQLException {
+    /*
+     * The sources are read before their paths are deleted, as the paths
+     * ending at the value are among them.
+     */
+    Set<UUID> sources = new LinkedHashSet<>();
+    sources.add(valueId);
+    try (PreparedStatement ps = con.prepareStatement("""
+                                 select source_value_id
+                                   from _lookup."LookupValueLink"
+                                  where target_value_id=?
+                                  union
+                                 select source_value_id
+                                   from _lookup."LookupValuePath"
+                                  where target_value_id=?""")) {
+      uuid(ps, 1, valueId, postgresql);
+      uuid(ps, 2, valueId, postgresql);
+      try (ResultSet rs = ps.executeQuery()) {
+        while (rs.next()) {
+          sources.add(uuid(rs, 1));
+        }
+      }
+    }
+
+    /*
+     * Sources are refreshed in chunks to keep under the limit of SQL Server
+     * on the number of parameters of a statement.
+     */
+    List<UUID> ids = new ArrayList<>(sources);
+    for (int from = 0; from < ids.size(); from += CHUNK) {
+      List<UUID> chunk = ids.subList(from, Math.min(from + CHUNK, ids.size()));
+      String in = String.join(",", Collections.nCopies(chunk.size(), "?"));
+      try (PreparedStatement ps = con.prepareStatement("""
+                                   delete from _lookup."LookupValuePath"
+                                    where source_value_id in (%s)""".formatted(in))) {
+        int p = 1;
+        for (UUID source: chunk) {
+          uuid(ps, p++, source, postgresql);
+        }
+        ps.executeUpdate();
+      }
+      try (PreparedStatement ps = con.prepareStatement(insertPaths(postgresql, "sv._id in (" + in + ")"))) {
+        int p = 1;
+        for (UUID source: chunk) {
+          uuid(ps, p++, source, postgresql);
+        }
+        ps.setInt(p, maxDepth);
+        ps.executeUpdate();
+      }
+    }
+  }
+
+  /**
+   * Recomputes the paths of all values, on the connection and within its
+   * current transaction.
+   */
+  static void rebuild(Connection con,
+                      boolean    postgresql,
+                      int        maxDepth) throws SQLException {
+    try (Statement st = con.createStatement()) {
+      st.executeUpdate("delete from _lookup.\"LookupValuePath\"");
+    }
+    try (PreparedStatement ps = con.prepareStatement(insertPaths(postgresql, "1=1"))) {
+      ps.setInt(1, maxDepth);
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * The lookup and all lookups linking to it directly or indirectly.
+   */
+  private static Set<UUID> linkingLookups(Connection con, UUID lookupId) throws SQLException {
+    Map<UUID, List<UUID>> linkedFrom = new HashMap<>();
+    try (Statement st = con.createStatement();
+         ResultSet rs = st.executeQuery("""
+                                        select source_lookup_id, target_lookup_id
+                                          from _lookup."LookupLink\"""")) {
+      while (rs.next()) {
+        linkedFrom.computeIfAbsent(uuid(rs, 2), k -> new ArrayList<>())
+                  .add(uuid(rs, 1));
+      }
+    }
+    Set<UUID> lookups = new LinkedHashSet<>();
+    Deque<UUID> pending = new ArrayDeque<>();
+    pending.add(lookupId);
+    while (!pending.isEmpty()) {
+      UUID lookup = pending.poll();
+      if (lookups.add(lookup)) {
+        pending.addAll(linkedFrom.getOrDefault(lookup, List.of()));
+      }
+    }
+    return lookups;
+  }
+
+  /**
+   * Inserts the paths of 2 to maxDepth links (the last parameter) from the
+   * values selected by the source filter on their values (aliased sv).
+   */
+  private static String insertPaths(boolean postgresql, String sourceFilter) {
+    return postgresql
+        ? """
+          with recursive paths(source_value_id, path, target_value_id, depth) as (
+                 select lk.source_value_id, cast(lk.name as text), lk.target_value_id, 1
+                   from _lookup."LookupValueLink" lk
+                   join _lookup."LookupValue"     sv on sv._id=lk.source_value_id
+                  where %s
+
+                  union all
+
+                 select p.source_value_id, p.path || '/' || lk.name, lk.target_value_id, p.depth + 1
+                   from paths p
+                   join _lookup."LookupValueLink" lk on lk.source_value_id=p.target_value_id
+                  where p.depth < ?)
+          insert into _lookup."LookupValuePath"(_id, source_value_id, path, target_value_id)
+          select gen_random_uuid(), source_value_id, path, target_value_id
+            from paths
+           where depth > 1""".formatted(sourceFilter)
+
+        : """
+          with paths(source_value_id, path, target_value_id, depth) as (
+                 select lk.source_value_id, cast(lk.name as nvarchar(max)), lk.target_value_id, 1
+                   from _lookup."LookupValueLink" lk
+                   join _lookup."LookupValue"     sv on sv._id=lk.source_value_id
+                  where %s
+
+                  union all
+
+                 select p.source_value_id, cast(p.path + '/' + lk.name as nvarchar(max)), lk.target_value_id, p.depth + 1
+                   from paths p
+                   join _lookup."LookupValueLink" lk on lk.source_value_id=p.target_value_id
+                  where p.depth < ?)
+          insert into _lookup."LookupValuePath"(_id, source_value_id, path, target_value_id)
+          select newid(), source_value_id, path, target_value_id
+            from paths
+           where depth > 1
+          option (maxrecursion 0)""".formatted(sourceFilter);
+  }
+
+  /**
+   * Maximum number of source values whose paths are refreshed by one statement.
+   */
+  private static final int CHUNK = 1000;
+}
@@ -9,13 +9,19 @@ import ma.vi.esql.exec.env.Environment;
 import ma.vi.esql.exec.function.Function;
 import ma.vi.esql.exec.function.FunctionCall;
 import ma.vi.esql.exec.function.FunctionParam;
+import ma.vi.esql.lookup.LookupExtension;
 import ma.vi.esql.semantic.type.Types;
 import ma.vi.esql.syntax.EsqlPath;
 import ma.vi.esql.syntax.expression.Expression;
+import ma.vi.esql.syntax.expression.literal.StringLiteral;
 import org.pcollections.PMap;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
+
+import static ma.vi.esql.translation.Translatable.Target.ESQL;
+import static ma.vi.esql.translation.Translatable.Target.POSTGRESQL;
 
 /**
  * `Function returning true if an element is in an array. It is translated using
@@ -26,9 +32,19 @@ import java.util.List;
  */
 public class Classify extends Function {
   public Classify() {
+    this(null);
+  }
+
+  /**
+   * Creates the classify function using the lookup extension to find the ids
+   * of lookups named by constants, which are then inlined in the translation
+   * instead of joining to the Lookup table by name.
+   */
+  public Classify(LookupExtension extension) {
     super("classify", Types.StringType,
           Arrays.asList(new FunctionParam("text",   Types.StringType),
                         new FunctionParam("lookup", Types.StringType)));
+    this.extension = extension;
   }
 
   @Override
@@ -36,26 +52,38 @@ public class Classify extends Function {
     List<Expression<?, ?>> args = call.arguments();
     String text   = String.valueOf(args.get(0).translate(target, esqlCon, path.add(args.get(0)), env));
     String lookup = String.valueOf(args.get(1).translate(target, esqlCon, path.add(args.get(1)), env));
+    UUID lookupId = extension != null && args.get(1) instanceof StringLiteral
+                  ? extension.lookupId((String)args.get(1).exec(ESQL, esqlCon, path, call.context.structure))
+                  : null;
+    /*
+     * The values of the lookup, found by lookup id when it is known, without
+     * joining to the Lookup table, and otherwise by joining to it by name,
+     * followed by the conditions of the function.
+     */
+    String values = lookupId != null
+                  ? """
+                    _lookup."LookupValue" value
+                     where value.lookup_id='%s'%s""".formatted(lookupId, target == POSTGRESQL ? "::uuid" : "")
+                  : """
+                    _lookup."LookupValue" value
+                      join _lookup."Lookup"      lookup on lookup._id=value.lookup_id
+                     where lookup.name=%s""".formatted(lookup);
     return switch(target) {
       case POSTGRESQL -> """
                          (select value.code
-                            from _lookup."LookupValue" value
-                            join _lookup."Lookup"      lookup on lookup._id=value.lookup_id
-                                                             and lookup.name=%1$s
-                          where value.label %% %2$s
-                          order by value.label <-> %2$s
-                          limit 1)
-                         """.formatted(lookup, text);
+                            from %1$s
+                             and value.label %% %2$s
+                           order by value.label <-> %2$s
+                           limit 1)
+                         """.formatted(values, text);
 
       case SQLSERVER -> """
                         (select value.code
-                           from _lookup."LookupValue" value
-                           join _lookup."Lookup"      lookup on lookup._id=value.lookup_id
-                                                           and lookup.name=%1$s
-                          where lower(%2$s) like lower(value.label)
+                           from %1$s
+                            and lower(%2$s) like lower(value.label)
                           order by value.code
                           fetch next 1 rows only)
-                        """.formatted(lookup, text);
+                        """.formatted(values, text);
 
 //      case JAVASCRIPT -> "new Set(" + args.get(1).translate(target, esqlCon, path.add(args.get(1)), env) + ").has("
 //                                    + args.get(0).translate(target, esqlCon, path.add(args.get(0)), env) + ")";
@@ -64,4 +92,10 @@ public class Classify extends Function {
                              + args.get(1).translate(target, esqlCon, path.add(args.get(1)), env) + ')';
     };
   }
+
+  /**
+   * The extension used to find lookup ids, or null to always find lookups by
+   * name.
+   */
+  private final LookupExtension extension;
 }
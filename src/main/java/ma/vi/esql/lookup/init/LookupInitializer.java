@@ -1,14 +1,15 @@
 package ma.vi.esql.lookup.init;
 
-import ma.vi.base.collections.ArrayIterator;
 import ma.vi.esql.database.Database;
 import ma.vi.esql.database.init.Initializer;
 import ma.vi.esql.lookup.Lookup;
 import ma.vi.esql.lookup.LookupExtension;
-import ma.vi.esql.lookup.LookupValue;
-import ma.vi.esql.lookup.LookupValueLink;
+import ma.vi.esql.lookup.LookupWriter;
 
+import java.io.BufferedReader;
+import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Create/update lookups in the  database from hierarchical definitions, such
@@ -37,6 +38,9 @@ import java.util.*;
  * </pre>
  * Commas (,) in the values can be escaped by preceding with a backslash (\).
  *
+ * Very large lookups can be loaded with values streamed from an iterator or a
+ * reader instead of being listed in the definition, keeping memory use flat.
+ *
  * @author Vikash Madhow (vikash.madhow@gmail.com)
  */
 public class LookupInitializer implements Initializer<Lookup> {
@@ -46,98 +50,208 @@ public class LookupInitializer implements Initializer<Lookup> {
                     String   name,
                     Lookup   existing,
                     Map<String, Object> definition) {
+    List<String> values = (List<String>)definition.get("values");
+    Lookup added = add(db,
+                       overwrite,
+                       name,
+                       definition,
+                       values == null ? Collections.emptyIterator() : values.iterator());
+    return added == null ? existing : db.extension(LookupExtension.class).loadLookup(name);
+  }
+
+  /**
+   * Creates or updates the lookup from its definition, reading its values, one
+   * per line in the format described above, from the reader. Blank lines are
+   * ignored. See {@link #add(Database, boolean, String, Map, Iterator)}.
+   */
+  public Lookup add(Database db,
+                    boolean  overwrite,
+                    String   name,
+                    Map<String, Object> definition,
+                    Reader   values) {
+    return add(db,
+               overwrite,
+               name,
+               definition,
+               new BufferedReader(values).lines()
+                                         .filter(line -> !line.isBlank())
+                                         .iterator());
+  }
+
+  /**
+   * Creates or updates the lookup from its definition (any values in the
+   * definition are ignored), streaming its values, in the format described
+   * above, from the iterator. Values are parsed and written to the database
+   * in batches as they are read, so that memory use does not depend on the
+   * number of values; they are committed together once all have been written.
+   * The lookup is dropped from the cache, instead of being reloaded, and will
+   * be loaded when next accessed.
+   *
+   * @return The lookup created or updated, without its values and with its
+   *         links identifying the linked lookups by name only, or null if the
+   *         lookup exists and overwrite is false.
+   */
+  public Lookup add(Database db,
+                    boolean  overwrite,
+                    String   name,
+                    Map<String, Object> definition,
+                    Iterator<String>    values) {
     LookupExtension ext = db.extension(LookupExtension.class);
-    if (overwrite || ext.findLookup(name).isEmpty()) {
-      existing = new Lookup(name,
-                            (String)definition.get("group"),
-                            (String)definition.get("displayName"),
-                            (String)definition.get("description"),
-                            new ArrayList<>(),
-                            new HashMap<>(),
-                            new HashMap<>());
-      List<String> links = (List<String>)definition.get("links");
-      if (links != null) {
-        for (String link: links) {
-          existing.links().add(ext.loadLookup(link));
+    if (overwrite || !ext.lookupExists(name)) {
+      /*
+       * Linked lookups are only referred to by name and are not loaded.
+       */
+      List<Lookup> links = new ArrayList<>();
+      for (String link: links(definition)) {
+        links.add(new Lookup(link, null, null, null, List.of(), Map.of(), Map.of()));
+      }
+      Lookup lookup = new Lookup(name,
+                                 (String)definition.get("group"),
+                                 (String)definition.get("displayName"),
+                                 (String)definition.get("description"),
+                                 links,
+                                 Map.of(),
+                                 Map.of());
+      LookupValueParser parser = new LookupValueParser(name, links.stream()
+                                                                  .map(Lookup::name)
+                                                                  .toList());
+      UUID lookupId;
+      try (LookupWriter writer = ext.lookupWriter(lookup)) {
+        while (values.hasNext()) {
+          writer.write(parser.parse(values.next()));
         }
+        lookupId = writer.commit();
       }
-      List<String> values = (List<String>)definition.get("values");
-      if (values != null) {
-        for (String value: values) {
-          String code;
-          String label;
-          String altCode1 = null;
-          String altCode2 = null;
-          String description = null;
-          String lang = null;
-
-          String suffix = null;
-          int pos = value.indexOf('|');
-          if (pos != -1) {
-            suffix = value.substring(pos + 1);
-            value = value.substring(0, pos);
-          }
-
-          value = value.replace("\\,", "\ue000");
-          Iterator<String> i = new ArrayIterator<>(value.split(","));
-          code = clean(i.next());
+      ext.invalidateLookup(name);
+      return new Lookup(lookupId,
+                        lookup.name(),
+                        lookup.group(),
+                        lookup.displayName(),
+                        lookup.description(),
+                        lookup.links(),
+                        Map.of(),
+                        Map.of());
+    }
+    return null;
+  }
 
-          if (!i.hasNext()) {
-            throw new IllegalArgumentException("Missing label from value: " + value);
+  /**
+   * <p>
+   * Creates or updates the lookups from their definitions, keyed by lookup
+   * name, in parallel. The lookups are ordered by their links: a lookup is
+   * saved only after the lookups it links to, among those being added, have
+   * been committed, while lookups which do not depend on each other are saved
+   * concurrently, each on its own connection, with at most <code>parallelism</code>
+   * lookups saved at the same time. Lookups linked to which are not in the
+   * definitions must already exist. Keys starting with '$' are directives
+   * (such as <code>$overwrite</code>) and are ignored.
+   * </p>
+   *
+   * <p>
+   * An {@link IllegalArgumentException} listing the lookups involved is thrown,
+   * before anything is saved, if the links between the lookups form a cycle.
+   * If a lookup fails to be saved, the lookups linking to it, directly or
+   * indirectly, are not saved, while the others are; the first error is then
+   * rethrown.
+   * </p>
+   *
+   * @return The lookups created or updated, as returned by
+   *         {@link #add(Database, boolean, String, Map, Iterator)}, keyed by name.
+   */
+  public Map<String, Lookup> addAll(Database db,
+                                    boolean  overwrite,
+                                    Map<String, Map<String, Object>> definitions,
+                                    int      parallelism) {
+    List<String> order = dependencyOrder(definitions);
+    Map<String, Lookup> added = new ConcurrentHashMap<>();
+    Map<String, CompletableFuture<Void>> tasks = new HashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    try {
+      for (String name: order) {
+        Map<String, Object> definition = definitions.get(name);
+        CompletableFuture<?>[] dependencies = links(definition).stream()
+                                                               .map(tasks::get)
+                                                               .filter(Objects::nonNull)
+                                                               .toArray(CompletableFuture[]::new);
+        tasks.put(name, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+          List<String> values = (List<String>)definition.get("values");
+          Lookup lookup = add(db,
+                              overwrite,
+                              name,
+                              definition,
+                              values == null ? Collections.emptyIterator() : values.iterator());
+          if (lookup != null) {
+            added.put(name, lookup);
           }
-          String part = clean(i.next());
-          if (i.hasNext()) {
-            altCode1 = part;
-            part = clean(i.next());
-            if (i.hasNext()) {
-              altCode2 = part;
-              label = clean(i.next());
-            } else {
-              label = part;
-            }
-          } else {
-            label = part;
+        }, executor));
+      }
+      RuntimeException error = null;
+      for (String name: order) {
+        try {
+          tasks.get(name).join();
+        } catch (CompletionException e) {
+          if (error == null) {
+            error = e.getCause() instanceof RuntimeException re ? re : e;
           }
-          if (i.hasNext()) description = clean(i.next());
-          if (i.hasNext()) lang = clean(i.next());
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return added;
+  }
 
-          LookupValue lv = new LookupValue(
-              UUID.randomUUID(),
-              name,
-              code,
-              altCode1,
-              altCode2,
-              label,
-              description,
-              lang,
-              new ArrayList<>());
+  /**
+   * Orders the lookup definitions such that each lookup comes after the
+   * lookups it links to among the definitions, failing if there is a cycle.
+   */
+  private static List<String> dependencyOrder(Map<String, Map<String, Object>> definitions) {
+    List<String> order = new ArrayList<>();
+    Map<String, Boolean> visited = new HashMap<>();  // false while visiting, true once ordered
+    for (String name: definitions.keySet()) {
+      if (!name.startsWith("$")) {
+        visit(name, definitions, visited, new ArrayDeque<>(), order);
+      }
+    }
+    return order;
+  }
 
-          if (suffix != null) {
-            String[] linkValues = suffix.split("\\|");
-            if (linkValues.length != existing.links().size()) {
-              throw new IllegalArgumentException(linkValues.length + " linked codes "
-                                              + "were provided but " + existing.links().size()
-                                              + " links have been defined on the lookup "
-                                              + existing.name());
-            }
-            for (int j = 0; j < linkValues.length; j++) {
-              Lookup linkDef = existing.links().get(j);
-              lv.links().add(new LookupValueLink(linkDef.name(),
-                                                 ext.loadLookupValue(linkDef.name(),
-                                                                     linkValues[j].trim())));
-            }
-          }
-          existing.values().put(lv.code(),   lv);
-          existing.valuesById().put(lv.id(), lv);
+  private static void visit(String name,
+                            Map<String, Map<String, Object>> definitions,
+                            Map<String, Boolean> visited,
+                            Deque<String> path,
+                            List<String> order) {
+    Boolean state = visited.get(name);
+    if (state == null) {
+      visited.put(name, false);
+      path.addLast(name);
+      for (String link: links(definitions.get(name))) {
+        if (definitions.containsKey(link)) {
+          visit(link, definitions, visited, path, order);
         }
       }
-      ext.saveLookup(existing);
+      path.removeLast();
+      visited.put(name, true);
+      order.add(name);
+    } else if (!state) {
+      List<String> cycle = new ArrayList<>();
+      boolean inCycle = false;
+      for (String lookup: path) {
+        inCycle |= lookup.equals(name);
+        if (inCycle) cycle.add(lookup);
+      }
+      cycle.add(name);
+      throw new IllegalArgumentException("Lookups cannot be initialised as their links form a cycle: "
+                                       + String.join(" -> ", cycle));
     }
-    return existing;
   }
 
-  private String clean(String s) {
-    return s.replace("\ue000", ",").trim();
+  private static List<String> links(Map<String, Object> definition) {
+    List<String> links = (List<String>)definition.get("links");
+    return links == null ? List.of() : links;
   }
 
   @Override
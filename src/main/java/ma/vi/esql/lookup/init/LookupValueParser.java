@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.lookup.init;
+
+import ma.vi.esql.lookup.LookupValue;
+import ma.vi.esql.lookup.LookupValueLink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Parses lookup values in the format used by {@link LookupInitializer}:
+ * <pre>
+ *   code[,alt_code1][,alt_code2],label[,description][,lang][|link codes]*
+ * </pre>
+ * Each line is scanned once, character by character, without regular
+ * expressions or intermediate strings and arrays: only the strings of the
+ * parsed value are allocated. A parser is not thread-safe; it reuses its
+ * buffers from one line to the next.
+ * </p>
+ *
+ * <p>
+ * The result is identical to that of splitting the line on commas and pipes:
+ * commas preceded by a backslash are part of the field, fields are trimmed,
+ * trailing empty fields are ignored and the link codes start at the first
+ * pipe, and the same errors are raised for a missing label and for a number
+ * of link codes different from the number of links of the lookup.
+ * </p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class LookupValueParser {
+  /**
+   * Creates a parser for values of the named lookup.
+   *
+   * @param lookup The name of the lookup.
+   * @param links  The names of the lookups linked to the lookup, in the order
+   *               in which the link codes are given in each value.
+   */
+  public LookupValueParser(String lookup, List<String> links) {
+    this.lookup = lookup;
+    this.links = List.copyOf(links);
+  }
+
+  /**
+   * Parses the value. Linked values are referred to by their lookup and code
+   * only; they are resolved when the value is saved.
+   */
+  public LookupValue parse(String line) {
+    /*
+     * Scan the fields up to the first pipe, unescaping commas into the buffer
+     * and recording where each field ends in it.
+     */
+    int length = line.length();
+    buffer.setLength(0);
+    int fields = 0;
+    int pos = 0;
+    for (; pos < length; pos++) {
+      char c = line.charAt(pos);
+      if (c == '|') {
+        break;
+      } else if (c == ',') {
+        fieldEnd(fields++);
+      } else if (c == '\\' && pos + 1 < length && line.charAt(pos + 1) == ',') {
+        buffer.append(',');
+        pos++;
+      } else {
+        buffer.append(c == ESCAPED_COMMA ? ',' : c);
+      }
+    }
+    fieldEnd(fields++);
+    int suffix = pos;
+
+    /*
+     * Trailing empty fields are ignored, unless there is a single one.
+     */
+    if (fields > 1) {
+      while (fields > 0 && fieldLength(fields - 1) == 0) {
+        fields--;
+      }
+    }
+    if (fields == 0) {
+      throw new NoSuchElementException();
+    }
+    if (fields == 1) {
+      throw new IllegalArgumentException("Missing label from value: "
+                                       + line.substring(0, suffix).replace("\\,", "\ue000"));
+    }
+
+    String code = field(0);
+    String altCode1 = null;
+    String altCode2 = null;
+    String label;
+    int next;
+    if (fields == 2) {
+      label = field(1);
+      next = 2;
+    } else if (fields == 3) {
+      altCode1 = field(1);
+      label = field(2);
+      next = 3;
+    } else {
+      altCode1 = field(1);
+      altCode2 = field(2);
+      label = field(3);
+      next = 4;
+    }
+    String description = next     < fields ? field(next)     : null;
+    String lang        = next + 1 < fields ? field(next + 1) : null;
+
+    List<LookupValueLink> valueLinks = new ArrayList<>(links.size());
+    if (suffix < length) {
+      /*
+       * Split link codes on pipes, ignoring trailing empty codes unless there
+       * is a single one.
+       */
+      int codes = 0;
+      codesStart = suffix + 1;
+      for (int i = codesStart; i <= length; i++) {
+        if (i == length || line.charAt(i) == '|') {
+          codeEnd(codes++, i);
+        }
+      }
+      if (codes > 1) {
+        while (codes > 0 && codeStart(codes - 1) == ends[codes - 1]) {
+          codes--;
+        }
+      }
+      if (codes != links.size()) {
+        throw new IllegalArgumentException(codes + " linked codes "
+                                         + "were provided but " + links.size()
+                                         + " links have been defined on the lookup "
+                                         + lookup);
+      }
+      for (int j = 0; j < codes; j++) {
+        String linkName = links.get(j);
+        valueLinks.add(new LookupValueLink(linkName,
+                                           new LookupValue(null,
+                                                           linkName,
+                                                           trim(line, codeStart(j), ends[j]),
+                                                           null,
+                                                           null,
+                                                           null,
+                                                           null,
+                                                           null,
+                                                           List.of())));
+      }
+    }
+    return new LookupValue(UUID.randomUUID(),
+                           lookup,
+                           code,
+                           altCode1,
+                           altCode2,
+                           label,
+                           description,
+                           lang,
+                           valueLinks);
+  }
+
+  private void fieldEnd(int field) {
+    if (field == ends.length) {
+      ends = Arrays.copyOf(ends, ends.length * 2);
+    }
+    ends[field] = buffer.length();
+  }
+
+  private int fieldStart(int field) {
+    return field == 0 ? 0 : ends[field - 1];
+  }
+
+  private int fieldLength(int field) {
+    return ends[field] - fieldStart(field);
+  }
+
+  private String field(int field) {
+    return trim(buffer, fieldStart(field), ends[field]);
+  }
+
+  /*
+   * Link codes reuse the field ends array as the fields have been extracted by
+   * then; each code starts one past the end of the previous one, the first
+   * just after the first pipe.
+   */
+  private void codeEnd(int code, int end) {
+    if (code == ends.length) {
+      ends = Arrays.copyOf(ends, ends.length * 2);
+    }
+    ends[code] = end;
+  }
+
+  private int codeStart(int code) {
+    return code == 0 ? codesStart : ends[code - 1] + 1;
+  }
+
+  /**
+   * Returns the trimmed sequence between start and end, as {@link String#trim()}.
+   */
+  private static String trim(CharSequence s, int start, int end) {
+    while (start < end && s.charAt(start) <= ' ') start++;
+    while (end > start && s.charAt(end - 1) <= ' ') end--;
+    return s.subSequence(start, end).toString();
+  }
+
+  private final String lookup;
+  private final List<String> links;
+
+  /**
+   * The unescaped fields of the line being parsed, and the end of each field
+   * (or link code) in the buffer (or line).
+   */
+  private final StringBuilder buffer = new StringBuilder(128);
+  private int[] ends = new int[8];
+  private int codesStart;
+
+  /**
+   * Character to which escaped commas were translated by the original parser,
+   * and which it then restored to commas.
+   */
+  private static final char ESCAPED_COMMA = '\ue000';
+}
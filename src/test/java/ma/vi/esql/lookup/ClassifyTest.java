@@ -0,0 +1,75 @@
+package ma.vi.esql.lookup;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class ClassifyTest extends DataTest {
+  @TestFactory
+  Stream<DynamicTest> classifyInBatch() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   List<String> texts = List.of("mauritus", "Republic of Mauritius", "AFGHANISTAN", "zzzz");
+
+                   /*
+                    * Best match per text above the default threshold; texts
+                    * without a similar label are left out.
+                    */
+                   assertEquals(Map.of("mauritus",              "MU",
+                                       "Republic of Mauritius", "MU",
+                                       "AFGHANISTAN",           "AF"),
+                                ext.classify(texts, "Country"));
+
+                   /*
+                    * Top-k matches, the most similar first.
+                    */
+                   List<Classification> matches = ext.classify(List.of("Mauritius"), "Country", 0.1, 3).get("Mauritius");
+                   assertEquals("MU", matches.get(0).code());
+                   assertEquals(1.0, matches.get(0).similarity());
+                   assertTrue(matches.size() <= 3);
+                   for (int i = 1; i < matches.size(); i++) {
+                     assertTrue(matches.get(i).similarity() <= matches.get(i - 1).similarity());
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> searchKeywords() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+
+                   /*
+                    * Keywords in any order, anywhere in the label.
+                    */
+                   List<String> codes = ext.search("TestDivision", "act ini", 100).stream()
+                                           .map(Classification::code)
+                                           .toList();
+                   assertTrue(codes.containsAll(List.of("09", "82")), codes::toString);
+                   for (Classification c: ext.search("TestDivision", "act ini", 100)) {
+                     assertTrue(c.label().toLowerCase().contains("act")
+                             && c.label().toLowerCase().contains("ini"), c::toString);
+                   }
+
+                   /*
+                    * Best ranked first, and short keywords matching codes.
+                    */
+                   assertEquals("MU", ext.search("Country", "mauritius", 5).get(0).code());
+                   assertTrue(ext.search("Country", "mu", 300).stream().anyMatch(c -> c.code().equals("MU")));
+                   assertTrue(ext.search("Country", "zzzz", 5).isEmpty());
+                 }));
+  }
+}
@@ -40,6 +40,48 @@ public class Databases {
     return sqlServer;
   }
 
+  /**
+   * New instances of the test databases, connected to the same databases as
+   * {@link #databases()} but with their own extensions and lookups cache, as
+   * other nodes of an application would be.
+   */
+  public static Database[] otherNodes() {
+    return new Database[] {
+        new Postgresql(Configuration.of(
+            CONFIG_DB_NAME, "test",
+            CONFIG_DB_USER, "test",
+            CONFIG_DB_PASSWORD, "test",
+            CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class, Configuration.of("schema", "_lookup")))),
+        new SqlServer(Configuration.of(
+            CONFIG_DB_NAME, "test",
+            CONFIG_DB_USER, "test",
+            CONFIG_DB_PASSWORD, "test",
+            CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class, Configuration.EMPTY)))
+    };
+  }
+
+  /**
+   * New instances of the test databases, as {@link #otherNodes()}, with the
+   * value paths materialised up to the given depth.
+   */
+  public static Database[] valuePathNodes(int depth) {
+    return new Database[] {
+        new Postgresql(Configuration.of(
+            CONFIG_DB_NAME, "test",
+            CONFIG_DB_USER, "test",
+            CONFIG_DB_PASSWORD, "test",
+            CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class,
+                                         Configuration.of("schema", "_lookup",
+                                                          LookupExtension.CONFIG_VALUE_PATHS_MAX_DEPTH, depth)))),
+        new SqlServer(Configuration.of(
+            CONFIG_DB_NAME, "test",
+            CONFIG_DB_USER, "test",
+            CONFIG_DB_PASSWORD, "test",
+            CONFIG_DB_EXTENSIONS, Map.of(LookupExtension.class,
+                                         Configuration.of(LookupExtension.CONFIG_VALUE_PATHS_MAX_DEPTH, depth))))
+    };
+  }
+
   public static Database[] databases() {
     return new Database[] {
         Postgresql(),
@@ -5,11 +5,21 @@ import ma.vi.esql.lookup.init.LookupInitializer;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.TestFactory;
 
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static ma.vi.esql.translation.Translatable.Target.POSTGRESQL;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
 /**
@@ -45,4 +55,141 @@ class InitTest extends DataTest {
                    System.out.println(lookup.values().values());
                  }));
   }
+
+  @TestFactory
+  Stream<DynamicTest> streamLookupValues() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   LookupInitializer init = new LookupInitializer();
+                   Map<String, Object> definition = Map.of("displayName", "Postal code",
+                                                           "description", "Postal codes",
+                                                           "links",       List.of("Country"));
+
+                   /*
+                    * Values are generated as they are read, never held in memory.
+                    */
+                   int count = 200_000;
+                   Iterator<String> values = new Iterator<>() {
+                     @Override
+                     public boolean hasNext() {
+                       return i < count;
+                     }
+
+                     @Override
+                     public String next() {
+                       i++;
+                       return "P" + i + ",Postal code\\, " + i + "|" + (i % 2 == 0 ? "MU" : "AF");
+                     }
+
+                     private int i = 0;
+                   };
+                   Lookup lookup = init.add(db, true, "TestPostalCode", definition, values);
+                   assertEquals(0, lookup.values().size());
+
+                   assertEquals(count, ext.loadLookup("TestPostalCode").values().size());
+                   LookupValue value = ext.loadLookupValue("TestPostalCode", "P10");
+                   assertEquals("Postal code, 10", value.label());
+                   assertEquals("Mauritius", value.links().get(0).target().label());
+
+                   /*
+                    * Not overwritten.
+                    */
+                   assertNull(init.add(db, false, "TestPostalCode", definition, new StringReader("P1,A|MU")));
+                   assertEquals(count, ext.loadLookup("TestPostalCode").values().size());
+
+                   init.add(db, true, "TestPostalCode", definition, new StringReader("""
+                       P1,A|MU
+
+                       P2,B|AF
+                       """));
+                   assertEquals(2, ext.loadLookup("TestPostalCode").values().size());
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> initLookupsInParallel() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   LookupInitializer init = new LookupInitializer();
+
+                   Map<String, Map<String, Object>> definitions = new LinkedHashMap<>();
+                   definitions.put("$overwrite", Map.of());
+                   definitions.put("TestParallelDistrict", Map.of("displayName", "District",
+                                                                  "links",       List.of("TestParallelRegion", "Country"),
+                                                                  "values",      List.of("D1,District 1|R1|MU",
+                                                                                         "D2,District 2|R2|MU")));
+                   definitions.put("TestParallelRegion", Map.of("displayName", "Region",
+                                                                "links",       List.of("TestParallelZone"),
+                                                                "values",      List.of("R1,Region 1|Z1",
+                                                                                       "R2,Region 2|Z1")));
+                   definitions.put("TestParallelZone", Map.of("displayName", "Zone",
+                                                              "values",      List.of("Z1,Zone 1")));
+                   for (int i = 0; i < 10; i++) {
+                     definitions.put("TestParallel" + i, Map.of("displayName", "Independent " + i,
+                                                                "values",      List.of("A,Alpha", "B,Beta")));
+                   }
+                   Map<String, Lookup> added = init.addAll(db, true, definitions, 4);
+                   assertEquals(13, added.size());
+
+                   LookupValue district = ext.loadLookupValue("TestParallelDistrict", "D2");
+                   assertEquals("Region 2", district.links().get(0).target().label());
+                   assertEquals("Zone 1",   ext.loadLookupValue("TestParallelRegion", "R2")
+                                               .links().get(0).target().label());
+                   assertEquals(List.of("TestParallelRegion", "Country"),
+                                ext.loadLookup("TestParallelDistrict").links().stream().map(Lookup::name).toList());
+                   for (int i = 0; i < 10; i++) {
+                     assertEquals("Beta", ext.loadLookupValue("TestParallel" + i, "B").label());
+                   }
+
+                   /*
+                    * Cycles are reported with the lookups involved.
+                    */
+                   definitions.put("TestParallelZone", Map.of("displayName", "Zone",
+                                                              "links",       List.of("TestParallelDistrict"),
+                                                              "values",      List.of("Z1,Zone 1|D1")));
+                   IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                                                             () -> init.addAll(db, true, definitions, 4));
+                   assertEquals("Lookups cannot be initialised as their links form a cycle: "
+                              + "TestParallelDistrict -> TestParallelRegion -> TestParallelZone -> TestParallelDistrict",
+                                e.getMessage());
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> coveringIndexes() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   boolean postgresql = db.target() == POSTGRESQL;
+                   try (Connection c = db.pooledConnection()) {
+                     /*
+                      * Creating the indexes again is a no-op.
+                      */
+                     LookupIndexes.create(c, postgresql, false);
+                     c.commit();
+
+                     Set<String> indexes = new HashSet<>();
+                     try (Statement st = c.createStatement();
+                          ResultSet rs = st.executeQuery(postgresql
+                                                         ? "select indexname from pg_indexes where schemaname='_lookup'"
+                                                         : "select i.name from sys.indexes i "
+                                                         + "  join sys.tables t on t.object_id=i.object_id "
+                                                         + " where schema_name(t.schema_id)='_lookup'")) {
+                       while (rs.next()) {
+                         indexes.add(rs.getString(1));
+                       }
+                     }
+                     assertTrue(indexes.containsAll(Set.of("value_lookup_code",
+                                                           "value_lookup_alt_code1",
+                                                           "value_lookup_alt_code2",
+                                                           "link_source_name")), indexes::toString);
+                     assertFalse(indexes.contains("value_lookup"));
+                     assertFalse(indexes.contains("link_source"));
+                   }
+                 }));
+  }
 }
@@ -149,6 +149,47 @@ public class JoinLabelTest extends DataTest {
                  }));
   }
 
+  @TestFactory
+  Stream<DynamicTest> multipleJoinLabelAfter() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   try (EsqlConnection con = db.esql()) {
+                     con.exec("delete LkX from a.b.LkX");
+                     con.exec("delete LkT from a.b.LkT");
+                     con.exec("delete s from s:LkS");
+
+                     UUID id1 = randomUUID(), id2 = randomUUID();
+                     con.exec("insert into LkS(_id, a, b, e, h, j) values "
+                                  + "(u'" + id1 + "', 'A1', 2, true, ['Four', 'Quatre']text, [1, 2, 3]int),"
+                                  + "(u'" + id2 + "', 'A2', 7, false, ['Nine', 'Neuf', 'X']text, [5, 6, 7, 8]int)");
+
+                     con.exec("insert into a.b.LkT(_id, a, b, s_id) values"
+                                  + "(newid(), 'B1', 2, u'" + id2 + "'), "
+                                  + "(newid(), 'B2', 2, u'" + id1 + "'), "
+                                  + "(newid(), 'B3', 2, u'" + id2 + "'), "
+                                  + "(newid(), 'B4', 2, u'" + id1 + "'), "
+                                  + "(newid(), 'B5', 2, u'" + id2 + "'), "
+                                  + "(newid(), 'B6', 4, u'" + id1 + "')");
+
+                     Result rs = con.exec("joinlabel(null, 'a', 'a', 'a.b.LkT', " +
+                                          "'s_id', '_id', 'a', 'LkS', " +
+                                          "label_separator='|', labels_after=null, labels_limit=2)");
+                     matchResult(rs,
+                                 List.of(Map.of("code", "B1", "label", "A2|B1"),
+                                         Map.of("code", "B2", "label", "A1|B2")));
+
+                     rs = con.exec("joinlabel(null, 'a', 'a', 'a.b.LkT', " +
+                                   "'s_id', '_id', 'a', 'LkS', " +
+                                   "label_separator='|', labels_after='B2', labels_limit=3)");
+                     matchResult(rs,
+                                 List.of(Map.of("code", "B3", "label", "A2|B3"),
+                                         Map.of("code", "B4", "label", "A1|B4"),
+                                         Map.of("code", "B5", "label", "A2|B5")));
+                   }
+                 }));
+  }
+
   @TestFactory
   Stream<DynamicTest> multipleJoinLabelKeywords() {
     return Stream.of(databases)
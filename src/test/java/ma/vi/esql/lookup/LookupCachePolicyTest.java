@@ -0,0 +1,169 @@
+package ma.vi.esql.lookup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Eviction of lookups from {@link LookupCache}, on snapshots built in memory.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class LookupCachePolicyTest {
+  @Test
+  void lruEvictsLeastRecentlyUsed() {
+    LookupCache cache = new LookupCache(new LookupCache.Policy(10, 0, LookupCache.Eviction.lru, Set.of()));
+    cache.get("A", name -> snapshot(name, 4));
+    cache.get("B", name -> snapshot(name, 4));
+    cache.get("A", name -> fail("A is cached"));
+    cache.get("C", name -> snapshot(name, 4));
+
+    assertEquals(Set.of("A", "C"), cache.loaded().keySet());
+    assertEquals(new LookupCacheStats(1, 3, 1, 2, 8, 2 * snapshot("X", 4).estimatedBytes()),
+                 cache.stats());
+  }
+
+  @Test
+  void maxBytes() {
+    long bytes = snapshot("X", 4).estimatedBytes();
+    LookupCache cache = new LookupCache(new LookupCache.Policy(0, 2 * bytes + bytes / 2, LookupCache.Eviction.lru, Set.of()));
+    cache.get("A", name -> snapshot(name, 4));
+    cache.get("B", name -> snapshot(name, 4));
+    assertEquals(Set.of("A", "B"), cache.loaded().keySet());
+
+    cache.get("C", name -> snapshot(name, 4));
+    assertEquals(Set.of("B", "C"), cache.loaded().keySet());
+    LookupCacheStats stats = cache.stats();
+    assertEquals(1, stats.evictions());
+    assertEquals(2 * bytes, stats.bytes());
+  }
+
+  @Test
+  void pinnedLookupsAreNotEvicted() {
+    LookupCache cache = new LookupCache(new LookupCache.Policy(5, 0, LookupCache.Eviction.lru, Set.of("A", "B")));
+    cache.get("A", name -> snapshot(name, 4));
+    cache.get("B", name -> snapshot(name, 4));
+
+    /*
+     * Over the limit with pinned lookups only: nothing is evicted; a lookup
+     * which is not pinned is evicted as soon as loaded.
+     */
+    assertEquals(Set.of("A", "B"), cache.loaded().keySet());
+    assertEquals(8, cache.stats().entries());
+    assertEquals(0, cache.stats().evictions());
+
+    LookupSnapshot c = cache.get("C", name -> snapshot(name, 4));
+    assertNotNull(c);
+    assertEquals(Set.of("A", "B"), cache.loaded().keySet());
+    assertEquals(new LookupCacheStats(0, 3, 1, 2, 8, 2 * c.estimatedBytes()), cache.stats());
+  }
+
+  @Test
+  void pinnedLookupsAreAdmittedByTinyLfu() {
+    LookupCache cache = new LookupCache(new LookupCache.Policy(100, 0, LookupCache.Eviction.tinylfu, Set.of("P")));
+    cache.get("H", name -> snapshot(name, 60));
+    for (int i = 0; i < 5; i++) {
+      cache.get("H", name -> fail("H is cached"));
+    }
+
+    /*
+     * The pinned lookup, used once, overflows from the window when X is
+     * loaded and displaces the frequently used lookup instead of being
+     * rejected.
+     */
+    cache.get("P", name -> snapshot(name, 30));
+    cache.get("X", name -> snapshot(name, 20));
+    assertEquals(Set.of("P", "X"), cache.loaded().keySet());
+    assertEquals(1, cache.stats().evictions());
+    assertEquals(50, cache.stats().entries());
+  }
+
+  @Test
+  void tinyLfuRejectsRarelyUsedNewcomer() {
+    /*
+     * A frequently used lookup followed by two lookups used once: LRU
+     * evicts the frequently used lookup, which is the least recently used...
+     */
+    LookupCache lru = new LookupCache(new LookupCache.Policy(100, 0, LookupCache.Eviction.lru, Set.of()));
+    useOnceAfterHot(lru);
+    assertEquals(Set.of("N", "X"), lru.loaded().keySet());
+
+    /*
+     * ...while W-TinyLFU keeps it, rejecting the lookup used once which
+     * overflows from the admission window.
+     */
+    LookupCache tinyLfu = new LookupCache(new LookupCache.Policy(100, 0, LookupCache.Eviction.tinylfu, Set.of()));
+    useOnceAfterHot(tinyLfu);
+    assertEquals(Set.of("H", "X"), tinyLfu.loaded().keySet());
+    LookupCacheStats stats = tinyLfu.stats();
+    assertEquals(5, stats.hits());
+    assertEquals(3, stats.misses());
+    assertEquals(1, stats.evictions());
+    assertEquals(2, stats.lookups());
+    assertEquals(90, stats.entries());
+  }
+
+  @Test
+  void invalidate() {
+    LookupCache cache = new LookupCache(new LookupCache.Policy(10, 0, LookupCache.Eviction.lru, Set.of()));
+    LookupSnapshot a = cache.get("A", name -> snapshot(name, 4));
+    cache.get("B", name -> snapshot(name, 4));
+    cache.invalidate("A");
+    assertEquals(Set.of("B"), cache.loaded().keySet());
+    assertEquals(4, cache.stats().entries());
+
+    /*
+     * A reloaded lookup is not invalidated through an older snapshot.
+     */
+    LookupSnapshot reloaded = cache.get("A", name -> snapshot(name, 4));
+    cache.invalidate("A", a);
+    assertSame(reloaded, cache.getIfLoaded("A"));
+    cache.invalidate("A", reloaded);
+    assertNull(cache.getIfLoaded("A"));
+
+    cache.clear();
+    assertEquals(new LookupCacheStats(1, 3, 0, 0, 0, 0), cache.stats());
+  }
+
+  @Test
+  void putIfAbsentAfterInvalidation() {
+    LookupCache cache = new LookupCache(LookupCache.Policy.UNBOUNDED);
+
+    /*
+     * A snapshot read before a lookup is invalidated, even one which was not
+     * cached, is not added as it could be stale.
+     */
+    long generation = cache.generation();
+    assertTrue(cache.putIfAbsent("A", snapshot("A", 4), generation));
+    cache.invalidate("B");
+    assertFalse(cache.putIfAbsent("B", snapshot("B", 4), generation));
+    assertEquals(Set.of("A"), cache.loaded().keySet());
+
+    assertTrue(cache.putIfAbsent("B", snapshot("B", 4), cache.generation()));
+    assertEquals(Set.of("A", "B"), cache.loaded().keySet());
+  }
+
+  /**
+   * Loads a lookup of 60 values used 5 times, then two lookups of 30 values
+   * used once, going over the limit of 100 values.
+   */
+  private static void useOnceAfterHot(LookupCache cache) {
+    cache.get("H", name -> snapshot(name, 60));
+    for (int i = 0; i < 5; i++) {
+      cache.get("H", name -> fail("H is cached"));
+    }
+    cache.get("N", name -> snapshot(name, 30));
+    cache.get("X", name -> snapshot(name, 30));
+  }
+
+  private static LookupSnapshot snapshot(String name, int values) {
+    LookupSnapshot.Builder builder = new LookupSnapshot.Builder(UUID.randomUUID(), name, null, name, null);
+    for (int i = 0; i < values; i++) {
+      builder.value(UUID.randomUUID(), "V" + i, null, null, "Value " + i, null, "en");
+    }
+    return builder.build(n -> null);
+  }
+}
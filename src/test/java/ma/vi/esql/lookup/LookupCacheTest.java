@@ -0,0 +1,260 @@
+package ma.vi.esql.lookup;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+import ma.vi.esql.exec.Result;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class LookupCacheTest extends DataTest {
+  @TestFactory
+  Stream<DynamicTest> concurrentColdStart() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   ext.invalidateLookups();
+
+                   int threads = 64;
+                   ExecutorService executor = Executors.newFixedThreadPool(threads);
+                   CountDownLatch start = new CountDownLatch(1);
+                   try {
+                     List<Future<Lookup>> results = new ArrayList<>();
+                     for (int i = 0; i < threads; i++) {
+                       int thread = i;
+                       results.add(executor.submit(() -> {
+                         start.await();
+                         for (int j = 0; j < 200; j++) {
+                           LookupValue value = thread % 2 == 0
+                                             ? ext.loadLookupValue("TestClass", "0115")
+                                             : ext.loadLookupValue("Country", "MUS", Lookup.MatchBy.altCode1);
+                           assertNotNull(value.label());
+                           assertEquals(thread % 2 == 0 ? "Growing of tobacco" : "Mauritius",
+                                        value.label());
+                         }
+                         return ext.loadLookup(thread % 2 == 0 ? "TestClass" : "Country");
+                       }));
+                     }
+                     start.countDown();
+
+                     /*
+                      * All threads must see the same single loaded instance of
+                      * each lookup.
+                      */
+                     Lookup testClass = results.get(0).get(1, TimeUnit.MINUTES);
+                     Lookup country   = results.get(1).get(1, TimeUnit.MINUTES);
+                     for (int i = 0; i < threads; i++) {
+                       assertSame(i % 2 == 0 ? testClass : country,
+                                  results.get(i).get(1, TimeUnit.MINUTES));
+                     }
+                   } finally {
+                     executor.shutdownNow();
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> multiLanguageValues() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   UUID mu = ext.loadLookupValue("Country", "MU").id();
+                   UUID af = ext.loadLookupValue("Country", "AF").id();
+
+                   /*
+                    * The same code in two languages, the French value loaded
+                    * first, each linked to a different country, and a value
+                    * of another lookup linked to the French value.
+                    */
+                   UUID lookupId = UUID.randomUUID();
+                   UUID otherId  = UUID.randomUUID();
+                   UUID fr       = UUID.randomUUID();
+                   UUID en       = UUID.randomUUID();
+                   try (EsqlConnection con = db.esql()) {
+                     con.exec("insert into _lookup.Lookup(_id, name, display_name) values"
+                            + "('" + lookupId + "', 'TestLanguages', 'Test languages'), "
+                            + "('" + otherId  + "', 'TestLanguageLinks', 'Test language links')");
+                     con.exec("insert into _lookup.LookupLink(_id, source_lookup_id, target_lookup_id) values"
+                            + "(newid(), '" + otherId + "', '" + lookupId + "')");
+                     con.exec("insert into _lookup.LookupValue(_id, lookup_id, code, lang, label) values"
+                            + "('" + fr + "', '" + lookupId + "', 'A', 'fr', 'Agriculture (fr)')");
+                     con.exec("insert into _lookup.LookupValue(_id, lookup_id, code, lang, label) values"
+                            + "('" + en + "', '" + lookupId + "', 'A', 'en', 'Agriculture (en)'), "
+                            + "(newid(), '" + otherId + "', 'X', 'en', 'X')");
+                     con.exec("insert into _lookup.LookupValueLink(_id, name, source_value_id, target_value_id) values"
+                            + "(newid(), 'Country', '" + fr + "', '" + mu + "'), "
+                            + "(newid(), 'Country', '" + en + "', '" + af + "'), "
+                            + "(newid(), 'TestLanguages', (select _id from _lookup.LookupValue where lookup_id='" + otherId + "' and code='X'), '" + fr + "')");
+                   }
+
+                   for (boolean bulk: new boolean[] {false, true}) {
+                     ext.invalidateLookups();
+                     if (bulk) {
+                       ext.loadLookups();
+                     }
+
+                     /*
+                      * Both values are kept with their own links; the code
+                      * finds the value whose language comes first.
+                      */
+                     Lookup lookup = ext.loadLookup("TestLanguages");
+                     assertEquals(1, lookup.values().size());
+                     assertEquals(2, lookup.valuesById().size());
+                     LookupValue value = ext.loadLookupValue("TestLanguages", "A");
+                     assertEquals("en", value.lang());
+                     assertEquals(1, value.links().size());
+                     assertEquals("Afghanistan", value.links().get(0).target().label());
+
+                     LookupValue french = lookup.valuesById().get(fr);
+                     assertEquals("fr", french.lang());
+                     assertEquals(1, french.links().size());
+                     assertEquals("Mauritius", french.links().get(0).target().label());
+
+                     LookupValue target = ext.loadLookupValue("TestLanguageLinks", "X").links().get(0).target();
+                     assertNotNull(target);
+                     assertEquals("Agriculture (fr)", target.label());
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> invalidateSavedLookupOnly() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Lookup country = ext.loadLookup("Country");
+
+                   Map<String, LookupValue> values = new LinkedHashMap<>();
+                   values.put("A", new LookupValue(UUID.randomUUID(), "TestInvalidate", "A", null, null, "Alpha", null, "en", List.of()));
+                   UUID id = ext.saveLookup(new Lookup(UUID.randomUUID(), "TestInvalidate", null, "Test invalidate", null,
+                                                       List.of(), values, Map.of()));
+                   Lookup saved = ext.loadLookup("TestInvalidate");
+
+                   /*
+                    * Saving a lookup, or one of its values or links, reloads
+                    * that lookup only.
+                    */
+                   values.put("A", new LookupValue(UUID.randomUUID(), "TestInvalidate", "A", null, null, "Alpha 2", null, "en", List.of()));
+                   ext.saveLookup(new Lookup(id, "TestInvalidate", null, "Test invalidate", null,
+                                             List.of(), values, Map.of()));
+                   Lookup reloaded = ext.loadLookup("TestInvalidate");
+                   assertNotSame(saved, reloaded);
+                   assertEquals("Alpha 2", reloaded.values().get("A").label());
+                   assertSame(country, ext.loadLookup("Country"));
+
+                   ext.saveLookupValue(id, new LookupValue(null, "TestInvalidate", "B", null, null, "Beta", null, "en", List.of()));
+                   assertNotSame(reloaded, ext.loadLookup("TestInvalidate"));
+                   assertEquals("Beta", ext.loadLookupValue("TestInvalidate", "B").label());
+                   assertSame(country, ext.loadLookup("Country"));
+
+                   reloaded = ext.loadLookup("TestInvalidate");
+                   ext.saveLookupLink(id, country);
+                   assertNotSame(reloaded, ext.loadLookup("TestInvalidate"));
+                   assertEquals(List.of(country), ext.loadLookup("TestInvalidate").links());
+                   assertSame(country, ext.loadLookup("Country"));
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> recreatedLookup() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Map<String, LookupValue> values = new LinkedHashMap<>();
+                   values.put("A", new LookupValue(UUID.randomUUID(), "TestRecreate", "A", null, null, "Alpha", null, "en", List.of()));
+                   UUID id = ext.saveLookup(new Lookup(UUID.randomUUID(), "TestRecreate", null, "Test recreate", null,
+                                                       List.of(), values, Map.of()));
+                   try (EsqlConnection con = db.esql()) {
+                     Result rs = con.exec("lookuplabel('A', 'TestRecreate')");
+                     rs.toNext();
+                     assertEquals("Alpha", rs.value(1));
+
+                     /*
+                      * Delete and recreate the lookup, with a new id and the
+                      * same version, directly in the database.
+                      */
+                     rs = con.exec("select _version from _lookup.Lookup where name='TestRecreate'");
+                     rs.toNext();
+                     long version = ((Number)rs.value(1)).longValue();
+                     UUID newId = UUID.randomUUID();
+                     con.exec("delete v from v:_lookup.LookupValue where v.lookup_id='" + id + "'");
+                     con.exec("delete l from l:_lookup.Lookup where l._id='" + id + "'");
+                     con.exec("insert into _lookup.Lookup(_id, _version, name, display_name) values"
+                            + "('" + newId + "', " + version + ", 'TestRecreate', 'Test recreate')");
+                     con.exec("insert into _lookup.LookupValue(_id, lookup_id, code, lang, label) values"
+                            + "(newid(), '" + newId + "', 'A', 'en', 'Alpha')");
+
+                     assertEquals(Set.of("TestRecreate"), ext.synchroniseLookups());
+                     assertEquals(newId, ext.lookupId("TestRecreate"));
+                     rs = con.exec("lookuplabel('A', 'TestRecreate')");
+                     rs.toNext();
+                     assertEquals("Alpha", rs.value(1));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> coherenceAcrossNodes() {
+    Database[] otherNodes = Databases.otherNodes();
+    return Stream.iterate(0, i -> i < databases.length, i -> i + 1)
+                 .map(i -> dynamicTest(databases[i].target().toString(), () -> {
+                   Database db = databases[i];
+                   System.out.println(db.target());
+                   LookupExtension node1 = db.extension(LookupExtension.class);
+                   LookupExtension node2 = otherNodes[i].extension(LookupExtension.class);
+
+                   UUID lookupId = UUID.randomUUID();
+                   Map<String, LookupValue> values = new LinkedHashMap<>();
+                   values.put("A", new LookupValue(UUID.randomUUID(), "TestCoherence", "A", null, null, "Alpha", null, "en", List.of()));
+                   Lookup lookup = new Lookup(lookupId, "TestCoherence", null, "Test coherence", null, List.of(), values, Map.of());
+                   node1.saveLookup(lookup);
+
+                   assertEquals("Alpha", node2.loadLookupValue("TestCoherence", "A").label());
+                   Lookup country = node2.loadLookup("Country");
+
+                   /*
+                    * Change made on the first node is not seen by the second
+                    * one until it synchronises its cache.
+                    */
+                   values.put("A", new LookupValue(UUID.randomUUID(), "TestCoherence", "A", null, null, "Alpha 2", null, "en", List.of()));
+                   node1.saveLookup(lookup);
+                   assertEquals("Alpha 2", node1.loadLookupValue("TestCoherence", "A").label());
+                   assertEquals("Alpha", node2.loadLookupValue("TestCoherence", "A").label());
+
+                   assertEquals(Set.of("TestCoherence"), node2.synchroniseLookups());
+                   assertEquals("Alpha 2", node2.loadLookupValue("TestCoherence", "A").label());
+                   assertSame(country, node2.loadLookup("Country"));
+
+                   /*
+                    * Saving a single value or link of the lookup also changes
+                    * its version.
+                    */
+                   node1.saveLookupValue(lookupId, new LookupValue(null, "TestCoherence", "B", null, null, "Beta", null, "en", List.of()));
+                   assertTrue(node2.findLookupValue("TestCoherence", "B").isEmpty());
+                   assertEquals(Set.of("TestCoherence"), node2.synchroniseLookups());
+                   assertEquals("Beta", node2.loadLookupValue("TestCoherence", "B").label());
+
+                   node1.saveLookupLink(lookupId, node1.loadLookup("Country"));
+                   assertEquals(List.of(), node2.loadLookup("TestCoherence").links());
+                   assertEquals(Set.of("TestCoherence"), node2.synchroniseLookups());
+                   assertEquals(List.of(country), node2.loadLookup("TestCoherence").links());
+
+                   assertEquals(Set.of(), node1.synchroniseLookups());
+                   assertEquals(Set.of(), node2.synchroniseLookups());
+                 }));
+  }
+}
@@ -1,5 +1,6 @@
 package ma.vi.esql.lookup;
 
+import ma.vi.esql.database.Database;
 import ma.vi.esql.database.EsqlConnection;
 import ma.vi.esql.exec.Result;
 import ma.vi.esql.syntax.Parser;
@@ -7,11 +8,15 @@ import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.TestFactory;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
 /**
@@ -69,6 +74,37 @@ class LookupLabelTest extends DataTest {
                  }));
   }
 
+  @TestFactory
+  Stream<DynamicTest> lookupLabelExpansionCached() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   try (EsqlConnection con = db.esql()) {
+                     con.exec("delete t from t:a.b.LkT");
+                     con.exec("delete s from s:LkS");
+                     con.exec("insert into LkS(_id, a, b, i) values "
+                                  + "(newid(), 1, 0, '0115'),"
+                                  + "(newid(), 0, 1, '5811')");
+
+                     /*
+                      * The same statement expanded from the cache, and in a
+                      * query using the alias of the expansion itself.
+                      */
+                     List<Map<String, Object>> expected = List.of(
+                         Map.of("i", "0115", "label", "Growing of tobacco"),
+                         Map.of("i", "5811", "label", "Publishing of books"));
+                     for (int i = 0; i < 3; i++) {
+                       try (Result rs = con.exec("select i, label:lookuplabel(i, 'TestClass') from LkS order by i")) {
+                         matchResult(rs, expected);
+                       }
+                       try (Result rs = con.exec("select i, label:lookuplabel(i, 'TestClass') from value:LkS order by i")) {
+                         matchResult(rs, expected);
+                       }
+                     }
+                   }
+                 }));
+  }
+
   @TestFactory
   Stream<DynamicTest> execLookupLabel() {
     return Stream.of(databases)
@@ -521,6 +557,36 @@ class LookupLabelTest extends DataTest {
                  }));
   }
 
+  @TestFactory
+  Stream<DynamicTest> getCodeTableKeywordsAcrossSeparator() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Map<String, LookupValue> values = new LinkedHashMap<>();
+                   values.put("A1", new LookupValue(UUID.randomUUID(), "TestKeywordSeparator", "A1", null, null, "Xylophone", null, "en", List.of()));
+                   values.put("B2", new LookupValue(UUID.randomUUID(), "TestKeywordSeparator", "B2", null, null, "Zither",    null, "en", List.of()));
+                   UUID id = ext.lookupId("TestKeywordSeparator");
+                   ext.saveLookup(new Lookup(id == null ? UUID.randomUUID() : id, "TestKeywordSeparator", null,
+                                             "Test keyword separator", null, List.of(), values, Map.of()));
+
+                   try (EsqlConnection con = db.esql()) {
+                     /*
+                      * Keywords can span the code and label when they are
+                      * joined by an empty separator or one with word characters.
+                      */
+                     Result rs = con.exec("lookuplabel(null, 'TestKeywordSeparator', show_code=true, code_separator='', keywords='1xy')");
+                     matchResult(rs, List.of(Map.of("code", "A1", "label", "A1Xylophone")));
+
+                     rs = con.exec("lookuplabel(null, 'TestKeywordSeparator', show_code=true, code_separator='_', keywords='1_xy')");
+                     matchResult(rs, List.of(Map.of("code", "A1", "label", "A1_Xylophone")));
+
+                     rs = con.exec("lookuplabel(null, 'TestKeywordSeparator', show_code=true, code_separator=' - ', keywords='b2 zit')");
+                     matchResult(rs, List.of(Map.of("code", "B2", "label", "B2 - Zither")));
+                   }
+                 }));
+  }
+
   @TestFactory
   Stream<DynamicTest> getLinkedCodeTableOffsetLimit() {
     return Stream.of(databases)
@@ -539,4 +605,286 @@ class LookupLabelTest extends DataTest {
                    }
                  }));
   }
-}
\ No newline at end of file
+
+  @TestFactory
+  Stream<DynamicTest> getLinkedCodeTableAfter() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   try (EsqlConnection con = db.esql()) {
+                     Result rs = con.exec("lookuplabel(null, 'TestDivision', 'TestSection', show_code=true, labels_after=null, labels_limit=3)");
+                     matchResult(rs, List.of(
+                         Map.of("code", "01", "label", "A - Agriculture forestry and fishing"),
+                         Map.of("code", "02", "label", "A - Agriculture forestry and fishing"),
+                         Map.of("code", "03", "label", "A - Agriculture forestry and fishing")));
+
+                     rs = con.exec("lookuplabel(null, 'TestDivision', 'TestSection', show_code=true, labels_after='03', labels_limit=3)");
+                     matchResult(rs, List.of(
+                         Map.of("code", "05", "label", "B - Mining and quarrying"),
+                         Map.of("code", "06", "label", "B - Mining and quarrying"),
+                         Map.of("code", "07", "label", "B - Mining and quarrying")));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> lookupLabelJoinExpansion() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   try (EsqlConnection con = db.esql()) {
+                     con.exec("delete t from t:a.b.LkT");
+                     con.exec("delete s from s:LkS");
+                     con.exec("insert into LkS(_id, a, b, i) values "
+                                  + "(newid(), 1, 0, '0115'),"
+                                  + "(newid(), 2, 9, '0992'),"
+                                  + "(newid(), 3, 8, 'XXXX'),"
+                                  + "(newid(), 4, 7, '5811')");
+
+                     /*
+                      * Several lookuplabels joined to the same select, and rows
+                      * without a matching value kept with a null label.
+                      */
+                     Result rs = con.exec("""
+                                          select i,
+                                                 label:   lookuplabel(i, expansion='join', 'TestClass'),
+                                                 section: lookuplabel(i, expansion='join', show_code=true, 'TestClass', 'TestGroup', 'TestDivision', 'TestSection'),
+                                                 path:    lookuplabel(i, expansion='join', show_last_only=false, last_to_first=false,
+                                                                      show_code=true, show_label=false, 'TestClass', 'TestGroup')
+                                            from LkS
+                                           order by i""");
+                     List<List<String>> expected = List.of(
+                         Arrays.asList("0115", "Growing of tobacco", "A - Agriculture forestry and fishing", "0115 / 011"),
+                         Arrays.asList("0992", "Research & training and service activities incidental to mining of minerals", "B - Mining and quarrying", "0992 / 099"),
+                         Arrays.asList("5811", "Publishing of books", "J - Information and communication", "5811 / 581"),
+                         Arrays.asList("XXXX", null, null, null));
+                     for (List<String> row: expected) {
+                       rs.toNext();
+                       assertEquals(row.get(0), rs.value("i"));
+                       assertEquals(row.get(1), rs.value("label"));
+                       assertEquals(row.get(2), rs.value("section"));
+                       assertEquals(row.get(3), rs.value("path"));
+                     }
+
+                     rs = con.exec("""
+                                   select a
+                                     from LkS
+                                    where lookuplabel(i, expansion='join', show_code=true, show_label=false,
+                                                      'TestClass', 'TestGroup', 'TestDivision', 'TestSection')='A'""");
+                     matchResult(rs, List.of(Map.of("a", "1")));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> lookupLabelByLookupId() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   ext.invalidateLookups();
+                   assertEquals(ext.loadLookup("TestClass").id(), ext.lookupId("TestClass"));
+                   ext.invalidateLookups();
+                   assertEquals(ext.loadLookup("TestClass").id(), ext.lookupId("TestClass"));
+                   assertNull(ext.lookupId("NoSuchLookup"));
+
+                   /*
+                    * Constant lookup names are resolved to ids in the
+                    * translation; dynamic names are still joined by name.
+                    */
+                   try (EsqlConnection con = db.esql()) {
+                     Result rs = con.exec("lookuplabelf('0115', 'TestClass', true, true, 'TestGroup')");
+                     rs.toNext();
+                     assertEquals("011 - Growing of non-perennial crops", rs.value(1));
+
+                     rs = con.exec("lookuplabelf('0115', 'TestClass')");
+                     rs.toNext();
+                     assertEquals("0115 - Growing of tobacco", rs.value(1));
+
+                     rs = con.exec("lookuplabel('0115', 'Test' || 'Class', 'TestGroup')");
+                     rs.toNext();
+                     assertEquals("Growing of non-perennial crops", rs.value(1));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> lookupLabelByValuePath() {
+    Database[] pathNodes = Databases.valuePathNodes(3);
+    return Stream.iterate(0, i -> i < databases.length, i -> i + 1)
+                 .map(i -> dynamicTest(databases[i].target().toString(), () -> {
+                   Database db = pathNodes[i];
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   ext.rebuildValuePaths();
+                   try (EsqlConnection con = db.esql()) {
+                     /*
+                      * Up to 3 links are followed through the value paths,
+                      * more links through the individual value links.
+                      */
+                     Result rs = con.exec("lookuplabel('0115', 'TestClass', 'TestGroup', 'TestDivision')");
+                     rs.toNext();
+                     assertEquals("Crop and animal production, hunting and related service activities", rs.value(1));
+
+                     rs = con.exec("lookuplabel('0115', 'TestClass', 'TestGroup', 'TestDivision', 'TestSection')");
+                     rs.toNext();
+                     assertEquals("Agriculture forestry and fishing", rs.value(1));
+
+                     rs = con.exec("lookuplabel(show_code=true, show_label=false, '0115', 'TestClass', 'TestGroup', 'TestDivision')");
+                     rs.toNext();
+                     assertEquals("01", rs.value(1));
+
+                     rs = con.exec("lookuplabelf('0115', 'TestClass', false, true, 'TestGroup', 'TestDivision')");
+                     rs.toNext();
+                     assertEquals("Crop and animal production, hunting and related service activities", rs.value(1));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> valuePathsOfSavedValue() {
+    Database[] pathNodes = Databases.valuePathNodes(3);
+    return Stream.iterate(0, i -> i < databases.length, i -> i + 1)
+                 .map(i -> dynamicTest(databases[i].target().toString(), () -> {
+                   Database db = pathNodes[i];
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+
+                   Map<String, LookupValue> values = new LinkedHashMap<>();
+                   values.put("C1", new LookupValue(UUID.randomUUID(), "TestPathC", "C1", null, null, "First",  null, "en", List.of()));
+                   values.put("C2", new LookupValue(UUID.randomUUID(), "TestPathC", "C2", null, null, "Second", null, "en", List.of()));
+                   Lookup c = new Lookup(UUID.randomUUID(), "TestPathC", null, "Test path C", null, List.of(), values, Map.of());
+                   ext.saveLookup(c);
+
+                   values = new LinkedHashMap<>();
+                   values.put("B1", pathValue("TestPathB", "B1", "TestPathC", "C1"));
+                   Lookup b = new Lookup(UUID.randomUUID(), "TestPathB", null, "Test path B", null, List.of(c), values, Map.of());
+                   UUID bId = ext.saveLookup(b);
+
+                   values = new LinkedHashMap<>();
+                   values.put("A1", pathValue("TestPathA", "A1", "TestPathB", "B1"));
+                   values.put("A2", pathValue("TestPathA", "A2", "TestPathB", "B1"));
+                   ext.saveLookup(new Lookup(UUID.randomUUID(), "TestPathA", null, "Test path A", null, List.of(b), values, Map.of()));
+
+                   try (EsqlConnection con = db.esql()) {
+                     Result rs = con.exec("lookuplabel('A2', 'TestPathA', 'TestPathB', 'TestPathC')");
+                     rs.toNext();
+                     assertEquals("First", rs.value(1));
+
+                     /*
+                      * Relinking a value recomputes the paths of the values
+                      * reaching it, as well as its own.
+                      */
+                     ext.saveLookupValue(bId, pathValue("TestPathB", "B1", "TestPathC", "C2"));
+                     rs = con.exec("lookuplabel('A1', 'TestPathA', 'TestPathB', 'TestPathC')");
+                     rs.toNext();
+                     assertEquals("Second", rs.value(1));
+
+                     rs = con.exec("lookuplabel('A2', 'TestPathA', 'TestPathB', 'TestPathC')");
+                     rs.toNext();
+                     assertEquals("Second", rs.value(1));
+
+                     rs = con.exec("""
+                                   select count(*)
+                                     from p:_lookup.LookupValuePath
+                                     join v:_lookup.LookupValue on v._id=p.source_value_id
+                                     join l:_lookup.Lookup on l._id=v.lookup_id
+                                    where l.name='TestPathA'""");
+                     rs.toNext();
+                     assertEquals(2L, ((Number)rs.value(1)).longValue());
+                   }
+                 }));
+  }
+
+  /**
+   * A value of the lookup linked to the target value of another lookup.
+   */
+  private static LookupValue pathValue(String lookup, String code, String targetLookup, String targetCode) {
+    return new LookupValue(UUID.randomUUID(), lookup, code, null, null, "Label " + code, null, "en",
+                           List.of(new LookupValueLink(targetLookup,
+                                                       new LookupValue(null, targetLookup, targetCode,
+                                                                       null, null, null, null, null, List.of()))));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> lookupLabelFunctionMultipleLinks() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   try (EsqlConnection con = db.esql()) {
+                     con.exec("delete t from t:a.b.LkT");
+                     con.exec("delete s from s:LkS");
+                     con.exec("insert into LkS(_id, a, b, i) values "
+                                  + "(newid(), 1, 0, '0115'),"
+                                  + "(newid(), 2, 9, '0992'),"
+                                  + "(newid(), 3, 8, '4532')");
+
+                     Result rs = con.exec("select i, label:lookuplabelf(i, 'TestClass', false, true, "
+                                        + "'TestGroup', 'TestDivision', 'TestSection') "
+                                        + "from LkS order by i");
+                     matchResult(rs,
+                                 Arrays.asList(
+                                    Map.of("i", "0115", "label", "Agriculture forestry and fishing"),
+                                    Map.of("i", "0992", "label", "Mining and quarrying"),
+                                    Map.of("i", "4532", "label", "Wholesale and retail trade; repair of motor vehicles and motorcycles")));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> lookupLabelClientExpansion() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   try (EsqlConnection con = db.esql()) {
+                     con.exec("delete t from t:a.b.LkT");
+                     con.exec("delete s from s:LkS");
+                     con.exec("insert into LkS(_id, a, b, i) values "
+                                  + "(newid(), 1, 0, '0115'),"
+                                  + "(newid(), 2, 9, '0992'),"
+                                  + "(newid(), 3, 8, 'XXXX'),"
+                                  + "(newid(), 4, 7, '5811')");
+
+                     /*
+                      * Labels are resolved from the cache as the rows are read,
+                      * with the same results as the other expansions.
+                      */
+                     try (LabelledResult rs = ext.withLabels(con.exec("""
+                                              select i,
+                                                     label:   lookuplabel(i, expansion='client', 'TestClass'),
+                                                     section: lookuplabel(i, expansion='client', show_code=true, 'TestClass', 'TestGroup', 'TestDivision', 'TestSection'),
+                                                     path:    lookuplabel(i, expansion='client', show_last_only=false, last_to_first=false,
+                                                                          show_code=true, show_label=false, 'TestClass', 'TestGroup')
+                                                from LkS
+                                               order by i"""))) {
+                       List<List<String>> expected = List.of(
+                           Arrays.asList("0115", "Growing of tobacco", "A - Agriculture forestry and fishing", "0115 / 011"),
+                           Arrays.asList("0992", "Research & training and service activities incidental to mining of minerals", "B - Mining and quarrying", "0992 / 099"),
+                           Arrays.asList("5811", "Publishing of books", "J - Information and communication", "5811 / 581"),
+                           Arrays.asList("XXXX", null, null, null));
+                       for (List<String> row: expected) {
+                         rs.toNext();
+                         assertEquals(row.get(0), rs.value("i"));
+                         assertEquals(row.get(1), rs.value("label"));
+                         assertEquals(row.get(2), rs.value("section"));
+                         assertEquals(row.get(3), rs.value("path"));
+
+                         String marked = rs.result().value("label");
+                         assertTrue(marked.startsWith(LookupExtension.CLIENT_LABEL_MARKER) && marked.endsWith(row.get(0)));
+                       }
+                     }
+
+                     /*
+                      * Labels used in conditions are still found by the database.
+                      */
+                     Result rs = con.exec("""
+                                          select a
+                                            from LkS
+                                           where lookuplabel(i, expansion='client', show_code=true, show_label=false,
+                                                             'TestClass', 'TestGroup', 'TestDivision', 'TestSection')='A'""");
+                     matchResult(rs, List.of(Map.of("a", "1")));
+                   }
+                 }));
+  }
+}
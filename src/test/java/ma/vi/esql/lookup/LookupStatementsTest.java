@@ -0,0 +1,260 @@
+package ma.vi.esql.lookup;
+
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+import ma.vi.esql.exec.Result;
+import ma.vi.esql.lookup.LookupStatements.Rows;
+import ma.vi.esql.lookup.LookupStatements.Statement;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static ma.vi.esql.lookup.LookupStatements.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the SQL and ESQL forms of each statement of {@link LookupStatements}
+ * and checks that they return the same rows or leave the lookups in the same
+ * state.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class LookupStatementsTest extends DataTest {
+  @TestFactory
+  Stream<DynamicTest> queriesAgree() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   Fixture f = fixture(db);
+                   LookupStatements sql  = new LookupStatements(db, true);
+                   LookupStatements esql = new LookupStatements(db, false);
+
+                   /*
+                    * Each query with its arguments and the types of its
+                    * columns: u for uuid, s for string and n for number.
+                    */
+                   List<Object[]> queries = List.of(
+                       new Object[]{LOOKUP_ID,          "u",       new Object[]{"TestStatements"}},
+                       new Object[]{LOOKUP_NAME,        "s",       new Object[]{f.lookupId}},
+                       new Object[]{LOOKUP,             "usssn",   new Object[]{"TestStatements"}},
+                       new Object[]{LOOKUP_LINKS,       "s",       new Object[]{f.lookupId}},
+                       new Object[]{LOOKUP_VALUES,      "ussssss", new Object[]{f.lookupId}},
+                       new Object[]{LOOKUP_VALUE_LINKS, "ussu",    new Object[]{f.lookupId}},
+                       new Object[]{LINK_ID,            "u",       new Object[]{f.lookupId, f.targetId}},
+                       new Object[]{VALUE_ID,           "u",       new Object[]{f.lookupId, "A"}},
+                       new Object[]{LINK_TARGET_ID,     "u",       new Object[]{"TestStatementsTarget", "Y"}});
+
+                   try (EsqlConnection con = db.esql()) {
+                     for (Object[] query: queries) {
+                       Statement statement = (Statement)query[0];
+                       String columns = (String)query[1];
+                       Object[] args = (Object[])query[2];
+                       List<List<Object>> expected = rows(sql.query(con, statement, args), columns);
+                       assertFalse(expected.isEmpty(), statement.esql());
+                       assertEquals(expected, rows(esql.query(con, statement, args), columns), statement.esql());
+                     }
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> updatesAgree() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   Fixture f = fixture(db);
+                   LookupStatements sql  = new LookupStatements(db, true);
+                   LookupStatements esql = new LookupStatements(db, false);
+
+                   /*
+                    * Each update as the statements to run in order, with
+                    * their arguments.
+                    */
+                   UUID newId = UUID.randomUUID();
+                   List<Object[][]> updates = List.of(
+                       new Object[][]{{INCREMENT_VERSION, f.lookupId}},
+                       new Object[][]{{UPDATE_LINK, f.otherId, f.linkId}},
+                       new Object[][]{{INSERT_LINK, newId, f.lookupId, f.otherId}},
+                       new Object[][]{{UPDATE_LOOKUP, "Display", "Description", "Group", f.lookupId}},
+                       new Object[][]{{INSERT_LOOKUP, newId, "TestStatementsNew", "Display", "Description", "Group"}},
+                       new Object[][]{{MARK_LINKS, f.lookupId}},
+                       new Object[][]{{UPDATE_LINK_SEQ, 5L, f.linkId}},
+                       new Object[][]{{INSERT_LINK_SEQ, newId, f.lookupId, f.otherId, 3L}},
+                       new Object[][]{{MARK_LINKS, f.lookupId},
+                                      {UPDATE_LINK_SEQ, 1L, f.linkId},
+                                      {INSERT_LINK_SEQ, newId, f.lookupId, f.otherId, 2L},
+                                      {DELETE_UNMARKED_LINKS, f.lookupId}},
+                       new Object[][]{{MARK_VALUES, f.lookupId}},
+                       new Object[][]{{MARK_VALUES, f.lookupId},
+                                      {UPDATE_VALUE, "a1", null, "Alpha", null, "en", f.valueId},
+                                      {DELETE_LOOKUP_VALUE_LINKS, f.lookupId},
+                                      {DELETE_UNMARKED_VALUES, f.lookupId}},
+                       new Object[][]{{UPDATE_VALUE, "a1", "a2", "Label", "Description", "fr", f.valueId}},
+                       new Object[][]{{INSERT_VALUE, newId, f.lookupId, "C", "c1", null, "Gamma", null, "en"}},
+                       new Object[][]{{DELETE_VALUE_LINKS, f.valueId}},
+                       new Object[][]{{DELETE_VALUE_LINKS, f.valueId},
+                                      {INSERT_VALUE_LINK, newId, "TestStatementsTarget", f.valueId, f.targetValueId}});
+
+                   try (EsqlConnection con = db.esql()) {
+                     Connection c = con.con();
+                     c.setAutoCommit(false);
+                     try {
+                       List<List<Object>> initial = state(con);
+                       for (Object[][] update: updates) {
+                         String name = Arrays.deepToString(update);
+                         List<List<Object>> expected = run(con, sql, update);
+                         assertEquals(expected, run(con, esql, update), name);
+                         assertEquals(initial, state(con), name);
+                       }
+                     } finally {
+                       c.rollback();
+                       c.setAutoCommit(true);
+                     }
+                   }
+                 }));
+  }
+
+  /**
+   * Runs the statements of the update in a transaction which is rolled back,
+   * returning the state of the test lookups before the rollback.
+   */
+  private static List<List<Object>> run(EsqlConnection   con,
+                                        LookupStatements statements,
+                                        Object[][]       update) throws SQLException {
+    try {
+      for (Object[] step: update) {
+        statements.update(con, (Statement)step[0], Arrays.copyOfRange(step, 1, step.length));
+      }
+      return state(con);
+    } finally {
+      con.con().rollback();
+    }
+  }
+
+  /**
+   * The rows of the test lookups, their links, values and value links.
+   */
+  private static List<List<Object>> state(EsqlConnection con) {
+    List<List<Object>> state = new ArrayList<>();
+    for (String query: List.of("""
+                               select _id, _version, name, display_name, description, "group"
+                                 from _lookup.Lookup
+                                where name like 'TestStatements%'
+                                order by name""", """
+                               select ln._id, ln._version, ln.source_lookup_id, ln.target_lookup_id, ln._seq
+                                 from ln:_lookup.LookupLink
+                                 join l:_lookup.Lookup on l._id=ln.source_lookup_id
+                                where l.name like 'TestStatements%'
+                                order by l.name, ln._id""", """
+                               select v._id, v._version, v.lookup_id, v.code, v.alt_code1, v.alt_code2,
+                                      v.label, v.description, v.lang
+                                 from v:_lookup.LookupValue
+                                 join l:_lookup.Lookup on l._id=v.lookup_id
+                                where l.name like 'TestStatements%'
+                                order by l.name, v.code, v.lang""", """
+                               select lk._id, lk._version, lk.name, lk.source_value_id, lk.target_value_id
+                                 from lk:_lookup.LookupValueLink
+                                 join v:_lookup.LookupValue on v._id=lk.source_value_id
+                                 join l:_lookup.Lookup on l._id=v.lookup_id
+                                where l.name like 'TestStatements%'
+                                order by l.name, lk._id""")) {
+      try (Result rs = con.exec(query)) {
+        int columns = rs.columns().size();
+        while (rs.toNext()) {
+          List<Object> row = new ArrayList<>();
+          for (int i = 1; i <= columns; i++) {
+            Object value = rs.value(i);
+            row.add(value == null ? null : value.toString());
+          }
+          state.add(row);
+        }
+      }
+    }
+    return state;
+  }
+
+  private static List<List<Object>> rows(Rows rs, String columns) throws SQLException {
+    try (rs) {
+      List<List<Object>> rows = new ArrayList<>();
+      while (rs.next()) {
+        List<Object> row = new ArrayList<>();
+        for (int i = 0; i < columns.length(); i++) {
+          row.add(switch (columns.charAt(i)) {
+            case 'u' -> rs.uuid(i + 1);
+            case 'n' -> rs.number(i + 1);
+            default  -> rs.string(i + 1);
+          });
+        }
+        rows.add(row);
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Saves the test lookup, with two values linked to those of a target lookup,
+   * and another lookup to relink it to, returning their ids.
+   */
+  private static Fixture fixture(Database db) {
+    LookupExtension ext = db.extension(LookupExtension.class);
+
+    Map<String, LookupValue> targetValues = new LinkedHashMap<>();
+    targetValues.put("X", new LookupValue(UUID.randomUUID(), "TestStatementsTarget", "X", null, null, "Ex", null, "en", List.of()));
+    targetValues.put("Y", new LookupValue(UUID.randomUUID(), "TestStatementsTarget", "Y", null, null, "Why", null, "en", List.of()));
+    Lookup target = new Lookup(id(ext, "TestStatementsTarget"), "TestStatementsTarget", null,
+                               "Test statements target", null, List.of(), targetValues, Map.of());
+    UUID targetId = ext.saveLookup(target);
+
+    UUID otherId = ext.saveLookup(new Lookup(id(ext, "TestStatementsOther"), "TestStatementsOther", null,
+                                             "Test statements other", null, List.of(), Map.of(), Map.of()));
+
+    Map<String, LookupValue> values = new LinkedHashMap<>();
+    values.put("A", new LookupValue(UUID.randomUUID(), "TestStatements", "A", "a", null, "Alpha", null, "en",
+                                    List.of(new LookupValueLink(target.name(),
+                                            new LookupValue(null, target.name(), "X", null, null, null, null, null, List.of())))));
+    values.put("B", new LookupValue(UUID.randomUUID(), "TestStatements", "B", null, "b", "Beta", "Second", "en",
+                                    List.of(new LookupValueLink(target.name(),
+                                            new LookupValue(null, target.name(), "Y", null, null, null, null, null, List.of())))));
+    UUID lookupId = ext.saveLookup(new Lookup(id(ext, "TestStatements"), "TestStatements", "Test",
+                                              "Test statements", "Statements test", List.of(target), values, Map.of()));
+
+    try (EsqlConnection con = db.esql()) {
+      LookupStatements statements = new LookupStatements(db, false);
+      try (Rows rs = statements.query(con, LINK_ID, lookupId, targetId)) {
+        rs.next();
+        UUID linkId = rs.uuid(1);
+        try (Rows vs = statements.query(con, VALUE_ID, lookupId, "A");
+             Rows ts = statements.query(con, LINK_TARGET_ID, target.name(), "Y")) {
+          vs.next();
+          ts.next();
+          return new Fixture(lookupId, targetId, otherId, linkId, vs.uuid(1), ts.uuid(1));
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static UUID id(LookupExtension ext, String name) {
+    UUID id = ext.lookupId(name);
+    return id == null ? UUID.randomUUID() : id;
+  }
+
+  private record Fixture(UUID lookupId,
+                         UUID targetId,
+                         UUID otherId,
+                         UUID linkId,
+                         UUID valueId,
+                         UUID targetValueId) {}
+}
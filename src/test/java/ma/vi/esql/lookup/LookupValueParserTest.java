@@ -0,0 +1,70 @@
+package ma.vi.esql.lookup;
+
+import ma.vi.esql.lookup.init.LookupValueParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class LookupValueParserTest {
+  @Test
+  void fields() {
+    LookupValueParser parser = new LookupValueParser("Test", List.of());
+    assertValue(parser.parse("A,Alpha"), "A", null, null, "Alpha", null, null);
+    assertValue(parser.parse(" A , AA ,Alpha "), "A", "AA", null, "Alpha", null, null);
+    assertValue(parser.parse("A,AA,AAA,Alpha"), "A", "AA", "AAA", "Alpha", null, null);
+    assertValue(parser.parse("A,AA,AAA,Alpha,First,en,ignored"), "A", "AA", "AAA", "Alpha", "First", "en");
+    assertValue(parser.parse("A,,,Alpha"), "A", "", "", "Alpha", null, null);
+    assertValue(parser.parse("A,Alpha,,,"), "A", null, null, "Alpha", null, null);
+    assertValue(parser.parse("A\\,B,T'ii\\,ka"), "A,B", null, null, "T'ii,ka", null, null);
+    assertValue(parser.parse("A\\\\,B,C"), "A\\,B", null, null, "C", null, null);
+  }
+
+  @Test
+  void links() {
+    LookupValueParser parser = new LookupValueParser("Country", List.of("Currency", "RegionalGrouping"));
+    LookupValue value = parser.parse("MU,MUS,480,Mauritius| MUR |SADC");
+    assertEquals("Mauritius", value.label());
+    assertEquals(2, value.links().size());
+    assertEquals("Currency", value.links().get(0).name());
+    assertEquals("Currency", value.links().get(0).target().lookup());
+    assertEquals("MUR",      value.links().get(0).target().code());
+    assertEquals("RegionalGrouping", value.links().get(1).target().lookup());
+    assertEquals("SADC",             value.links().get(1).target().code());
+    assertEquals(2, parser.parse("MU,Mauritius|MUR|SADC||").links().size());
+  }
+
+  @Test
+  void errors() {
+    LookupValueParser parser = new LookupValueParser("Country", List.of("Currency", "RegionalGrouping"));
+    assertEquals("Missing label from value: MU",
+                 assertThrows(IllegalArgumentException.class, () -> parser.parse("MU|MUR|SADC")).getMessage());
+    assertEquals("Missing label from value: MU\ue000X,",
+                 assertThrows(IllegalArgumentException.class, () -> parser.parse("MU\\,X,")).getMessage());
+    assertEquals("1 linked codes were provided but 2 links have been defined on the lookup Country",
+                 assertThrows(IllegalArgumentException.class, () -> parser.parse("MU,Mauritius|MUR")).getMessage());
+    assertEquals("1 linked codes were provided but 2 links have been defined on the lookup Country",
+                 assertThrows(IllegalArgumentException.class, () -> parser.parse("MU,Mauritius|")).getMessage());
+  }
+
+  private static void assertValue(LookupValue value,
+                                  String code,
+                                  String altCode1,
+                                  String altCode2,
+                                  String label,
+                                  String description,
+                                  String lang) {
+    assertEquals(code,        value.code());
+    assertEquals(altCode1,    value.altCode1());
+    assertEquals(altCode2,    value.altCode2());
+    assertEquals(label,       value.label());
+    assertEquals(description, value.description());
+    assertEquals(lang,        value.lang());
+    assertEquals("Test",      value.lookup());
+    assertTrue(value.links().isEmpty());
+  }
+}
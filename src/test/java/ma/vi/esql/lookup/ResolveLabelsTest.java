@@ -0,0 +1,65 @@
+package ma.vi.esql.lookup;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class ResolveLabelsTest extends DataTest {
+  @TestFactory
+  Stream<DynamicTest> resolveLabels() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   List<String> codes = List.of("0115", "0992", "XXXX", "5811");
+
+                   /*
+                    * Resolved with a query when the lookup is not cached and
+                    * from the cache otherwise, with the same results.
+                    */
+                   for (boolean cached: new boolean[] {false, true}) {
+                     ext.invalidateLookups();
+                     if (cached) {
+                       ext.loadLookup("TestClass");
+                     }
+                     assertEquals(Map.of("0115", "Growing of tobacco",
+                                         "0992", "Research & training and service activities incidental to mining of minerals",
+                                         "5811", "Publishing of books"),
+                                  ext.resolveLabels("TestClass", codes, Lookup.MatchBy.code));
+
+                     assertEquals(Map.of("0115", "Agriculture forestry and fishing",
+                                         "0992", "Mining and quarrying",
+                                         "5811", "Information and communication"),
+                                  ext.resolveLabels("TestClass", codes, Lookup.MatchBy.code,
+                                                    "TestGroup", "TestDivision", "TestSection"));
+
+                     assertEquals(Map.of("0115", "0115 / 011 / 01 / A",
+                                         "0992", "0992 / 099 / 09 / B",
+                                         "5811", "5811 / 581 / 58 / J"),
+                                  ext.resolveLabels("TestClass", codes, Lookup.MatchBy.code,
+                                                    new LabelFormat(true, false, false, " - ", false, " / ", false),
+                                                    "TestGroup", "TestDivision", "TestSection"));
+
+                     assertEquals(Map.of("0115", "011 - Growing of non-perennial crops / 0115 - Growing of tobacco"),
+                                  ext.resolveLabels("TestClass", List.of("0115"), Lookup.MatchBy.code,
+                                                    new LabelFormat(true, true, false, " - ", false, " / ", true),
+                                                    "TestGroup"));
+
+                     if (cached) {
+                       ext.loadLookup("Country");
+                     }
+                     assertEquals(Map.of("MUS", "Mauritius"),
+                                  ext.resolveLabels("Country", List.of("MUS", "ZZZ"), Lookup.MatchBy.altCode1));
+                   }
+                 }));
+  }
+}
@@ -0,0 +1,228 @@
+package ma.vi.esql.lookup;
+
+import ma.vi.base.lang.NotFoundException;
+import ma.vi.esql.database.EsqlConnection;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class SaveLookupTest extends DataTest {
+  @TestFactory
+  Stream<DynamicTest> saveInBulk() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Lookup country = ext.loadLookup("Country");
+
+                   int count = 20_000;
+                   Lookup lookup = new Lookup(UUID.randomUUID(), "TestBulk", null, "Test bulk", null,
+                                              List.of(country), values(count, "AF", "MU"), Map.of());
+                   long start = System.currentTimeMillis();
+                   ext.saveLookup(lookup);
+                   System.out.println(count + " values saved in " + (System.currentTimeMillis() - start) + "ms");
+
+                   Lookup saved = ext.loadLookup("TestBulk");
+                   assertEquals(count, saved.values().size());
+                   assertEquals(List.of(country), saved.links());
+                   LookupValue value = ext.loadLookupValue("TestBulk", "V1");
+                   assertEquals("Value 1", value.label());
+                   assertEquals("Mauritius", value.links().get(0).target().label());
+                   value = ext.loadLookupValue("TestBulk", "V2");
+                   assertEquals("Afghanistan", value.links().get(0).target().label());
+
+                   /*
+                    * Resave with fewer values and changed labels: values not
+                    * saved are deleted and the others updated.
+                    */
+                   Map<String, LookupValue> values = values(count / 2, "MU", "AF");
+                   ext.saveLookup(new Lookup(lookup.id(), "TestBulk", null, "Test bulk", null,
+                                             List.of(country), values, Map.of()));
+                   saved = ext.loadLookup("TestBulk");
+                   assertEquals(count / 2, saved.values().size());
+                   assertTrue(ext.findLookupValue("TestBulk", "V" + (count - 1)).isEmpty());
+                   assertEquals("Afghanistan", ext.loadLookupValue("TestBulk", "V1").links().get(0).target().label());
+
+                   /*
+                    * A link to a missing value fails the whole save.
+                    */
+                   values.put("X", new LookupValue(UUID.randomUUID(), "TestBulk", "X", null, null, "X", null, "en",
+                                                   List.of(new LookupValueLink("Country", link("ZZZ")))));
+                   values.remove("V1");
+                   assertThrows(NotFoundException.class,
+                                () -> ext.saveLookup(new Lookup(lookup.id(), "TestBulk", null, "Test bulk", null,
+                                                                List.of(country), values, Map.of())));
+                   ext.invalidateLookup("TestBulk");
+                   assertEquals(count / 2, ext.loadLookup("TestBulk").values().size());
+                   assertTrue(ext.findLookupValue("TestBulk", "V1").isPresent());
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> mapByAltCodes() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Map<String, LookupValue> values = new LinkedHashMap<>();
+                   /*
+                    * Values are saved in the reverse order of their codes, in
+                    * which they are loaded.
+                    */
+                   values.put("D", new LookupValue(UUID.randomUUID(), "TestAltCodes", "D", "Y",  "Z",  "Delta", null, "en", List.of()));
+                   values.put("C", new LookupValue(UUID.randomUUID(), "TestAltCodes", "C", "X",  "W",  "Gamma", null, "en", List.of()));
+                   values.put("B", new LookupValue(UUID.randomUUID(), "TestAltCodes", "B", null, "Z",  "Beta",  null, "en", List.of()));
+                   values.put("A", new LookupValue(UUID.randomUUID(), "TestAltCodes", "A", "X",  null, "Alpha", null, "en", List.of()));
+                   ext.saveLookup(new Lookup(UUID.randomUUID(), "TestAltCodes", null, "Test alt codes", null,
+                                             List.of(), values, Map.of()));
+
+                   /*
+                    * Values without the alternative code are left out and, as
+                    * values are loaded in code order, the value with the
+                    * smallest code wins when an alternative code is duplicated.
+                    */
+                   Lookup lookup = ext.loadLookup("TestAltCodes");
+                   Map<String, LookupValue> byAltCode1 = lookup.mapBy(Lookup.MatchBy.altCode1);
+                   assertEquals(List.of("X", "Y"), List.copyOf(byAltCode1.keySet()));
+                   assertEquals("Alpha", byAltCode1.get("X").label());
+                   assertNull(byAltCode1.get("Z"));
+                   assertSame(byAltCode1, lookup.mapBy(Lookup.MatchBy.altCode1));
+
+                   Map<String, LookupValue> byAltCode2 = lookup.mapBy(Lookup.MatchBy.altCode2);
+                   assertEquals(List.of("Z", "W"), List.copyOf(byAltCode2.keySet()));
+                   assertEquals("Beta",  byAltCode2.get("Z").label());
+                   assertEquals("Gamma", byAltCode2.get("W").label());
+
+                   assertEquals("Alpha", ext.loadLookupValue("TestAltCodes", "X", Lookup.MatchBy.altCode1).label());
+                   assertEquals("Delta", ext.loadLookupValue("TestAltCodes", "Y", Lookup.MatchBy.altCode1).label());
+                   assertTrue(ext.findLookupValue("TestAltCodes", "A", Lookup.MatchBy.altCode2).isEmpty());
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> saveSingleValues() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Lookup country = ext.loadLookup("Country");
+                   UUID id = ext.saveLookup(new Lookup(UUID.randomUUID(), "TestSingle", null, "Test single", null,
+                                                       List.of(), Map.of(), Map.of()));
+                   assertTrue(ext.lookupExists("TestSingle"));
+                   assertEquals(id, ext.lookupId("TestSingle"));
+
+                   /*
+                    * Insert, then update, a value and its links, and link the
+                    * lookup to another, reusing the same statements.
+                    */
+                   ext.saveLookupLink(id, country);
+                   ext.saveLookupLink(id, country);
+                   for (int i = 0; i < 10; i++) {
+                     ext.saveLookupValue(id, new LookupValue(null, "TestSingle", "S", null, null, "Single " + i, null, null,
+                                                             List.of(new LookupValueLink("Country", link(i % 2 == 0 ? "MU" : "AF")))));
+                   }
+                   Lookup saved = ext.loadLookup("TestSingle");
+                   assertEquals(List.of(country), saved.links());
+                   assertEquals(1, saved.values().size());
+                   LookupValue value = ext.loadLookupValue("TestSingle", "S");
+                   assertEquals("Single 9", value.label());
+                   assertEquals("en", value.lang());
+                   assertEquals(1, value.links().size());
+                   assertEquals("Afghanistan", value.links().get(0).target().label());
+                   assertFalse(ext.lookupExists("TestSingleMissing"));
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> saveInOneTransaction() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   System.out.println(db.target());
+                   LookupExtension ext = db.extension(LookupExtension.class);
+                   Lookup country = ext.loadLookup("Country");
+
+                   /*
+                    * Two lookups saved atomically, the second linking to
+                    * values of the first not committed yet.
+                    */
+                   Map<String, LookupValue> regions = new LinkedHashMap<>();
+                   regions.put("R1", new LookupValue(UUID.randomUUID(), "TestTxRegion", "R1", null, null, "Region 1", null, "en",
+                                                     List.of(new LookupValueLink("Country", link("MU")))));
+                   Lookup region = new Lookup(UUID.randomUUID(), "TestTxRegion", null, "Test region", null,
+                                              List.of(country), regions, Map.of());
+                   Map<String, LookupValue> districts = new LinkedHashMap<>();
+                   districts.put("D1", new LookupValue(UUID.randomUUID(), "TestTxDistrict", "D1", null, null, "District 1", null, "en",
+                                                       List.of(new LookupValueLink("TestTxRegion",
+                                                                                   new LookupValue(null, "TestTxRegion", "R1", null, null,
+                                                                                                   null, null, null, List.of())))));
+                   Lookup district = new Lookup(UUID.randomUUID(), "TestTxDistrict", null, "Test district", null,
+                                                List.of(region), districts, Map.of());
+
+                   /*
+                    * The region, saved and cached before the transaction, is
+                    * invalidated when the transaction is committed.
+                    */
+                   Map<String, LookupValue> before = new LinkedHashMap<>();
+                   before.put("R1", new LookupValue(UUID.randomUUID(), "TestTxRegion", "R1", null, null, "Region 0", null, "en", List.of()));
+                   ext.saveLookup(new Lookup(region.id(), "TestTxRegion", null, "Test region", null,
+                                             List.of(), before, Map.of()));
+                   assertEquals("Region 0", ext.loadLookupValue("TestTxRegion", "R1").label());
+                   try (EsqlConnection con = db.esql()) {
+                     UUID regionId = ext.saveLookup(con, region);
+                     UUID districtId = ext.saveLookup(con, district);
+                     ext.saveLookupValue(con, districtId,
+                                         new LookupValue(null, "TestTxDistrict", "D2", null, null, "District 2", null, "en",
+                                                         List.of(new LookupValueLink("TestTxRegion",
+                                                                                     new LookupValue(null, "TestTxRegion", "R1", null, null,
+                                                                                                     null, null, null, List.of())))));
+                     ext.saveLookupLink(con, regionId, country);
+                     ext.commit(con);
+                   }
+                   assertEquals("Region 1", ext.loadLookupValue("TestTxRegion", "R1").label());
+                   assertEquals(2, ext.loadLookup("TestTxDistrict").values().size());
+                   assertEquals("Region 1", ext.loadLookupValue("TestTxDistrict", "D2").links().get(0).target().label());
+
+                   /*
+                    * Nothing is saved when the transaction is rolled back
+                    * after a lookup fails to save.
+                    */
+                   Map<String, LookupValue> broken = new LinkedHashMap<>();
+                   broken.put("B1", new LookupValue(UUID.randomUUID(), "TestTxBroken", "B1", null, null, "Broken", null, "en",
+                                                    List.of(new LookupValueLink("Country", link("ZZZ")))));
+                   try (EsqlConnection con = db.esql()) {
+                     ext.saveLookup(con, new Lookup(UUID.randomUUID(), "TestTxOther", null, "Test other", null,
+                                                    List.of(), Map.of(), Map.of()));
+                     assertThrows(NotFoundException.class,
+                                  () -> ext.saveLookup(con, new Lookup(UUID.randomUUID(), "TestTxBroken", null, "Test broken", null,
+                                                                       List.of(country), broken, Map.of())));
+                     ext.rollback(con);
+                   }
+                   assertFalse(ext.lookupExists("TestTxOther"));
+                   assertFalse(ext.lookupExists("TestTxBroken"));
+                 }));
+  }
+
+  private static Map<String, LookupValue> values(int count, String oddLink, String evenLink) {
+    Map<String, LookupValue> values = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      values.put("V" + i, new LookupValue(UUID.randomUUID(), "TestBulk", "V" + i, null, null, "Value " + i, null, "en",
+                                          List.of(new LookupValueLink("Country", link(i % 2 == 0 ? evenLink : oddLink)))));
+    }
+    return values;
+  }
+
+  private static LookupValue link(String country) {
+    return new LookupValue(null, "Country", country, null, null, null, null, null, List.of());
+  }
+}